@@ -0,0 +1,56 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of an adjustment message against the number of stored sales.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AdjustmentBenchmark extends Workload {
+    @Param({"1000", "100000", "1000000"})
+    public int historySize;
+
+    private Subscriber subscriber;
+    private Message[] adjustments;
+    private int next;
+
+    @Setup
+    public void subscribe(Blackhole blackhole) throws NotAcceptingNewMessages {
+        subscriber = new Subscriber(new NoOpLogger(blackhole), NO_REPORTS);
+        MessageGenerator generator = new MessageGenerator(seed, products, distribution, zipfExponent, 0);
+        for (int i = 0; i < historySize; i++)
+            subscriber.receive(generator.next());
+
+        // adding and subtracting the same value keeps prices stable however long the benchmark runs
+        adjustments = new Message[2 * products];
+        for (int i = 0; i < products; i++) {
+            adjustments[2 * i] = new Message(generator.productName(i), .5, Adjustment.Type.ADD);
+            adjustments[2 * i + 1] = new Message(generator.productName(i), .5, Adjustment.Type.SUBTRACT);
+        }
+    }
+
+    @Benchmark
+    public void adjust() throws NotAcceptingNewMessages {
+        subscriber.receive(adjustments[next]);
+        next = next + 1 == adjustments.length ? 0 : next + 1;
+    }
+}
@@ -0,0 +1,59 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Limits;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of receiving a batch of messages with receiveAll compared to a loop of receive calls.
+ * Reports are logged every 10 messages as by default, without pausing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BatchBenchmark extends Workload {
+    private static final Limits REPORTING = new Limits(10, 50, Limits.UNLIMITED);
+
+    @Param({"1000", "10000", "100000"})
+    public int batchSize;
+
+    private Message[] batch;
+    private Subscriber subscriber;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        batch = messages(batchSize);
+    }
+
+    @Setup(Level.Iteration)
+    public void subscribe(Blackhole blackhole) {
+        subscriber = new Subscriber(new NoOpLogger(blackhole), REPORTING);
+    }
+
+    @Benchmark
+    public void receiveAll() throws NotAcceptingNewMessages {
+        subscriber.receiveAll(batch);
+    }
+
+    @Benchmark
+    public void receiveLoop() throws NotAcceptingNewMessages {
+        for (Message msg : batch)
+            subscriber.receive(msg);
+    }
+}
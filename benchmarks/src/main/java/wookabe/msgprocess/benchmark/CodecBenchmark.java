@@ -0,0 +1,70 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.MessageCodec;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of receiving a buffer of encoded messages read in place by a flyweight,
+ * compared to decoding every record to a Message first. Run with -prof gc to compare allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class CodecBenchmark extends Workload {
+    @Param("10000")
+    public int batchSize;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private ByteBuffer buffer;
+    private Subscriber subscriber;
+
+    @Setup(Level.Trial)
+    public void encode() {
+        Message[] batch = messages(batchSize);
+        int length = 0;
+        for (Message msg : batch)
+            length += MessageCodec.encodedLength(msg);
+        buffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        for (Message msg : batch)
+            MessageCodec.encode(msg, buffer);
+        buffer.flip();
+    }
+
+    @Setup(Level.Iteration)
+    public void subscribe(Blackhole blackhole) {
+        subscriber = new Subscriber(new NoOpLogger(blackhole), NO_REPORTS);
+    }
+
+    @Benchmark
+    public void receiveEncoded() throws NotAcceptingNewMessages {
+        buffer.rewind();
+        subscriber.receiveAll(buffer);
+    }
+
+    @Benchmark
+    public void decodeAndReceive() throws NotAcceptingNewMessages {
+        buffer.rewind();
+        while (buffer.hasRemaining())
+            subscriber.receive(MessageCodec.decode(buffer));
+    }
+}
@@ -0,0 +1,65 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.ThreadParams;
+import wookabe.msgprocess.impl.ConcurrentSubscriber;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of many producers receiving messages concurrently, without reports.
+ * The number of producers is set with the -t option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class ConcurrentReceiveBenchmark extends Workload {
+    private static final int MESSAGES = 1 << 16;
+
+    private ConcurrentSubscriber subscriber;
+
+    @Setup(Level.Iteration)
+    public void subscribe(Blackhole blackhole) {
+        subscriber = new ConcurrentSubscriber(new NoOpLogger(blackhole), NO_REPORTS);
+    }
+
+    @Benchmark
+    public void receive(Producer producer) throws NotAcceptingNewMessages {
+        subscriber.receive(producer.nextMessage());
+    }
+
+    /**
+     * Messages of a single producer thread.
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private Message[] messages;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void generate(ConcurrentReceiveBenchmark workload, ThreadParams threadParams) {
+            messages = workload.generator(threadParams.getThreadIndex()).next(MESSAGES);
+        }
+
+        Message nextMessage() {
+            return messages[next++ & (MESSAGES - 1)];
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.ReportParallelism;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a sales report on the whole stored history, aggregated sequentially or in parallel,
+ * against the number of stored messages. The crossover of both executions on a machine is the threshold
+ * to give the automatic execution there, {@link ReportParallelism#DEFAULT_THRESHOLD} being only a guess.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HistoryReportBenchmark {
+
+    @Benchmark
+    public void historyReport(HistoryState state) {
+        state.subscriber.logSalesReport(0, state.history);
+    }
+
+    public static class HistoryState extends Workload {
+        @Param({"4096", "16384", "65536", "262144", "1048576"})
+        public int history;
+
+        @Param({"SEQUENTIAL", "PARALLEL", "AUTOMATIC"})
+        public String execution;
+
+        /**
+         * Threads of the parallel execution, 0 for the number of cores
+         */
+        @Param("0")
+        public int threads;
+
+        private Subscriber subscriber;
+        private ForkJoinPool pool;
+
+        @Setup(Level.Trial)
+        public void subscribe(Blackhole blackhole) throws NotAcceptingNewMessages {
+            subscriber = new Subscriber(new NoOpLogger(blackhole), NO_REPORTS);
+            subscriber.receiveAll(messages(history));
+            pool = new ForkJoinPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+            subscriber.setReportParallelism(execution.equals("SEQUENTIAL") ? ReportParallelism.SEQUENTIAL
+                    : execution.equals("PARALLEL") ? ReportParallelism.parallel(pool)
+                    : ReportParallelism.automatic(pool, ReportParallelism.DEFAULT_THRESHOLD));
+        }
+
+        @TearDown(Level.Trial)
+        public void shutDown() {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.FileIngester;
+import wookabe.msgprocess.impl.IngestionStatistics;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of feeding a file of messages to a subscriber against the number of parsing threads.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestionBenchmark extends Workload {
+    @Param("5000000")
+    public int lines;
+
+    @Param({"1", "2", "4"})
+    public int parsers;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void write() throws IOException {
+        file = Files.createTempFile("messages", ".csv");
+        MessageGenerator generator = generator(0);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                Message msg = generator.next();
+                writer.append(msg.getProductName()).append(',');
+                if (msg.getAdjustment() != null)
+                    writer.append(Double.toString(msg.getAdjustment().getValue())).append(',')
+                            .append(msg.getAdjustment().getType().name());
+                else
+                    writer.append(Double.toString(msg.getPrice())).append(',')
+                            .append(Integer.toString(msg.getNumberOfSales()));
+                writer.append('\n');
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public IngestionStatistics ingest(Blackhole blackhole) throws IOException, NotAcceptingNewMessages {
+        return new FileIngester(parsers, FileIngester.DEFAULT_CHUNK_SIZE)
+                .ingest(file, new Subscriber(new NoOpLogger(blackhole), NO_REPORTS));
+    }
+}
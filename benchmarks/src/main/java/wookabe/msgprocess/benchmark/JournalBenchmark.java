@@ -0,0 +1,133 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Journal;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Message;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of journaling received messages and of recovering a subscriber from its journal.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class JournalBenchmark {
+    private static final int MESSAGES = 1 << 16;
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public boolean receive(AppendState state) {
+        return state.subscriber.offer(state.messages[state.next()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Subscriber replay(ReplayState state, Blackhole blackhole) {
+        try (Journal journal = new Journal(state.directory)) {
+            Subscriber subscriber = new Subscriber(new NoOpLogger(blackhole), Workload.NO_REPORTS);
+            subscriber.setJournal(journal);
+            return subscriber;
+        }
+    }
+
+    /**
+     * Durable subscriber receiving generated messages.
+     */
+    public static class AppendState extends Workload {
+        /**
+         * Number of records forced to the disk at once, 0 to leave writing back to the operating system
+         */
+        @Param({"0", "1", "64"})
+        public int syncEvery;
+
+        private Path directory;
+        private Journal journal;
+        private Subscriber subscriber;
+        private Message[] messages;
+        private int next;
+
+        @Setup(Level.Iteration)
+        public void open(Blackhole blackhole) throws IOException {
+            directory = Files.createTempDirectory("journal");
+            journal = new Journal(directory, Journal.DEFAULT_SEGMENT_SIZE, syncEvery);
+            subscriber = new Subscriber(new NoOpLogger(blackhole), NO_REPORTS);
+            subscriber.setJournal(journal);
+            messages = messages(MESSAGES);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            journal.close();
+            delete(directory);
+        }
+
+        int next() {
+            int i = next;
+            next = (next + 1) & (MESSAGES - 1);
+            return i;
+        }
+    }
+
+    /**
+     * Journal of generated messages to recover from, with a snapshot of all but the last segment if required.
+     */
+    public static class ReplayState extends Workload {
+        @Param({"1000000", "10000000", "30000000"})
+        public int records;
+
+        @Param({"false", "true"})
+        public boolean snapshot;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void write(Blackhole blackhole) throws IOException {
+            directory = Files.createTempDirectory("journal");
+            MessageGenerator generator = generator(0);
+            try (Journal journal = new Journal(directory)) {
+                for (int i = 0; i < records; i++)
+                    journal.append(generator.next());
+                if (snapshot) {
+                    Subscriber subscriber = new Subscriber(new NoOpLogger(blackhole), Workload.NO_REPORTS);
+                    subscriber.setJournal(journal);
+                    subscriber.snapshot().join();
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            JournalBenchmark.delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package wookabe.msgprocess.benchmark;
+
+import wookabe.msgprocess.impl.ConcurrentSubscriber;
+import wookabe.msgprocess.impl.LatencyHistogram;
+import wookabe.msgprocess.impl.Limits;
+import wookabe.msgprocess.impl.Logger;
+import wookabe.msgprocess.impl.PartitionedSubscriber;
+import wookabe.msgprocess.impl.Retention;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+import wookabe.msgprocess.subscription.Receivable;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator driving a receiver with reproducible streams of messages from several producer threads
+ * for a fixed duration, then printing the throughput, the latency percentiles and the garbage collections.
+ * <p>
+ * Every producer cycles over its own stream, generated beforehand from the seed plus the index of the producer.
+ * Without a target rate the producers send as fast as the receiver accepts (closed loop). With a target rate
+ * every message is due at a fixed time of an open-loop schedule, and its response time is measured from that time
+ * rather than from when it was sent, so a stalled receiver is charged for every message it delayed instead
+ * of hiding them (coordinated omission). The service time, from sending to acceptance, is reported as well.
+ * <p>
+ * Options are given as name=value, see {@link #DEFAULTS}:
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar wookabe.msgprocess.benchmark.LoadGenerator \
+ *     receiver=subscriber threads=2 rate=1000000 duration=60 distribution=ZIPF adjustmentMix=2,1,1
+ * </pre>
+ */
+public class LoadGenerator {
+    /**
+     * Options and their default values
+     */
+    static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        // subscriber, concurrent or partitioned
+        DEFAULTS.put("receiver", "subscriber");
+        DEFAULTS.put("products", "1000");
+        DEFAULTS.put("distribution", "UNIFORM");
+        DEFAULTS.put("zipfExponent", "1.0");
+        DEFAULTS.put("adjustmentRate", "0.01");
+        // Relative weights of ADD, SUBTRACT and MULTIPLY adjustments
+        DEFAULTS.put("adjustmentMix", "1,1,1");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("threads", "1");
+        // Messages per second of all producers together, 0 to send as fast as possible
+        DEFAULTS.put("rate", "0");
+        // Seconds of warm-up not measured, then seconds of measurement
+        DEFAULTS.put("warmup", "5");
+        DEFAULTS.put("duration", "30");
+        // Messages generated per producer and cycled over, a power of two
+        DEFAULTS.put("stream", "65536");
+        // Raw messages kept in memory by a subscriber, 0 to keep them all
+        DEFAULTS.put("retention", "1048576");
+        // Shards of a partitioned subscriber, 0 for the number of cores
+        DEFAULTS.put("shards", "0");
+    }
+
+    /**
+     * Time before the due time of a message from which a producer spins instead of parking
+     */
+    private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int products;
+    private final ProductDistribution distribution;
+    private final double zipfExponent;
+    private final double adjustmentRate;
+    private final double[] adjustmentMix;
+    private final long seed;
+    private final int threads;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final int stream;
+
+    /**
+     * Constructor.
+     *
+     * @param options values of the options, missing options taking their default value
+     * @throws IllegalArgumentException thrown if an option is unknown or invalid
+     */
+    public LoadGenerator(Map<String, String> options) {
+        Map<String, String> values = withDefaults(options);
+        products = Integer.parseInt(values.get("products"));
+        distribution = ProductDistribution.valueOf(values.get("distribution"));
+        zipfExponent = Double.parseDouble(values.get("zipfExponent"));
+        adjustmentRate = Double.parseDouble(values.get("adjustmentRate"));
+        String[] weights = values.get("adjustmentMix").split(",");
+        adjustmentMix = new double[weights.length];
+        for (int i = 0; i < weights.length; i++)
+            adjustmentMix[i] = Double.parseDouble(weights[i].trim());
+        seed = Long.parseLong(values.get("seed"));
+        threads = Integer.parseInt(values.get("threads"));
+        rate = Double.parseDouble(values.get("rate"));
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(values.get("warmup")));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(values.get("duration")));
+        stream = Integer.parseInt(values.get("stream"));
+        if (threads <= 0)
+            throw new IllegalArgumentException("Number of threads must be greater than 0");
+        if (rate < 0)
+            throw new IllegalArgumentException("Rate cannot be negative");
+        if (durationNanos <= 0)
+            throw new IllegalArgumentException("Duration must be greater than 0");
+        if (Integer.bitCount(stream) != 1)
+            throw new IllegalArgumentException("Stream length must be a power of two");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0)
+                throw new IllegalArgumentException("Option " + arg + " is not name=value, options: " + DEFAULTS);
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        Map<String, String> values = withDefaults(options);
+        LoadGenerator generator = new LoadGenerator(values);
+        System.out.println("Load " + values);
+
+        Limits noReports = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+        long retention = Long.parseLong(values.get("retention"));
+        int shards = Integer.parseInt(values.get("shards"));
+        switch (values.get("receiver")) {
+            case "subscriber":
+                Subscriber subscriber = new Subscriber(new DiscardingLogger(), noReports);
+                subscriber.setRetention(retention > 0 ? Retention.messages(retention) : Retention.UNLIMITED);
+                System.out.println(generator.run(generator.threads > 1 ? serialized(subscriber) : subscriber));
+                break;
+            case "concurrent":
+                System.out.println(generator.run(new ConcurrentSubscriber(new DiscardingLogger(), noReports)));
+                break;
+            case "partitioned":
+                try (PartitionedSubscriber partitioned = new PartitionedSubscriber(new DiscardingLogger(), noReports,
+                        shards > 0 ? shards : Runtime.getRuntime().availableProcessors())) {
+                    System.out.println(generator.run(generator.threads > 1 ? serialized(partitioned) : partitioned));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown receiver " + values.get("receiver"));
+        }
+    }
+
+    /**
+     * Drive a receiver with the load from the producer threads, the calling thread waiting for the end.
+     * The receiver must accept messages from all producers at once.
+     *
+     * @param receiver receiver of the messages
+     * @return measurements of the load after the warm-up
+     * @throws InterruptedException thrown if interrupted while waiting for the producers
+     */
+    public Result run(Receivable receiver) throws InterruptedException {
+        Producer[] producers = new Producer[threads];
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < threads; i++) {
+            Message[] messages = new MessageGenerator(seed + i, products, distribution, zipfExponent, adjustmentRate,
+                    adjustmentMix).next(stream);
+            producers[i] = new Producer(receiver, messages, i, start);
+        }
+        for (Producer producer : producers)
+            producer.start();
+
+        long measureStart = start + warmupNanos;
+        sleepUntil(measureStart);
+        long[] gcBefore = garbageCollections();
+        Map<Long, Long> allocatedBefore = allocatedBytes();
+        sleepUntil(measureStart + durationNanos);
+        Map<Long, Long> allocatedAfter = allocatedBytes();
+        for (Producer producer : producers)
+            producer.join();
+        long elapsed = System.nanoTime() - measureStart;
+        long[] gcAfter = garbageCollections();
+
+        Result result = new Result(elapsed);
+        for (Producer producer : producers) {
+            result.add(producer);
+            allocatedAfter.remove(producer.getId());
+        }
+        result.collections = gcAfter[0] - gcBefore[0];
+        result.collectionMillis = gcAfter[1] - gcBefore[1];
+        for (Map.Entry<Long, Long> allocated : allocatedAfter.entrySet())
+            result.allocatedBytes += allocated.getValue() - allocatedBefore.getOrDefault(allocated.getKey(), 0L);
+        return result;
+    }
+
+    /**
+     * Thread sending a stream of messages, on the schedule of the target rate if any.
+     */
+    private class Producer extends Thread {
+        private final Receivable receiver;
+        private final Message[] messages;
+        private final long start;
+
+        /**
+         * Offset of the schedule of the producer, producers being spread evenly over the interval
+         */
+        private final double phase;
+
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private long accepted;
+        private long rejected;
+
+        /**
+         * Bytes allocated by the producer when the measurement starts and when it ends, -1 if not sampled.
+         * The producer samples itself, as a dead thread is no longer listed by the thread bean.
+         */
+        private long allocatedBefore = -1;
+        private long allocatedAfter = -1;
+
+        Producer(Receivable receiver, Message[] messages, int index, long start) {
+            super("load-producer-" + index);
+            setDaemon(true);
+            this.receiver = receiver;
+            this.messages = messages;
+            this.start = start;
+            phase = (double) index / threads;
+        }
+
+        @Override
+        public void run() {
+            double interval = rate > 0 ? threads * 1e9 / rate : 0;
+            long measureStart = start + warmupNanos;
+            long end = measureStart + durationNanos;
+            sleepUntil(start);
+            for (long i = 0; ; i++) {
+                long due;
+                if (interval > 0) {
+                    due = start + (long) ((i + phase) * interval);
+                    if (due >= end)
+                        break;
+                    waitUntil(due);
+                } else {
+                    due = System.nanoTime();
+                    if (due >= end)
+                        break;
+                }
+                if (allocatedBefore < 0 && due >= measureStart)
+                    allocatedBefore = allocatedBytes(getId());
+
+                long sent = System.nanoTime();
+                boolean offered = receiver.offer(messages[(int) (i & (messages.length - 1))]);
+                long done = System.nanoTime();
+                if (due < measureStart)
+                    continue;
+                responseTime.record(done - due);
+                serviceTime.record(done - sent);
+                if (offered)
+                    accepted++;
+                else
+                    rejected++;
+            }
+            if (allocatedBefore >= 0)
+                allocatedAfter = allocatedBytes(getId());
+        }
+    }
+
+    /**
+     * Measurements of a load after its warm-up.
+     */
+    public static class Result {
+        private final long elapsedNanos;
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private long accepted;
+        private long rejected;
+        private long collections;
+        private long collectionMillis;
+        private long allocatedBytes;
+
+        Result(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        private void add(Producer producer) {
+            responseTime.add(producer.responseTime);
+            serviceTime.add(producer.serviceTime);
+            accepted += producer.accepted;
+            rejected += producer.rejected;
+            if (producer.allocatedAfter >= 0)
+                allocatedBytes += producer.allocatedAfter - producer.allocatedBefore;
+        }
+
+        //
+        // Properties
+        //
+
+        /**
+         * Gets the number of messages accepted per second.
+         *
+         * @return throughput
+         */
+        public double getThroughput() {
+            return accepted * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * Gets the times from when the messages were due to their acceptance,
+         * corrected for coordinated omission on an open-loop schedule.
+         *
+         * @return histogram of the response times in nanoseconds
+         */
+        public LatencyHistogram getResponseTime() {
+            return responseTime;
+        }
+
+        /**
+         * Gets the times from when the messages were sent to their acceptance.
+         *
+         * @return histogram of the service times in nanoseconds
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getCollections() {
+            return collections;
+        }
+
+        public long getCollectionMillis() {
+            return collectionMillis;
+        }
+
+        /**
+         * Gets the bytes allocated by the producers and by the threads of the receiver alive at the end
+         * of the measurement.
+         *
+         * @return allocated bytes, 0 if the JVM does not measure allocation
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            long messages = accepted + rejected;
+            return String.format("Throughput: %.0f messages/s over %.1f s, %d accepted, %d rejected%n",
+                    getThroughput(), elapsedNanos / 1e9, accepted, rejected)
+                    + "Response time (ns): " + percentiles(responseTime) + System.lineSeparator()
+                    + "Service time (ns):  " + percentiles(serviceTime) + System.lineSeparator()
+                    + String.format("GC: %d collections, %d ms (%.2f%% of the time)%n", collections, collectionMillis,
+                    collectionMillis * 1e8 / elapsedNanos)
+                    + String.format("Allocation: %.1f MB/s, %.1f bytes/message",
+                    allocatedBytes * 1e3 / elapsedNanos, messages == 0 ? 0 : (double) allocatedBytes / messages);
+        }
+
+        private static String percentiles(LatencyHistogram histogram) {
+            StringBuilder percentiles = new StringBuilder();
+            for (double percentile : new double[]{50, 90, 99, 99.9, 99.99})
+                percentiles.append("p").append(percentile).append('=')
+                        .append(histogram.getValueAtPercentile(percentile)).append(' ');
+            return percentiles.append("max=").append(histogram.getMax()).toString();
+        }
+    }
+
+    private static Map<String, String> withDefaults(Map<String, String> options) {
+        Map<String, String> values = new LinkedHashMap<>(DEFAULTS);
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            if (!DEFAULTS.containsKey(option.getKey()))
+                throw new IllegalArgumentException("Unknown option " + option.getKey() + ", options: " + DEFAULTS);
+            values.put(option.getKey(), option.getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Share a single-producer receiver between the producer threads, one message at a time.
+     *
+     * @param receiver receiver accepting messages from a single producer at a time
+     * @return receiver accepting messages from any thread
+     */
+    private static Receivable serialized(Receivable receiver) {
+        return new Receivable() {
+            @Override
+            public synchronized void receive(Message msg) throws NotAcceptingNewMessages {
+                receiver.receive(msg);
+            }
+
+            @Override
+            public synchronized boolean offer(Message msg) {
+                return receiver.offer(msg);
+            }
+        };
+    }
+
+    /**
+     * Wait until a due time, parking until shortly before it then spinning for precision.
+     *
+     * @param due time to wait for, in nanoseconds of {@link System#nanoTime()}
+     */
+    private static void waitUntil(long due) {
+        for (long remaining = due - System.nanoTime(); remaining > 0; remaining = due - System.nanoTime()) {
+            if (remaining > SPIN_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            else
+                Thread.onSpinWait();
+        }
+    }
+
+    private static void sleepUntil(long time) {
+        for (long remaining = time - System.nanoTime(); remaining > 0; remaining = time - System.nanoTime())
+            LockSupport.parkNanos(remaining);
+    }
+
+    /**
+     * Gets the number and time of the garbage collections so far.
+     *
+     * @return collections and milliseconds spent collecting, over all collectors
+     */
+    private static long[] garbageCollections() {
+        long[] collections = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections[0] += Math.max(0, collector.getCollectionCount());
+            collections[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return collections;
+    }
+
+    /**
+     * Gets the bytes allocated so far by a live thread.
+     *
+     * @param threadId id of the thread
+     * @return allocated bytes, -1 if the JVM does not measure allocation
+     */
+    private static long allocatedBytes(long threadId) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(threadId);
+    }
+
+    /**
+     * Gets the bytes allocated so far by every live thread.
+     *
+     * @return allocated bytes by thread id, empty if the JVM does not measure allocation
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        Map<Long, Long> allocated = new HashMap<>();
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return allocated;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0)
+                allocated.put(ids[i], bytes[i]);
+        }
+        return allocated;
+    }
+
+    /**
+     * Logger of a load without reports.
+     */
+    private static class DiscardingLogger implements Logger {
+        @Override
+        public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        }
+
+        @Override
+        public void logPause() {
+        }
+
+        @Override
+        public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package wookabe.msgprocess.benchmark;
+
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.Random;
+
+/**
+ * Generator of reproducible streams of sale and adjustment messages.
+ */
+public class MessageGenerator {
+    private static final Adjustment.Type[] ADJUSTMENT_TYPES = Adjustment.Type.values();
+
+    private final Random random;
+    private final ProductSampler sampler;
+    private final String[] productNames;
+    private final double adjustmentRate;
+
+    /**
+     * Cumulative probability of the adjustment types in order of declaration, null for equally likely types
+     */
+    private final double[] adjustmentMix;
+
+    /**
+     * Constructor.
+     *
+     * @param seed           seed of the stream, equal seeds give equal streams
+     * @param products       number of distinct products
+     * @param distribution   distribution of the products
+     * @param zipfExponent   exponent of the Zipf distribution
+     * @param adjustmentRate probability of a message being an adjustment
+     */
+    public MessageGenerator(long seed, int products, ProductDistribution distribution, double zipfExponent,
+                            double adjustmentRate) {
+        this(seed, products, distribution, zipfExponent, adjustmentRate, null);
+    }
+
+    /**
+     * Constructor with a mix of adjustment types.
+     *
+     * @param seed           seed of the stream, equal seeds give equal streams
+     * @param products       number of distinct products
+     * @param distribution   distribution of the products
+     * @param zipfExponent   exponent of the Zipf distribution
+     * @param adjustmentRate probability of a message being an adjustment
+     * @param adjustmentMix  relative weights of the adjustment types in order of declaration,
+     *                       null for equally likely types
+     */
+    public MessageGenerator(long seed, int products, ProductDistribution distribution, double zipfExponent,
+                            double adjustmentRate, double[] adjustmentMix) {
+        if (adjustmentMix != null && adjustmentMix.length != ADJUSTMENT_TYPES.length)
+            throw new IllegalArgumentException("Adjustment mix needs a weight per adjustment type");
+        random = new Random(seed);
+        sampler = new ProductSampler(products, distribution, zipfExponent);
+        productNames = new String[products];
+        for (int i = 0; i < products; i++)
+            productNames[i] = "product" + i;
+        this.adjustmentRate = adjustmentRate;
+        this.adjustmentMix = adjustmentMix == null ? null : cumulative(adjustmentMix);
+    }
+
+    private static double[] cumulative(double[] weights) {
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 0)
+                throw new IllegalArgumentException("Adjustment weights cannot be negative");
+            sum += weights[i];
+            cdf[i] = sum;
+        }
+        if (sum == 0)
+            throw new IllegalArgumentException("At least one adjustment weight must be positive");
+        for (int i = 0; i < weights.length; i++)
+            cdf[i] /= sum;
+        return cdf;
+    }
+
+    /**
+     * Generate the next message. Adjustments keep prices positive and bounded:
+     * small additions and subtractions and multiplications close to 1.
+     *
+     * @return sale or adjustment message
+     */
+    public Message next() {
+        String productName = productNames[sampler.next(random)];
+        if (random.nextDouble() >= adjustmentRate)
+            return new Message(productName, random.nextInt(10000) / 100. + 1, random.nextInt(10) + 1);
+
+        Adjustment.Type type = adjustmentMix == null ? ADJUSTMENT_TYPES[random.nextInt(ADJUSTMENT_TYPES.length)]
+                : adjustmentType(random.nextDouble());
+        double value = type == Adjustment.Type.MULTIPLY ? 1 + random.nextInt(10) / 1000. : random.nextInt(10) / 100. + .01;
+        return new Message(productName, value, type);
+    }
+
+    private Adjustment.Type adjustmentType(double u) {
+        for (int i = 0; i < adjustmentMix.length - 1; i++) {
+            if (u < adjustmentMix[i])
+                return ADJUSTMENT_TYPES[i];
+        }
+        return ADJUSTMENT_TYPES[adjustmentMix.length - 1];
+    }
+
+    /**
+     * Generate messages.
+     *
+     * @param n number of messages
+     * @return generated messages
+     */
+    public Message[] next(int n) {
+        Message[] messages = new Message[n];
+        for (int i = 0; i < n; i++)
+            messages[i] = next();
+        return messages;
+    }
+
+    /**
+     * Gets the name of a product.
+     *
+     * @param index index of the product
+     * @return name of the product
+     */
+    public String productName(int index) {
+        return productNames[index];
+    }
+}
@@ -0,0 +1,35 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Logger;
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Logger discarding the reports, keeping console output out of the measurements.
+ * Reports are consumed by a blackhole so building them cannot be optimized away.
+ */
+public class NoOpLogger implements Logger {
+    private final Blackhole blackhole;
+
+    public NoOpLogger(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        blackhole.consume(numberOfSales);
+        blackhole.consume(totalValues);
+    }
+
+    @Override
+    public void logPause() {
+    }
+
+    @Override
+    public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+        blackhole.consume(productsToAdjustments);
+    }
+}
@@ -0,0 +1,61 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.PartitionedSubscriber;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the partitioned subscriber against the number of shards, without reports.
+ * Each operation routes a batch of messages and waits until the shards processed it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PartitionedReceiveBenchmark extends Workload {
+    private static final int MESSAGES = 1 << 16;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    private Message[] messages;
+    private PartitionedSubscriber subscriber;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        messages = messages(MESSAGES);
+    }
+
+    @Setup(Level.Iteration)
+    public void subscribe(Blackhole blackhole) {
+        subscriber = new PartitionedSubscriber(new NoOpLogger(blackhole), NO_REPORTS, shards);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        subscriber.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void receive() throws NotAcceptingNewMessages {
+        subscriber.receiveAll(messages);
+        subscriber.awaitProcessed();
+    }
+}
@@ -0,0 +1,15 @@
+package wookabe.msgprocess.benchmark;
+
+/**
+ * Distribution of products over the generated messages.
+ */
+public enum ProductDistribution {
+    /**
+     * Every product is equally likely
+     */
+    UNIFORM,
+    /**
+     * Product of rank k is proportional to 1 / k^s likely, a few products get most of the messages
+     */
+    ZIPF
+}
@@ -0,0 +1,53 @@
+package wookabe.msgprocess.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sampler of product indexes following a product distribution.
+ */
+class ProductSampler {
+    private final int products;
+
+    /**
+     * Cumulative probability per product rank, null for the uniform distribution
+     */
+    private final double[] cdf;
+
+    /**
+     * Constructor.
+     *
+     * @param products     number of distinct products
+     * @param distribution distribution of the products
+     * @param zipfExponent exponent s of the Zipf distribution
+     */
+    ProductSampler(int products, ProductDistribution distribution, double zipfExponent) {
+        this.products = products;
+        if (distribution == ProductDistribution.UNIFORM) {
+            cdf = null;
+            return;
+        }
+
+        cdf = new double[products];
+        double sum = 0;
+        for (int k = 0; k < products; k++) {
+            sum += 1 / Math.pow(k + 1, zipfExponent);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < products; k++)
+            cdf[k] /= sum;
+    }
+
+    /**
+     * Sample the index of a product.
+     *
+     * @param random source of randomness
+     * @return index of the product, 0 being the most frequent one for Zipf
+     */
+    int next(Random random) {
+        if (cdf == null)
+            return random.nextInt(products);
+        int k = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(k < 0 ? -k - 1 : k, products - 1);
+    }
+}
@@ -0,0 +1,58 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.impl.SubscriberMetrics;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of receiving single messages, without reports.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReceiveBenchmark extends Workload {
+    private static final int MESSAGES = 1 << 16;
+
+    /**
+     * Whether the subscriber records metrics
+     */
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private Message[] messages;
+    private Subscriber subscriber;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        messages = messages(MESSAGES);
+    }
+
+    @Setup(Level.Iteration)
+    public void subscribe(Blackhole blackhole) {
+        subscriber = new Subscriber(new NoOpLogger(blackhole), NO_REPORTS);
+        if (metrics)
+            subscriber.setMetrics(new SubscriberMetrics());
+    }
+
+    @Benchmark
+    public void receive() throws NotAcceptingNewMessages {
+        subscriber.receive(messages[next++ & (MESSAGES - 1)]);
+    }
+}
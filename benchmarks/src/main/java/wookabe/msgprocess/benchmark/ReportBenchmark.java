@@ -0,0 +1,115 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.Limits;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.impl.TopSales;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the sales and adjustment reports against the number of distinct products,
+ * and of the sales reports of the 10 products of highest total value.
+ * Every received message triggers the measured report.
+ * Vary the number of products of the workload with -p products=10,1000,100000.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReportBenchmark {
+    /**
+     * Number of messages received per product before measuring
+     */
+    private static final int MESSAGES_PER_PRODUCT = 10;
+
+    @Benchmark
+    public void salesReport(SalesReportState state) throws NotAcceptingNewMessages {
+        state.receiveNext();
+    }
+
+    @Benchmark
+    public void topSalesReport(TopSalesReportState state) throws NotAcceptingNewMessages {
+        state.receiveNext();
+    }
+
+    @Benchmark
+    public void adjustmentReport(AdjustmentReportState state) throws NotAcceptingNewMessages {
+        state.receiveNext();
+    }
+
+    /**
+     * Subscriber with a history of every product, reporting on each message.
+     */
+    @State(Scope.Benchmark)
+    public abstract static class ReportState extends Workload {
+        private Subscriber subscriber;
+        private Message[] messages;
+        private int next;
+
+        abstract Limits limits();
+
+        void configure(Subscriber subscriber) {
+        }
+
+        @Setup
+        public void subscribe(Blackhole blackhole) throws NotAcceptingNewMessages {
+            subscriber = new Subscriber(new NoOpLogger(blackhole), limits());
+            configure(subscriber);
+            MessageGenerator generator = generator(0);
+            for (int i = 0; i < products; i++)
+                subscriber.receive(new Message(generator.productName(i), 1));
+            messages = generator.next(products * MESSAGES_PER_PRODUCT);
+            subscriber.receiveAll(messages);
+        }
+
+        void receiveNext() throws NotAcceptingNewMessages {
+            subscriber.receive(messages[next]);
+            next = next + 1 == messages.length ? 0 : next + 1;
+        }
+    }
+
+    public static class SalesReportState extends ReportState {
+        @Override
+        Limits limits() {
+            return new Limits(1, Integer.MAX_VALUE, Limits.UNLIMITED);
+        }
+    }
+
+    public static class TopSalesReportState extends ReportState {
+        @Param({"false", "true"})
+        public boolean approximate;
+
+        @Override
+        Limits limits() {
+            return new Limits(1, Integer.MAX_VALUE, Limits.UNLIMITED);
+        }
+
+        @Override
+        void configure(Subscriber subscriber) {
+            subscriber.setTopSales(approximate ? TopSales.approximate(10, TopSales.Ranking.TOTAL_VALUE)
+                    : TopSales.exact(10, TopSales.Ranking.TOTAL_VALUE));
+        }
+    }
+
+    public static class AdjustmentReportState extends ReportState {
+        @Override
+        Limits limits() {
+            return new Limits(Integer.MAX_VALUE, 1, Limits.UNLIMITED);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import wookabe.msgprocess.impl.ProductTotals;
+import wookabe.msgprocess.impl.Retention;
+import wookabe.msgprocess.impl.Subscriber;
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the queries of the current sales while a thread keeps receiving messages, and of the receptions
+ * while threads keep querying. Each group runs a receiving thread along with threads querying a product
+ * or all products, every method of a group being reported on its own line with its percentiles.
+ * The receptions of a group compared with {@link #receiveAlone} give the cost of the readers to the writer.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SalesQueryBenchmark extends Workload {
+    private static final int MESSAGES = 1 << 16;
+
+    private Subscriber subscriber;
+    private Message[] messages;
+    private String[] productNames;
+
+    @Setup(Level.Trial)
+    public void subscribe(Blackhole blackhole) {
+        subscriber = new Subscriber(new NoOpLogger(blackhole), NO_REPORTS);
+        subscriber.setRetention(Retention.messages(MESSAGES));
+        messages = messages(MESSAGES);
+        MessageGenerator generator = generator(0);
+        productNames = new String[products];
+        for (int i = 0; i < products; i++)
+            productNames[i] = generator.productName(i);
+        for (Message msg : messages)
+            subscriber.offer(msg);
+    }
+
+    @Benchmark
+    public boolean receiveAlone(Producer producer) {
+        return subscriber.offer(messages[producer.next++ & (MESSAGES - 1)]);
+    }
+
+    @Benchmark
+    @Group("product")
+    @GroupThreads(1)
+    public boolean receiveWhileProductRead(Producer producer) {
+        return subscriber.offer(messages[producer.next++ & (MESSAGES - 1)]);
+    }
+
+    @Benchmark
+    @Group("product")
+    @GroupThreads(2)
+    public ProductTotals readProduct(Reader reader) {
+        return subscriber.getSales(productNames[reader.next++ % products]);
+    }
+
+    @Benchmark
+    @Group("all")
+    @GroupThreads(1)
+    public boolean receiveWhileAllRead(Producer producer) {
+        return subscriber.offer(messages[producer.next++ & (MESSAGES - 1)]);
+    }
+
+    @Benchmark
+    @Group("all")
+    @GroupThreads(2)
+    public List<ProductTotals> readAll() {
+        return subscriber.getSales();
+    }
+
+    /**
+     * Position of the receiving thread in the messages.
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private int next;
+    }
+
+    /**
+     * Position of a querying thread in the products.
+     */
+    @State(Scope.Thread)
+    public static class Reader {
+        private int next;
+    }
+}
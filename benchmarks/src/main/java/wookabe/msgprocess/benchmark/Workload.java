@@ -0,0 +1,53 @@
+package wookabe.msgprocess.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import wookabe.msgprocess.impl.Limits;
+import wookabe.msgprocess.subscription.Message;
+
+/**
+ * Configurable workload shared by the benchmarks.
+ */
+@State(Scope.Benchmark)
+public abstract class Workload {
+    /**
+     * Limits of a subscriber which neither reports nor pauses
+     */
+    static final Limits NO_REPORTS = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+
+    @Param("1000")
+    public int products;
+
+    @Param({"UNIFORM", "ZIPF"})
+    public ProductDistribution distribution;
+
+    @Param("1.0")
+    public double zipfExponent;
+
+    @Param("0.01")
+    public double adjustmentRate;
+
+    @Param("42")
+    public long seed;
+
+    /**
+     * Create a generator of the workload messages.
+     *
+     * @param stream index of the stream, different streams get different seeds
+     * @return message generator
+     */
+    MessageGenerator generator(int stream) {
+        return new MessageGenerator(seed + stream, products, distribution, zipfExponent, adjustmentRate);
+    }
+
+    /**
+     * Generate workload messages.
+     *
+     * @param n number of messages
+     * @return generated messages
+     */
+    Message[] messages(int n) {
+        return generator(0).next(n);
+    }
+}
@@ -0,0 +1,400 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.PriceTransform;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only index of the adjustment messages per product id.
+ * Each product has its own primitive arrays of adjustment types, values and message sequence numbers,
+ * and the products are logged in order of reception, so the history is listed or queried in time proportional
+ * to the number of adjustments, whatever the number of sales.
+ * <p>
+ * Every adjustment also stores the composition of all adjustments of the product up to it, as an affine
+ * transform relative to the start of its segment, so the adjustments since any epoch are applied to a price
+ * in constant time by undoing the composition up to the epoch. A new segment starts with an adjustment which
+ * would overflow the composition or underflow its scale below the normal doubles, where it could no longer be
+ * undone, so a price crosses one composition per segment. The result may differ from applying
+ * the adjustments one by one in the last bits.
+ */
+class AdjustmentHistory {
+    private static final Adjustment.Type[] ADJUSTMENT_TYPES = Adjustment.Type.values();
+    private static final byte[] NO_TYPES = new byte[0];
+    private static final double[] NO_VALUES = new double[0];
+    private static final long[] NO_SEQUENCES = new long[0];
+    private static final int[] NO_STARTS = new int[0];
+
+    /**
+     * Adjustments per product id: ordinals of the types, values and sequence numbers of the messages
+     */
+    private byte[][] types;
+    private double[][] values;
+    private long[][] sequences;
+    private int[] counts;
+
+    /**
+     * Composition of the adjustments of a product up to each of them since the start of its segment,
+     * as scales and offsets
+     */
+    private double[][] prefixScales;
+    private double[][] prefixOffsets;
+
+    /**
+     * Index of the first adjustment of the segment of each adjustment of a product, never decreasing
+     */
+    private int[][] segmentStarts;
+
+    /**
+     * Ids of the products, ordinals of the types, values and sequence numbers of all adjustments,
+     * in order of reception, only ever appended to
+     */
+    private int[] log;
+    private byte[] logTypes;
+    private double[] logValues;
+    private long[] logSequences;
+    private int size;
+
+    /**
+     * Ids of the adjusted products, in order of their first adjustment
+     */
+    private int[] adjustedProducts;
+    private int numberOfAdjustedProducts;
+
+    AdjustmentHistory() {
+        types = new byte[16][];
+        values = new double[16][];
+        sequences = new long[16][];
+        counts = new int[16];
+        prefixScales = new double[16][];
+        prefixOffsets = new double[16][];
+        segmentStarts = new int[16][];
+        log = new int[16];
+        logTypes = new byte[16];
+        logValues = new double[16];
+        logSequences = new long[16];
+        adjustedProducts = new int[16];
+    }
+
+    /**
+     * Append an adjustment of the product.
+     *
+     * @param productId id of the product
+     * @param type      type of the adjustment
+     * @param value     value of the adjustment
+     * @param sequence  sequence number of the adjustment message among all received messages, starting at 0
+     */
+    void add(int productId, Adjustment.Type type, double value, long sequence) {
+        if (productId >= counts.length) {
+            int length = Math.max(productId + 1, counts.length * 2);
+            types = Arrays.copyOf(types, length);
+            values = Arrays.copyOf(values, length);
+            sequences = Arrays.copyOf(sequences, length);
+            counts = Arrays.copyOf(counts, length);
+            prefixScales = Arrays.copyOf(prefixScales, length);
+            prefixOffsets = Arrays.copyOf(prefixOffsets, length);
+            segmentStarts = Arrays.copyOf(segmentStarts, length);
+        }
+        int n = counts[productId];
+        if (n == 0 && types[productId] == null) {
+            types[productId] = NO_TYPES;
+            values[productId] = NO_VALUES;
+            sequences[productId] = NO_SEQUENCES;
+            prefixScales[productId] = NO_VALUES;
+            prefixOffsets[productId] = NO_VALUES;
+            segmentStarts[productId] = NO_STARTS;
+            if (numberOfAdjustedProducts == adjustedProducts.length)
+                adjustedProducts = Arrays.copyOf(adjustedProducts, numberOfAdjustedProducts * 2);
+            adjustedProducts[numberOfAdjustedProducts++] = productId;
+        }
+        if (n == types[productId].length) {
+            int length = Math.max(4, n * 2);
+            types[productId] = Arrays.copyOf(types[productId], length);
+            values[productId] = Arrays.copyOf(values[productId], length);
+            sequences[productId] = Arrays.copyOf(sequences[productId], length);
+            prefixScales[productId] = Arrays.copyOf(prefixScales[productId], length);
+            prefixOffsets[productId] = Arrays.copyOf(prefixOffsets[productId], length);
+            segmentStarts[productId] = Arrays.copyOf(segmentStarts[productId], length);
+        }
+        types[productId][n] = (byte) type.ordinal();
+        values[productId][n] = value;
+        sequences[productId][n] = sequence;
+
+        Adjustment adjustment = new Adjustment(type, value);
+        int start = n == 0 ? 0 : segmentStarts[productId][n - 1];
+        PriceTransform prefix = adjustment.compose(prefix(productId, n));
+        if (!isNormal(prefix)) {
+            start = n;
+            prefix = adjustment.toTransform();
+        }
+        segmentStarts[productId][n] = start;
+        prefixScales[productId][n] = prefix.getScale();
+        prefixOffsets[productId][n] = prefix.getOffset();
+        counts[productId] = n + 1;
+
+        if (size == log.length) {
+            log = Arrays.copyOf(log, size * 2);
+            logTypes = Arrays.copyOf(logTypes, size * 2);
+            logValues = Arrays.copyOf(logValues, size * 2);
+            logSequences = Arrays.copyOf(logSequences, size * 2);
+        }
+        log[size] = productId;
+        logTypes[size] = (byte) type.ordinal();
+        logValues[size] = value;
+        logSequences[size++] = sequence;
+    }
+
+    /**
+     * Apply the adjustments of the product from the given one to a price, in constant time per segment.
+     * The composition of the adjustments of each segment is applied after undoing the composition up to
+     * the first one, a single adjustment being applied as it is.
+     *
+     * @param productId id of the product
+     * @param from      index of the first adjustment to apply among the adjustments of the product
+     * @param price     price to adjust
+     * @return adjusted price
+     */
+    double apply(int productId, int from, double price) {
+        int n = size(productId);
+        if (from >= n)
+            return price;
+        if (from == n - 1)
+            return getAdjustment(productId, from).apply(price);
+
+        int[] starts = segmentStarts[productId];
+        while (from < n) {
+            int start = starts[from];
+            int end = starts[n - 1] == start ? n : segmentEnd(starts, start, n);
+            price = apply(productId, start, from, end - 1, price);
+            from = end;
+        }
+        return price;
+    }
+
+    /**
+     * Apply the adjustments of the product from the given one to the last one of its segment.
+     * Adjustments are applied one by one if the composition up to the first one cannot be undone,
+     * when the segment starts with a multiplier which is not a normal double itself.
+     *
+     * @param productId id of the product
+     * @param start     index of the first adjustment of the segment
+     * @param from      index of the first adjustment to apply
+     * @param last      index of the last adjustment of the segment
+     * @param price     price to adjust
+     * @return adjusted price
+     */
+    private double apply(int productId, int start, int from, int last, double price) {
+        if (from == last)
+            return getAdjustment(productId, from).apply(price);
+
+        double scale = prefixScales[productId][last];
+        double offset = prefixOffsets[productId][last];
+        if (from == start)
+            return scale * price + offset;
+        double previousScale = prefixScales[productId][from - 1];
+        double ratio = scale / previousScale;
+        if (Math.abs(previousScale) >= Double.MIN_NORMAL && Double.isFinite(ratio))
+            return ratio * price + (offset - ratio * prefixOffsets[productId][from - 1]);
+        for (int i = from; i <= last; i++)
+            price = getAdjustment(productId, i).apply(price);
+        return price;
+    }
+
+    /**
+     * Find the end of a segment which is not the last one, by binary search of the next start.
+     *
+     * @param starts segment starts of the adjustments of a product
+     * @param start  index of the first adjustment of the segment
+     * @param n      number of adjustments of the product
+     * @return index of the first adjustment of the next segment
+     */
+    private static int segmentEnd(int[] starts, int start, int n) {
+        int low = start + 1;
+        int high = n - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] > start)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+
+    /**
+     * Gets whether a composition can be undone by dividing by its scale: a normal scale and a finite offset.
+     *
+     * @param transform composition of adjustments
+     * @return true if the composition can extend its segment
+     */
+    private static boolean isNormal(PriceTransform transform) {
+        double scale = Math.abs(transform.getScale());
+        return scale >= Double.MIN_NORMAL && scale <= Double.MAX_VALUE && Double.isFinite(transform.getOffset());
+    }
+
+    /**
+     * Gets the composition of the adjustments of the product up to one of them, since the start of its segment.
+     *
+     * @param productId id of the product
+     * @param n         number of adjustments composed
+     * @return transform of the adjustments
+     */
+    private PriceTransform prefix(int productId, int n) {
+        return n == 0 ? PriceTransform.IDENTITY
+                : new PriceTransform(prefixScales[productId][n - 1], prefixOffsets[productId][n - 1]);
+    }
+
+    /**
+     * Gets the adjustments of the product.
+     *
+     * @param productId id of the product
+     * @return read-only list of the adjustments in order of reception, adjustments made later are not part of it
+     */
+    List<Adjustment> adjustments(int productId) {
+        return adjustments(productId, 0);
+    }
+
+    /**
+     * Gets the adjustments of the product received from a message on, found by binary search.
+     *
+     * @param productId id of the product
+     * @param sequence  sequence number of the first message
+     * @return read-only list of the adjustments in order of reception, adjustments made later are not part of it
+     */
+    List<Adjustment> adjustmentsSince(int productId, long sequence) {
+        int n = size(productId);
+        if (n == 0)
+            return adjustments(productId, 0);
+        int from = Arrays.binarySearch(sequences[productId], 0, n, sequence);
+        return adjustments(productId, from < 0 ? -from - 1 : from);
+    }
+
+    private List<Adjustment> adjustments(int productId, int from) {
+        int to = size(productId);
+        byte[] productTypes = to == 0 ? NO_TYPES : types[productId];
+        double[] productValues = to == 0 ? NO_VALUES : values[productId];
+        return new AbstractList<Adjustment>() {
+            @Override
+            public Adjustment get(int index) {
+                if (index < 0 || index >= to - from)
+                    throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+                return new Adjustment(ADJUSTMENT_TYPES[productTypes[from + index]], productValues[from + index]);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * Gets a view of all adjustments so far, handing over references only, which may be read by another thread
+     * once handed over to it while adjustments keep being appended.
+     *
+     * @return view of the adjustments in order of reception
+     */
+    View view() {
+        return new View(log, logTypes, logValues, logSequences, size);
+    }
+
+    /**
+     * Gets the number of adjustments of the product, identifying which adjustments a new sale is subject to.
+     *
+     * @param productId id of the product
+     * @return number of adjustments
+     */
+    int size(int productId) {
+        return productId < counts.length ? counts[productId] : 0;
+    }
+
+    /**
+     * Gets the number of adjustments of all products.
+     *
+     * @return number of adjustments
+     */
+    int size() {
+        return size;
+    }
+
+    //
+    // Properties
+    //
+
+    private Adjustment getAdjustment(int productId, int index) {
+        return new Adjustment(getType(productId, index), getValue(productId, index));
+    }
+
+    Adjustment.Type getType(int productId, int index) {
+        return ADJUSTMENT_TYPES[types[productId][index]];
+    }
+
+    double getValue(int productId, int index) {
+        return values[productId][index];
+    }
+
+    /**
+     * Gets the id of an adjusted product.
+     *
+     * @param index index of the product in order of first adjustment
+     * @return id of the product
+     */
+    int getAdjustedProduct(int index) {
+        return adjustedProducts[index];
+    }
+
+    int getNumberOfAdjustedProducts() {
+        return numberOfAdjustedProducts;
+    }
+
+    /**
+     * Adjustments of all products up to the point in time of the view, in order of reception.
+     * The logged arrays are only appended to or replaced by bigger copies, so the adjustments of the view never change.
+     */
+    static final class View {
+        private final int[] log;
+        private final byte[] types;
+        private final double[] values;
+        private final long[] sequences;
+        private final int size;
+
+        private View(int[] log, byte[] types, double[] values, long[] sequences, int size) {
+            this.log = log;
+            this.types = types;
+            this.values = values;
+            this.sequences = sequences;
+            this.size = size;
+        }
+
+        /**
+         * Gets the number of adjustments of all products.
+         *
+         * @return number of adjustments
+         */
+        int size() {
+            return size;
+        }
+
+        //
+        // Properties
+        //
+
+        int getProductId(int index) {
+            return log[index];
+        }
+
+        Adjustment.Type getType(int index) {
+            return ADJUSTMENT_TYPES[types[index]];
+        }
+
+        double getValue(int index) {
+            return values[index];
+        }
+
+        long getSequence(int index) {
+            return sequences[index];
+        }
+    }
+}
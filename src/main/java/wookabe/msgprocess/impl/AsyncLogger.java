@@ -0,0 +1,271 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Logger handing reports over to a dedicated reporter thread, which logs them through the delegate logger.
+ * Reports wait in a bounded queue, what happens when it is full is decided by the {@link OverflowPolicy}.
+ * The report maps are taken over as they are, the caller must not modify them afterwards.
+ * Window reports are logged only if the delegate logger is a {@link WindowLogger}.
+ */
+public class AsyncLogger implements WindowLogger, AutoCloseable {
+    private final Logger delegate;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final ArrayDeque<Report> queue;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Condition idle;
+    private final Thread reporter;
+
+    /**
+     * Whether the reporter thread is logging a report at the moment
+     */
+    private boolean logging;
+    private boolean closed;
+    private long droppedReports;
+
+    /**
+     * First failure of the delegate logger
+     */
+    private RuntimeException failure;
+
+    /**
+     * Constructor starting the reporter thread.
+     *
+     * @param delegate logger used by the reporter thread
+     * @param capacity maximum number of reports waiting to be logged
+     * @param policy   what to do with a report when the queue is full
+     */
+    public AsyncLogger(Logger delegate, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.policy = policy;
+        queue = new ArrayDeque<>(capacity);
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        notFull = lock.newCondition();
+        idle = lock.newCondition();
+        reporter = new Thread(this::logReports, "async-logger");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    @Override
+    public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        Map<String, Integer> salesSnapshot = Collections.unmodifiableMap(numberOfSales);
+        Map<String, Double> totalsSnapshot = Collections.unmodifiableMap(totalValues);
+        enqueue(new Report(true, () -> delegate.logSalesReport(salesSnapshot, totalsSnapshot)));
+    }
+
+    @Override
+    public void logPause() {
+        enqueue(new Report(false, delegate::logPause));
+    }
+
+    @Override
+    public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+        Map<String, List<Adjustment>> snapshot = Collections.unmodifiableMap(productsToAdjustments);
+        enqueue(new Report(false, () -> delegate.logAdjustmentReport(snapshot)));
+    }
+
+    @Override
+    public void logWindowReport(Window window, long start, long end,
+                                Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        if (!(delegate instanceof WindowLogger))
+            throw new UnsupportedOperationException("Delegate logger cannot log window reports");
+        WindowLogger windowLogger = (WindowLogger) delegate;
+        Map<String, Integer> salesSnapshot = Collections.unmodifiableMap(numberOfSales);
+        Map<String, Double> totalsSnapshot = Collections.unmodifiableMap(totalValues);
+        enqueue(new Report(false, () -> windowLogger.logWindowReport(window, start, end, salesSnapshot, totalsSnapshot)));
+    }
+
+    /**
+     * Put the report in the queue, applying the overflow policy if the queue is full.
+     *
+     * @param report report to log
+     */
+    private void enqueue(Report report) {
+        lock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Logger is closed");
+            while (queue.size() == capacity) {
+                if (policy == OverflowPolicy.DROP) {
+                    droppedReports++;
+                    return;
+                }
+                if (policy == OverflowPolicy.COALESCE && report.salesReport && coalesce()) {
+                    droppedReports++;
+                    break;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            queue.add(report);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the oldest waiting sales report superseded by the next report, the new report following the queue.
+     *
+     * @return true if a sales report was removed
+     */
+    private boolean coalesce() {
+        Report previous = null;
+        for (Report report : queue) {
+            if (previous != null && previous.salesReport && report.salesReport) {
+                queue.removeFirstOccurrence(previous);
+                return true;
+            }
+            previous = report;
+        }
+        if (previous != null && previous.salesReport) {
+            queue.removeLast();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reporter thread loop, logs the reports until the logger is closed and the queue is drained.
+     */
+    private void logReports() {
+        while (true) {
+            Report report;
+            lock.lock();
+            try {
+                logging = false;
+                if (queue.isEmpty())
+                    idle.signalAll();
+                while (queue.isEmpty() && !closed)
+                    notEmpty.awaitUninterruptibly();
+                if (queue.isEmpty())
+                    return;
+                report = queue.poll();
+                logging = true;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                report.log.run();
+            } catch (RuntimeException e) {
+                lock.lock();
+                try {
+                    if (failure == null)
+                        failure = e;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until all reports handed over so far are logged.
+     *
+     * @throws IllegalStateException thrown if the delegate logger failed to log a report
+     */
+    @Override
+    public void flush() {
+        lock.lock();
+        try {
+            while ((!queue.isEmpty() || logging) && reporter.isAlive())
+                idle.awaitUninterruptibly();
+            if (failure != null)
+                throw new IllegalStateException("Failed to log a report", failure);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Log the waiting reports and stop the reporter thread. No report is accepted afterwards.
+     *
+     * @throws IllegalStateException thrown if the delegate logger failed to log a report
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        boolean interrupted = false;
+        while (reporter.isAlive()) {
+            try {
+                reporter.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            throw new IllegalStateException("Failed to log a report", failure);
+    }
+
+    /**
+     * Gets the number of reports dropped or coalesced because the queue was full.
+     *
+     * @return number of reports not logged
+     */
+    public long getDroppedReports() {
+        lock.lock();
+        try {
+            return droppedReports;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Policy applied to a report when the queue of reports is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the caller until there is room in the queue
+         */
+        BLOCK,
+        /**
+         * Drop the new report
+         */
+        DROP,
+        /**
+         * Drop the oldest waiting sales report followed by another sales report, as sales reports cover
+         * all sales since the start. Only adjacent sales reports are coalesced, so no sales report moves past
+         * another report. Reports which cannot be coalesced block the caller like {@link #BLOCK}.
+         */
+        COALESCE
+    }
+
+    /**
+     * Report waiting to be logged.
+     */
+    private static class Report {
+        final boolean salesReport;
+        final Runnable log;
+
+        Report(boolean salesReport, Runnable log) {
+            this.salesReport = salesReport;
+            this.log = log;
+        }
+    }
+}
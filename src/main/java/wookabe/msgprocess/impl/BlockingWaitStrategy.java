@@ -0,0 +1,39 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waiting strategy blocking the producers on a condition until signalled.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition resumed = lock.newCondition();
+
+    @Override
+    public boolean await(BooleanSupplier accepting, long deadline) throws InterruptedException {
+        lock.lock();
+        try {
+            while (!accepting.getAsBoolean()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                resumed.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signalAll() {
+        lock.lock();
+        try {
+            resumed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Message store keeping every message field in its own primitive column.
+ * Columns grow in fixed size chunks, so growing never copies stored messages.
+ * Beyond the retention limit, the oldest chunk is evicted from memory when a new chunk is started,
+ * and is either dropped or spilled to a file of fixed size records, read back one message at a time.
+ * The columns of the evicted chunk are reused for the new chunk, so a store at its retention limit
+ * allocates nothing. Messages are indexed by longs, only offsets within a chunk being ints.
+ * Closing the store deletes the spill file.
+ */
+class ColumnarMessageStore implements MessageStore {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    /**
+     * Adjustment column code of a sale message
+     */
+    private static final byte NO_ADJUSTMENT = -1;
+    private static final Adjustment.Type[] ADJUSTMENT_TYPES = Adjustment.Type.values();
+
+    /**
+     * Offsets of the fields in a spilled record of {@link Retention#MESSAGE_BYTES}
+     */
+    private static final int PRODUCT_OFFSET = 0;
+    private static final int PRICE_OFFSET = 4;
+    private static final int NUMBER_OF_SALES_OFFSET = 12;
+    private static final int ADJUSTMENT_TYPE_OFFSET = 16;
+    private static final int EPOCH_OFFSET = 17;
+
+    private int[][] products = new int[1][];
+    private double[][] prices = new double[1][];
+    private int[][] numberOfSales = new int[1][];
+    private byte[][] adjustmentTypes = new byte[1][];
+    private int[][] epochs = new int[1][];
+    private long size;
+
+    /**
+     * Columns of the last evicted chunk, reused by the next chunk, null if there is none
+     */
+    private int[] spareProducts;
+    private double[] sparePrices;
+    private int[] spareNumberOfSales;
+    private byte[] spareAdjustmentTypes;
+    private int[] spareEpochs;
+
+    private final long maxMessages;
+    private final Path spillDirectory;
+
+    /**
+     * Index of the chunk at the beginning of the columns, chunks before it were evicted
+     */
+    private long chunkBase;
+
+    /**
+     * Index of the oldest message in memory
+     */
+    private long first;
+
+    /**
+     * File of the evicted messages, null until the first chunk is spilled
+     */
+    private FileChannel spill;
+    private Path spillPath;
+
+    /**
+     * Buffer of a chunk written to the spill file
+     */
+    private ByteBuffer chunkBuffer;
+
+    /**
+     * Last message read back from the spill file
+     */
+    private ByteBuffer spilled;
+    private long spilledIndex = -1;
+
+    ColumnarMessageStore() {
+        this(Retention.UNLIMITED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param retention retention of the messages in memory
+     */
+    ColumnarMessageStore(Retention retention) {
+        maxMessages = retention.getMaxMessages();
+        spillDirectory = retention.getSpillDirectory();
+    }
+
+    @Override
+    public void add(int productId, double price, int numberOfSales, Adjustment.Type adjustmentType, int epoch) {
+        int chunk = chunk(size);
+        int offset = (int) size & CHUNK_MASK;
+        if (offset == 0) {
+            evictIfApplicable();
+            chunk = chunk(size);
+            addChunk(chunk);
+        }
+
+        products[chunk][offset] = productId;
+        prices[chunk][offset] = price;
+        this.numberOfSales[chunk][offset] = numberOfSales;
+        adjustmentTypes[chunk][offset] = adjustmentType == null ? NO_ADJUSTMENT : (byte) adjustmentType.ordinal();
+        epochs[chunk][offset] = epoch;
+        size++;
+    }
+
+    /**
+     * Start a new chunk in every column, reusing the columns of the last evicted chunk if any.
+     *
+     * @param chunk index of the new chunk in the columns
+     */
+    private void addChunk(int chunk) {
+        if (chunk == products.length) {
+            products = Arrays.copyOf(products, chunk * 2);
+            prices = Arrays.copyOf(prices, chunk * 2);
+            numberOfSales = Arrays.copyOf(numberOfSales, chunk * 2);
+            adjustmentTypes = Arrays.copyOf(adjustmentTypes, chunk * 2);
+            epochs = Arrays.copyOf(epochs, chunk * 2);
+        }
+        if (spareProducts != null) {
+            products[chunk] = spareProducts;
+            prices[chunk] = sparePrices;
+            numberOfSales[chunk] = spareNumberOfSales;
+            adjustmentTypes[chunk] = spareAdjustmentTypes;
+            epochs[chunk] = spareEpochs;
+            spareProducts = null;
+            sparePrices = null;
+            spareNumberOfSales = null;
+            spareAdjustmentTypes = null;
+            spareEpochs = null;
+            return;
+        }
+        products[chunk] = new int[CHUNK_SIZE];
+        prices[chunk] = new double[CHUNK_SIZE];
+        numberOfSales[chunk] = new int[CHUNK_SIZE];
+        adjustmentTypes[chunk] = new byte[CHUNK_SIZE];
+        epochs[chunk] = new int[CHUNK_SIZE];
+    }
+
+    /**
+     * Evict the oldest chunks as long as the newer messages in memory reach the retention limit,
+     * then move the remaining chunks to the beginning of the columns.
+     */
+    private void evictIfApplicable() {
+        int evicted = 0;
+        while (size - first - CHUNK_SIZE >= maxMessages) {
+            if (spillDirectory != null)
+                spill(evicted);
+            spareProducts = products[evicted];
+            sparePrices = prices[evicted];
+            spareNumberOfSales = numberOfSales[evicted];
+            spareAdjustmentTypes = adjustmentTypes[evicted];
+            spareEpochs = epochs[evicted];
+            products[evicted] = null;
+            prices[evicted] = null;
+            numberOfSales[evicted] = null;
+            adjustmentTypes[evicted] = null;
+            epochs[evicted] = null;
+            first += CHUNK_SIZE;
+            evicted++;
+        }
+        if (evicted == 0)
+            return;
+
+        int remaining = (int) (((size + CHUNK_MASK) >>> CHUNK_SHIFT) - chunkBase) - evicted;
+        System.arraycopy(products, evicted, products, 0, remaining);
+        System.arraycopy(prices, evicted, prices, 0, remaining);
+        System.arraycopy(numberOfSales, evicted, numberOfSales, 0, remaining);
+        System.arraycopy(adjustmentTypes, evicted, adjustmentTypes, 0, remaining);
+        System.arraycopy(epochs, evicted, epochs, 0, remaining);
+        Arrays.fill(products, remaining, remaining + evicted, null);
+        Arrays.fill(prices, remaining, remaining + evicted, null);
+        Arrays.fill(numberOfSales, remaining, remaining + evicted, null);
+        Arrays.fill(adjustmentTypes, remaining, remaining + evicted, null);
+        Arrays.fill(epochs, remaining, remaining + evicted, null);
+        chunkBase += evicted;
+    }
+
+    /**
+     * Append a chunk to the spill file, where message i is the record at i * {@link Retention#MESSAGE_BYTES}.
+     *
+     * @param chunk index of the chunk in the columns
+     * @throws UncheckedIOException thrown if the chunk cannot be written
+     */
+    private void spill(int chunk) {
+        if (chunkBuffer == null)
+            chunkBuffer = ByteBuffer.allocate(CHUNK_SIZE * Retention.MESSAGE_BYTES);
+        ByteBuffer buffer = chunkBuffer;
+        buffer.clear();
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            buffer.putInt(products[chunk][i])
+                    .putDouble(prices[chunk][i])
+                    .putInt(numberOfSales[chunk][i])
+                    .put(adjustmentTypes[chunk][i])
+                    .putInt(epochs[chunk][i]);
+        }
+        buffer.flip();
+        try {
+            if (spill == null) {
+                spillPath = Files.createTempFile(spillDirectory, "messages", ".spill");
+                spillPath.toFile().deleteOnExit();
+                spill = FileChannel.open(spillPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                spilled = ByteBuffer.allocate(Retention.MESSAGE_BYTES);
+            }
+            long position = first * Retention.MESSAGE_BYTES;
+            while (buffer.hasRemaining())
+                position += spill.write(buffer, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot spill messages to " + spillDirectory, e);
+        }
+    }
+
+    /**
+     * Read an evicted message back from the spill file.
+     *
+     * @param index index of the message
+     * @return record of the message
+     * @throws IndexOutOfBoundsException thrown if the message was dropped
+     * @throws UncheckedIOException      thrown if the message cannot be read
+     */
+    private ByteBuffer spilled(long index) {
+        if (spill == null)
+            throw new IndexOutOfBoundsException("Message " + index + " was evicted");
+        if (index != spilledIndex) {
+            spilled.clear();
+            try {
+                long position = index * Retention.MESSAGE_BYTES;
+                while (spilled.hasRemaining())
+                    position += spill.read(spilled, position);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read spilled message " + index, e);
+            }
+            spilledIndex = index;
+        }
+        return spilled;
+    }
+
+    /**
+     * Delete the spill file, evicted messages being no longer readable. Messages in memory are kept.
+     *
+     * @throws UncheckedIOException thrown if the spill file cannot be closed or deleted
+     */
+    @Override
+    public void close() {
+        if (spill == null)
+            return;
+        try {
+            spill.close();
+            Files.deleteIfExists(spillPath);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete spilled messages " + spillPath, e);
+        } finally {
+            spill = null;
+            spilledIndex = -1;
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public long getFirst() {
+        return spill == null ? first : 0;
+    }
+
+    @Override
+    public long getFirstInMemory() {
+        return first;
+    }
+
+    /**
+     * Gets the chunk of a message in the columns.
+     *
+     * @param index index of the message in memory
+     * @return index of the chunk in the columns
+     */
+    private int chunk(long index) {
+        return (int) ((index >>> CHUNK_SHIFT) - chunkBase);
+    }
+
+    @Override
+    public int getProductId(long index) {
+        if (index < first)
+            return spilled(index).getInt(PRODUCT_OFFSET);
+        return products[chunk(index)][(int) index & CHUNK_MASK];
+    }
+
+    @Override
+    public double getPrice(long index) {
+        if (index < first)
+            return spilled(index).getDouble(PRICE_OFFSET);
+        return prices[chunk(index)][(int) index & CHUNK_MASK];
+    }
+
+    @Override
+    public int getNumberOfSales(long index) {
+        if (index < first)
+            return spilled(index).getInt(NUMBER_OF_SALES_OFFSET);
+        return numberOfSales[chunk(index)][(int) index & CHUNK_MASK];
+    }
+
+    @Override
+    public Adjustment.Type getAdjustmentType(long index) {
+        byte type = index < first ? spilled(index).get(ADJUSTMENT_TYPE_OFFSET)
+                : adjustmentTypes[chunk(index)][(int) index & CHUNK_MASK];
+        return type == NO_ADJUSTMENT ? null : ADJUSTMENT_TYPES[type];
+    }
+
+    @Override
+    public int getEpoch(long index) {
+        if (index < first)
+            return spilled(index).getInt(EPOCH_OFFSET);
+        return epochs[chunk(index)][(int) index & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the number of messages in memory.
+     *
+     * @return number of messages not evicted
+     */
+    long getRetained() {
+        return size - first;
+    }
+}
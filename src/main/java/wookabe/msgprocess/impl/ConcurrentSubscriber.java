@@ -0,0 +1,366 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+import wookabe.msgprocess.subscription.Receivable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static wookabe.msgprocess.impl.Subscriber.validateMessage;
+
+/**
+ * Message processing facility safe to be used by many producers at once.
+ * Each product has its own aggregate guarding its state, so messages about different products never contend.
+ * Only the aggregates are kept, received messages are not stored.
+ * <p>
+ * Every message takes a sequence number when accepted. The producer whose message completes a report interval
+ * emits the report if all messages with lower sequence numbers have been applied, otherwise the report is left
+ * pending for the producer completing them, so no producer waits for the messages of others to report.
+ * Reports are emitted in order and reflect at least the messages up to the trigger count.
+ * <p>
+ * Applied messages are marked in a ring of sequence numbers, the contiguous prefix of marked messages being
+ * the applied count reports wait for. At most {@link #IN_FLIGHT} messages may be applied past that prefix,
+ * producers further ahead waiting for earlier messages like reports do.
+ */
+public class ConcurrentSubscriber implements Receivable {
+    /**
+     * Number of messages that may be applied ahead of the earliest message not applied yet, a power of 2
+     */
+    static final int IN_FLIGHT = 1 << 14;
+
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final int salesReportTrigger;
+    private final int adjustmentReportTrigger;
+    private final Limits limits;
+    private final WaitStrategy waitStrategy;
+    private final Logger logger;
+
+    /**
+     * Exception thrown on every rejection, shared to keep rejecting cheap
+     */
+    private final NotAcceptingNewMessages rejection;
+
+    /**
+     * Sales aggregates per product, created with the first message about the product
+     */
+    private final ConcurrentMap<String, SalesAggregate> sales;
+
+    /**
+     * Number of accepted messages, the sequence number of the next message
+     */
+    private final AtomicLong accepted;
+
+    /**
+     * Number of accepted messages applied to the aggregates along with all messages before them
+     */
+    private final AtomicLong applied;
+
+    /**
+     * Sequence number of the last message applied in each slot of the ring, indexed by sequence number
+     */
+    private final AtomicLongArray appliedRing;
+
+    /**
+     * Guards the emission of reports, {@link #reportedCount} and {@link #pendingReports}
+     */
+    private final Object reportLock;
+
+    /**
+     * Message count of the last emitted report
+     */
+    private long reportedCount;
+
+    /**
+     * Trigger counts of the reports not emitted yet, waiting for earlier messages to be applied
+     */
+    private final PriorityQueue<Long> pendingReports;
+
+    /**
+     * Trigger count of the earliest pending report, Long.MAX_VALUE if none
+     */
+    private volatile long nextPendingReport;
+
+    /**
+     * Message count at which the subscriber pauses
+     */
+    private volatile long pauseAt;
+
+    public ConcurrentSubscriber() {
+        this(new ConsoleLogger());
+    }
+
+    public ConcurrentSubscriber(Logger logger) {
+        this(logger, Limits.DEFAULT);
+    }
+
+    public ConcurrentSubscriber(Logger logger, Limits limits) {
+        this(logger, limits, new BlockingWaitStrategy());
+    }
+
+    /**
+     * Constructor with custom limits.
+     *
+     * @param logger       logger of the reports
+     * @param limits       report triggers and limit of accepted messages
+     * @param waitStrategy strategy of waiting for the subscriber to resume
+     */
+    public ConcurrentSubscriber(Logger logger, Limits limits, WaitStrategy waitStrategy) {
+        this.logger = logger;
+        this.limits = limits;
+        this.waitStrategy = waitStrategy;
+        salesReportTrigger = limits.getSalesReportTrigger();
+        adjustmentReportTrigger = limits.getAdjustmentReportTrigger();
+        rejection = new NotAcceptingNewMessages(limits.getPauseLimit(), false);
+        sales = new ConcurrentHashMap<>();
+        accepted = new AtomicLong();
+        applied = new AtomicLong();
+        appliedRing = new AtomicLongArray(IN_FLIGHT);
+        reportLock = new Object();
+        pendingReports = new PriorityQueue<>();
+        nextPendingReport = Long.MAX_VALUE;
+        pauseAt = limits.getMessagesUntilPause();
+    }
+
+    /**
+     * Reception of a message, may be called concurrently.
+     *
+     * @param msg message to process
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted
+     */
+    @Override
+    public void receive(Message msg) throws NotAcceptingNewMessages {
+        if (!offer(msg))
+            throw rejection;
+    }
+
+    /**
+     * Reception of a message without failing when paused, may be called concurrently.
+     *
+     * @param msg message to process
+     * @return true if the message was accepted, false if the subscriber is paused
+     */
+    @Override
+    public boolean offer(Message msg) {
+        return offerInSequence(msg) > 0;
+    }
+
+    /**
+     * Reception of a message without failing when paused, giving the sequence number the message took.
+     *
+     * @param msg message to process
+     * @return number of accepted messages including this one, -1 if the subscriber is paused
+     */
+    long offerInSequence(Message msg) {
+        validateMessage(msg);
+        long count = accept();
+        if (count < 0)
+            return -1;
+
+        // earlier messages are always marked applied, so the ring frees up unless their producers are starved
+        awaitApplied(count - IN_FLIGHT);
+        try {
+            SalesAggregate aggregate = sales.computeIfAbsent(msg.getProductName(), pName -> new SalesAggregate());
+            synchronized (aggregate) {
+                if (msg.getAdjustment() == null)
+                    aggregate.add(msg.getNumberOfSales(), msg.getTotalValue());
+                else
+                    aggregate.adjust(msg.getAdjustment());
+            }
+        } finally {
+            // a failed message must not hold back the reports of later messages
+            markApplied(count);
+            reportMessagesIfApplicable(count);
+        }
+        return count;
+    }
+
+    /**
+     * Reception of a message, waiting for the subscriber to resume if paused.
+     *
+     * @param msg     message to process
+     * @param timeout longest time to wait
+     * @param unit    unit of the timeout
+     * @return true if the message was accepted, false if the subscriber stayed paused until the timeout
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public boolean offer(Message msg, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(msg)) {
+            if (!waitStrategy.await(this::isAccepting, deadline))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Accept messages again after pausing, once all reports up to the pause are logged and flushed.
+     * Has no effect if the subscriber is not paused.
+     */
+    public void resume() {
+        synchronized (reportLock) {
+            long pausedAt = pauseAt;
+            if (accepted.get() < pausedAt)
+                return;
+            awaitReports(pausedAt);
+            logger.flush();
+            pauseAt = pausedAt + limits.getMessagesUntilPause();
+        }
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Gets whether new messages are accepted.
+     *
+     * @return false if paused
+     */
+    public boolean isAccepting() {
+        return accepted.get() < pauseAt;
+    }
+
+    /**
+     * Take the next sequence number unless the limit of messages is reached.
+     *
+     * @return number of accepted messages including this one, -1 if the limit of messages is reached
+     */
+    private long accept() {
+        long count;
+        do {
+            count = accepted.get();
+            if (count >= pauseAt)
+                return -1;
+        } while (!accepted.compareAndSet(count, count + 1));
+        return count + 1;
+    }
+
+    /**
+     * Mark a message applied and extend the applied count over the contiguous messages marked so far,
+     * emitting the pending reports the applied count reaches.
+     * The slot of the message is free as the message {@link #IN_FLIGHT} before it is already counted.
+     *
+     * @param count sequence number of the applied message
+     */
+    private void markApplied(long count) {
+        appliedRing.set((int) (count & (IN_FLIGHT - 1)), count);
+        long appliedCount;
+        while (appliedRing.get((int) ((appliedCount = applied.get()) + 1 & (IN_FLIGHT - 1))) == appliedCount + 1)
+            applied.compareAndSet(appliedCount, appliedCount + 1);
+        if (applied.get() >= nextPendingReport)
+            reportPending();
+    }
+
+    /**
+     * Wait until all messages up to the given count are applied, yielding then parking.
+     *
+     * @param count number of messages to wait for
+     */
+    private void awaitApplied(long count) {
+        for (int waits = 0; applied.get() < count; waits++) {
+            if (waits < YIELDS)
+                Thread.yield();
+            else
+                LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /**
+     * Report on messages and pause if the given count completes a report interval or reaches the pause.
+     * The report is only left pending if earlier messages are not applied yet.
+     *
+     * @param count number of accepted messages including the one just applied
+     */
+    private void reportMessagesIfApplicable(long count) {
+        if (count % salesReportTrigger != 0 && count % adjustmentReportTrigger != 0 && count != pauseAt)
+            return;
+
+        synchronized (reportLock) {
+            pendingReports.add(count);
+            nextPendingReport = pendingReports.peek();
+        }
+        reportPending();
+    }
+
+    /**
+     * Emit the pending reports in order, as long as the messages up to their trigger counts are applied.
+     * A report waiting for an earlier report not pending yet is left to the producer of the earlier one.
+     */
+    private void reportPending() {
+        synchronized (reportLock) {
+            Long next;
+            while ((next = pendingReports.peek()) != null && next <= applied.get()) {
+                long count = next;
+                // a pause is always the last report before resume, so only earlier report intervals are awaited
+                if (reportedCount < Math.max((count - 1) / salesReportTrigger * salesReportTrigger,
+                        (count - 1) / adjustmentReportTrigger * adjustmentReportTrigger))
+                    break;
+                pendingReports.poll();
+                if (count % salesReportTrigger == 0)
+                    logSalesReport();
+                if (count == pauseAt)
+                    logger.logPause();
+                if (count % adjustmentReportTrigger == 0)
+                    logAdjustmentReport();
+                reportedCount = Math.max(reportedCount, count);
+                reportLock.notifyAll();
+            }
+            nextPendingReport = next == null ? Long.MAX_VALUE : next;
+        }
+    }
+
+    /**
+     * Wait until the reports up to the given count are emitted. Must hold the report lock.
+     *
+     * @param count message count of the report to wait for
+     */
+    private void awaitReports(long count) {
+        try {
+            while (reportedCount < count)
+                reportLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // rather report out of order than lose the report
+        }
+    }
+
+    /**
+     * Log sales report from a snapshot of the aggregates.
+     */
+    private void logSalesReport() {
+        Map<String, Integer> numberOfSales = new HashMap<>();
+        Map<String, Double> totalValues = new HashMap<>();
+        sales.forEach((pName, aggregate) -> {
+            synchronized (aggregate) {
+                if (aggregate.getNumberOfSales() > 0) {
+                    numberOfSales.put(pName, aggregate.getNumberOfSales());
+                    totalValues.put(pName, aggregate.getTotalValue());
+                }
+            }
+        });
+        logger.logSalesReport(numberOfSales, totalValues);
+    }
+
+    /**
+     * Log adjustment report from a snapshot of the aggregates.
+     */
+    private void logAdjustmentReport() {
+        Map<String, List<Adjustment>> productsToAdjustments = new HashMap<>();
+        sales.forEach((pName, aggregate) -> {
+            synchronized (aggregate) {
+                if (!aggregate.getAdjustments().isEmpty())
+                    productsToAdjustments.put(pName, new ArrayList<>(aggregate.getAdjustments()));
+            }
+        });
+        logger.logAdjustmentReport(productsToAdjustments);
+    }
+}
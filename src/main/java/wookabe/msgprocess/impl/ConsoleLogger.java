@@ -8,7 +8,7 @@ import java.util.Map;
 /**
  * Simple console logger for reports.
  */
-class ConsoleLogger implements Logger {
+class ConsoleLogger implements WindowLogger {
     @Override
     public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
         System.out.println("Sales report:");
@@ -33,4 +33,15 @@ class ConsoleLogger implements Logger {
             System.out.println();
         });
     }
+
+    @Override
+    public void logWindowReport(Window window, long start, long end,
+                                Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        System.out.println("Window report of " + window + " from " + start + " to " + end + ":");
+        numberOfSales.keySet().forEach(productName ->
+                System.out.println("\tNumber of sales for product '" + productName + "' is '"
+                        + numberOfSales.get(productName) + "' with total value at '"
+                        + totalValues.get(productName) + "'")
+        );
+    }
 }
@@ -0,0 +1,66 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Count-Min sketch of non-negative weights per item, in a fixed number of counters.
+ * Estimates never underestimate the total weight of an item and overestimate it by at most
+ * e / width of the total weight of all items, with probability 1 - exp(-depth).
+ * Counters are raised conservatively, only up to the new estimate of the item, which tightens the estimates.
+ */
+class CountMinSketch {
+    private final int depth;
+    private final int mask;
+    private final double[] counters;
+
+    /**
+     * Constructor.
+     *
+     * @param depth number of rows of counters
+     * @param width minimum number of counters per row, rounded up to a power of two
+     */
+    CountMinSketch(int depth, int width) {
+        if (depth <= 0 || width <= 0)
+            throw new IllegalArgumentException("Depth and width must be greater than 0");
+        int rowLength = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.depth = depth;
+        mask = rowLength - 1;
+        counters = new double[depth * rowLength];
+    }
+
+    /**
+     * Add weight to the item.
+     *
+     * @param item   item
+     * @param weight non-negative weight
+     * @return new estimate of the total weight of the item
+     */
+    double add(int item, double weight) {
+        double estimate = estimate(item) + weight;
+        for (int row = 0; row < depth; row++) {
+            int i = index(item, row);
+            if (counters[i] < estimate)
+                counters[i] = estimate;
+        }
+        return estimate;
+    }
+
+    /**
+     * Gets the estimate of the total weight of the item.
+     *
+     * @param item item
+     * @return smallest counter of the item, not less than its total weight
+     */
+    double estimate(int item) {
+        double estimate = Double.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+            estimate = Math.min(estimate, counters[index(item, row)]);
+        return estimate;
+    }
+
+    private int index(int item, int row) {
+        int h = (item + row * 0x632BE5AB) * 0x9E3779B9;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (row * (mask + 1)) + (h & mask);
+    }
+}
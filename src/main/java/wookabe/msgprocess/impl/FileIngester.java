@@ -0,0 +1,331 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.MessageCodec;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+import wookabe.msgprocess.subscription.Receivable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Feeds the messages of a file to a receiver.
+ * The file holds one message per line, either {@code product,price}, {@code product,price,numberOfSales}
+ * or {@code product,value,ADD|SUBTRACT|MULTIPLY} for an adjustment. Empty lines and lines starting with # are skipped.
+ * <p>
+ * The file is memory-mapped in chunks ending at line ends. Chunks are parsed by several threads
+ * into records encoded by {@link MessageCodec} and delivered to the receiver in the order of the file,
+ * so adjustments apply to the same sales as if the messages were received one by one.
+ */
+public class FileIngester {
+    /**
+     * Default size of a chunk of the file parsed by a thread
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    private static final int LOOKAHEAD = 4096;
+    private static final Adjustment.Type[] ADJUSTMENT_TYPES = Adjustment.Type.values();
+    private static final byte[][] ADJUSTMENT_TYPE_NAMES = new byte[ADJUSTMENT_TYPES.length][];
+
+    static {
+        for (Adjustment.Type type : ADJUSTMENT_TYPES)
+            ADJUSTMENT_TYPE_NAMES[type.ordinal()] = type.name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Powers of ten represented exactly by a double
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final int parsers;
+    private final int chunkSize;
+
+    /**
+     * Constructor with a parser per processor and chunks of default size.
+     */
+    public FileIngester() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param parsers   number of parsing threads
+     * @param chunkSize size of a chunk of the file parsed at once, a chunk is extended to the end of its last line
+     */
+    public FileIngester(int parsers, int chunkSize) {
+        if (parsers <= 0 || chunkSize <= 0)
+            throw new IllegalArgumentException("Parsers and chunk size must be greater than 0");
+        this.parsers = parsers;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Feed all messages of the file to the receiver.
+     *
+     * @param file     file of messages
+     * @param receiver receiver of the messages
+     * @return volume and rate of the ingestion
+     * @throws IOException             thrown if the file cannot be read
+     * @throws NotAcceptingNewMessages thrown if the receiver stops accepting messages, the messages before are received
+     * @throws IllegalArgumentException thrown if a line is not a valid message, the messages of the chunks before
+     *                                 are received
+     */
+    public IngestionStatistics ingest(Path file, Receivable receiver) throws IOException, NotAcceptingNewMessages {
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(parsers, task -> {
+            Thread thread = new Thread(task, "file-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        Deque<Future<Chunk>> parsing = new ArrayDeque<>();
+        long messages = 0;
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long position = 0;
+            while (position < size || !parsing.isEmpty()) {
+                while (position < size && parsing.size() < 2 * parsers) {
+                    long chunkStart = position;
+                    long chunkEnd = chunkEnd(channel, position, size);
+                    ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart);
+                    parsing.add(executor.submit(() -> parse(text, chunkStart, buffers)));
+                    position = chunkEnd;
+                }
+
+                Chunk chunk = await(parsing.poll());
+                receiver.receiveAll(chunk.records);
+                messages += chunk.messages;
+                chunk.records.clear();
+                buffers.offer(chunk.records);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return new IngestionStatistics(messages, size, System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the end of a chunk, after the end of the line at which the chunk reaches its size.
+     *
+     * @param channel  channel of the file
+     * @param position start of the chunk
+     * @param size     size of the file
+     * @return end of the chunk, exclusive
+     * @throws IOException thrown if the file cannot be read
+     */
+    private long chunkEnd(FileChannel channel, long position, long size) throws IOException {
+        if (size - position <= chunkSize)
+            return size;
+        ByteBuffer lookahead = ByteBuffer.allocate(LOOKAHEAD);
+        for (long end = position + chunkSize - 1; end < size; end += lookahead.limit()) {
+            lookahead.clear();
+            channel.read(lookahead, end);
+            lookahead.flip();
+            for (int i = 0; i < lookahead.limit(); i++) {
+                if (lookahead.get(i) == '\n')
+                    return end + i + 1;
+            }
+        }
+        return size;
+    }
+
+    private static Chunk await(Future<Chunk> parsing) throws IOException {
+        try {
+            return parsing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("Cannot parse file", e.getCause());
+        }
+    }
+
+    /**
+     * Parse the lines of a chunk into encoded messages.
+     *
+     * @param text       text of the chunk
+     * @param chunkStart position of the chunk in the file, for error messages
+     * @param buffers    pool of buffers for the records
+     * @return parsed chunk
+     */
+    static Chunk parse(ByteBuffer text, long chunkStart, Queue<ByteBuffer> buffers) {
+        ByteBuffer records = buffers.poll();
+        if (records == null)
+            records = ByteBuffer.allocate(2 * text.limit() + MessageCodec.HEADER_SIZE);
+        int messages = 0;
+        int position = 0;
+        int limit = text.limit();
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && text.get(lineEnd) != '\n')
+                lineEnd++;
+            int end = lineEnd > position && text.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            if (end > position && text.get(position) != '#') {
+                records = ensureRemaining(records, MessageCodec.HEADER_SIZE + end - position);
+                parseLine(text, position, end, records, chunkStart);
+                messages++;
+            }
+            position = lineEnd + 1;
+        }
+        records.flip();
+        return new Chunk(records, messages);
+    }
+
+    /**
+     * Parse a line into an encoded message.
+     *
+     * @param text       text of the chunk
+     * @param from       start of the line
+     * @param to         end of the line, exclusive
+     * @param records    buffer of the records
+     * @param chunkStart position of the chunk in the file, for error messages
+     */
+    private static void parseLine(ByteBuffer text, int from, int to, ByteBuffer records, long chunkStart) {
+        int nameEnd = indexOf(text, ',', from, to);
+        int priceEnd = indexOf(text, ',', nameEnd + 1, to);
+        if (nameEnd == to || nameEnd == from)
+            throw invalidLine(chunkStart + from);
+
+        double price = parsePrice(text, nameEnd + 1, priceEnd, chunkStart + from);
+        Adjustment.Type type = null;
+        int numberOfSales = 1;
+        if (priceEnd < to) {
+            if (priceEnd + 1 == to)
+                throw invalidLine(chunkStart + from);
+            byte first = text.get(priceEnd + 1);
+            if (first >= '0' && first <= '9')
+                numberOfSales = parseNumberOfSales(text, priceEnd + 1, to, chunkStart + from);
+            else
+                type = parseAdjustmentType(text, priceEnd + 1, to, chunkStart + from);
+        }
+        MessageCodec.encode(records, type, price, numberOfSales, text, from, nameEnd - from);
+    }
+
+    /**
+     * Parse a decimal price. Prices of up to 15 digits without exponent are parsed exactly without creating objects,
+     * as the mantissa and the power of ten are both exact doubles and only their division rounds.
+     */
+    private static double parsePrice(ByteBuffer text, int from, int to, long line) {
+        int i = from;
+        boolean negative = i < to && text.get(i) == '-';
+        if (i < to && (text.get(i) == '-' || text.get(i) == '+'))
+            i++;
+        long mantissa = 0;
+        int fractionDigits = -1;
+        int digits = 0;
+        for (; i < to; i++) {
+            byte c = text.get(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = 10 * mantissa + (c - '0');
+                digits++;
+                if (fractionDigits >= 0)
+                    fractionDigits++;
+            } else if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i < to || digits == 0 || digits > 15 || fractionDigits >= POWERS_OF_TEN.length)
+            return parsePriceSlowly(text, from, to, line);
+
+        double price = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -price : price;
+    }
+
+    private static double parsePriceSlowly(ByteBuffer text, int from, int to, long line) {
+        try {
+            return Double.parseDouble(decode(text, from, to));
+        } catch (NumberFormatException e) {
+            throw invalidLine(line);
+        }
+    }
+
+    private static int parseNumberOfSales(ByteBuffer text, int from, int to, long line) {
+        long numberOfSales = 0;
+        for (int i = from; i < to; i++) {
+            byte c = text.get(i);
+            if (c < '0' || c > '9')
+                throw invalidLine(line);
+            numberOfSales = 10 * numberOfSales + (c - '0');
+            if (numberOfSales > Integer.MAX_VALUE)
+                throw invalidLine(line);
+        }
+        return (int) numberOfSales;
+    }
+
+    private static Adjustment.Type parseAdjustmentType(ByteBuffer text, int from, int to, long line) {
+        for (Adjustment.Type type : ADJUSTMENT_TYPES) {
+            byte[] name = ADJUSTMENT_TYPE_NAMES[type.ordinal()];
+            if (name.length != to - from)
+                continue;
+            int i = 0;
+            while (i < name.length && name[i] == text.get(from + i))
+                i++;
+            if (i == name.length)
+                return type;
+        }
+        throw invalidLine(line);
+    }
+
+    private static int indexOf(ByteBuffer text, char c, int from, int to) {
+        int i = from;
+        while (i < to && text.get(i) != c)
+            i++;
+        return i;
+    }
+
+    private static String decode(ByteBuffer text, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = text.get(from + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer ensureRemaining(ByteBuffer records, int length) {
+        if (records.remaining() >= length)
+            return records;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * records.capacity(), records.position() + length));
+        records.flip();
+        return grown.put(records);
+    }
+
+    private static IllegalArgumentException invalidLine(long position) {
+        return new IllegalArgumentException("Invalid message in line starting at byte " + position);
+    }
+
+    /**
+     * Records parsed from a chunk of the file.
+     */
+    static final class Chunk {
+        private final ByteBuffer records;
+        private final int messages;
+
+        Chunk(ByteBuffer records, int messages) {
+            this.records = records;
+            this.messages = messages;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package wookabe.msgprocess.impl;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Precision of the fixed-point money of a subscriber.
+ * Prices, adjustment values and totals are stored as longs counting units of the last decimal, so sums are exact
+ * and do not depend on the order of the sales. Values are rounded half-even to the precision when converted
+ * from doubles and after a multiplication. Multipliers are kept at their full decimal precision rather than
+ * rounded to the precision of the money. Any result beyond the range of a long throws an ArithmeticException.
+ */
+public final class FixedPoint {
+    /**
+     * Largest number of decimals, one unit of the last decimal still fitting in a long
+     */
+    public static final int MAX_DECIMALS = 18;
+
+    /**
+     * Hundredths, the precision of most currencies
+     */
+    public static final FixedPoint CENTS = new FixedPoint(2);
+
+    /**
+     * Largest magnitude below which every long is exactly a double
+     */
+    private static final double EXACT_DOUBLES = 0x1p53;
+
+    private final int decimals;
+    private final long factor;
+
+    private FixedPoint(int decimals) {
+        if (decimals < 0 || decimals > MAX_DECIMALS)
+            throw new IllegalArgumentException("Decimals must be between 0 and " + MAX_DECIMALS);
+        this.decimals = decimals;
+        long factor = 1;
+        for (int i = 0; i < decimals; i++)
+            factor *= 10;
+        this.factor = factor;
+    }
+
+    /**
+     * Precision of a number of decimals.
+     *
+     * @param decimals number of decimals kept
+     * @return fixed-point precision
+     */
+    public static FixedPoint decimals(int decimals) {
+        return new FixedPoint(decimals);
+    }
+
+    /**
+     * Convert a value to units of the last decimal, rounding the decimal value of the double half-even.
+     * The double is read as its shortest decimal representation, so 1.015 is 1.02 with two decimals.
+     *
+     * @param value value to convert
+     * @return scaled value
+     * @throws ArithmeticException thrown if the scaled value does not fit in a long
+     */
+    long toScaled(double value) {
+        double scaled = value * factor;
+        if (Math.abs(scaled) < EXACT_DOUBLES) {
+            double rounded = Math.rint(scaled);
+            double fraction = Math.abs(scaled - rounded);
+            // Far enough from a tie for the error of the product not to change the rounding
+            if (Math.abs(fraction - 0.5) > 4 * Math.ulp(scaled))
+                return (long) rounded;
+        } else if (Double.isNaN(scaled) || Math.abs(scaled) >= 0x1p64) {
+            throw overflow(value);
+        }
+        try {
+            return BigDecimal.valueOf(value).setScale(decimals, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw overflow(value);
+        }
+    }
+
+    /**
+     * Convert units of the last decimal to the nearest double.
+     *
+     * @param scaled scaled value
+     * @return value
+     */
+    double toDouble(long scaled) {
+        if (Math.abs(scaled) < EXACT_DOUBLES)
+            return scaled / (double) factor;
+        return BigDecimal.valueOf(scaled, decimals).doubleValue();
+    }
+
+    /**
+     * Total value of several sales at the same price.
+     *
+     * @param numberOfSales number of sales
+     * @param price         scaled price
+     * @return scaled total value
+     * @throws ArithmeticException thrown if the total does not fit in a long
+     */
+    long total(long numberOfSales, long price) {
+        long high = Math.multiplyHigh(numberOfSales, price);
+        long low = numberOfSales * price;
+        if (high != low >> 63)
+            throw overflow(numberOfSales + " * " + toDouble(price));
+        return low;
+    }
+
+    /**
+     * Sum of two scaled values.
+     *
+     * @param a scaled value
+     * @param b scaled value
+     * @return scaled sum
+     * @throws ArithmeticException thrown if the sum does not fit in a long
+     */
+    long add(long a, long b) {
+        long sum = a + b;
+        if (((a ^ sum) & (b ^ sum)) < 0)
+            throw overflow(toDouble(a) + " + " + toDouble(b));
+        return sum;
+    }
+
+    /**
+     * Product of a scaled value and a multiplier kept at its full decimal precision, rounded half-even
+     * to the precision. The multiplier is read as its shortest decimal representation, so 1.105 multiplies
+     * by 1.105 even with two decimals.
+     *
+     * @param a          scaled value
+     * @param multiplier multiplier, not scaled
+     * @return scaled product
+     * @throws ArithmeticException thrown if the product does not fit in a long
+     */
+    long multiply(long a, double multiplier) {
+        if (!Double.isFinite(multiplier))
+            throw overflow(toDouble(a) + " * " + multiplier);
+        BigDecimal product = BigDecimal.valueOf(a).multiply(BigDecimal.valueOf(multiplier));
+        try {
+            return product.setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+        } catch (ArithmeticException e) {
+            throw overflow(toDouble(a) + " * " + multiplier);
+        }
+    }
+
+    private ArithmeticException overflow(Object value) {
+        return new ArithmeticException(value + " overflows a fixed-point value with " + decimals + " decimals");
+    }
+
+    //
+    // Properties
+    //
+
+    public int getDecimals() {
+        return decimals;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return decimals == ((FixedPoint) o).decimals;
+    }
+
+    @Override
+    public int hashCode() {
+        return decimals;
+    }
+
+    @Override
+    public String toString() {
+        return "FixedPoint{" +
+                "decimals=" + decimals +
+                '}';
+    }
+}
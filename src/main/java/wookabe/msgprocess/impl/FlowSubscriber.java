@@ -0,0 +1,258 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reactive streams subscriber of messages feeding a {@link Subscriber}.
+ * Messages are put in a bounded queue and handed over in batches to the subscriber by a dedicated thread.
+ * Upstream demand never exceeds the free room of the queue: the whole capacity is requested at first,
+ * then freed room is requested again once it reaches a batch. While the subscriber is paused, messages are
+ * held back and no demand is requested until it resumes, so the publisher is slowed down instead of rejected.
+ * <p>
+ * Completion of the upstream is passed on once the queued messages are processed. An upstream error is passed on
+ * the same way, an invalid message or a publisher exceeding the demand cancels the subscription.
+ */
+public class FlowSubscriber implements Flow.Subscriber<Message> {
+    /**
+     * Default maximum number of queued messages
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Default number of messages handed over at once, and by which demand is requested
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Period of checking for cancellation while waiting for the subscriber to resume
+     */
+    private static final long RESUME_CHECK_MILLIS = 100;
+
+    private final Subscriber subscriber;
+    private final int batchSize;
+    private final CompletableFuture<Void> completion;
+
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Message[] queue;
+    private int head;
+    private int count;
+
+    private Flow.Subscription subscription;
+    private boolean completed;
+    private Throwable error;
+    private boolean overflow;
+    private volatile boolean cancelled;
+
+    public FlowSubscriber(Subscriber subscriber) {
+        this(subscriber, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param subscriber subscriber processing the messages
+     * @param capacity   maximum number of queued messages
+     * @param batchSize  number of messages handed over at once, and by which demand is requested
+     */
+    public FlowSubscriber(Subscriber subscriber, int capacity, int batchSize) {
+        if (batchSize <= 0 || capacity < batchSize)
+            throw new IllegalArgumentException("Batch size must be greater than 0, capacity not less than it");
+        this.subscriber = subscriber;
+        this.batchSize = batchSize;
+        completion = new CompletableFuture<>();
+        lock = new ReentrantLock();
+        notEmpty = lock.newCondition();
+        queue = new Message[capacity];
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription);
+        lock.lock();
+        try {
+            if (this.subscription != null || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        } finally {
+            lock.unlock();
+        }
+
+        subscription.request(queue.length);
+        Thread drainer = new Thread(this::drain, "flow-subscriber");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @Override
+    public void onNext(Message msg) {
+        Objects.requireNonNull(msg);
+        lock.lock();
+        try {
+            if (count == queue.length)
+                overflow = true;
+            else
+                queue[(head + count++) % queue.length] = msg;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        Objects.requireNonNull(throwable);
+        lock.lock();
+        try {
+            error = throwable;
+            completed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        lock.lock();
+        try {
+            completed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancel the subscription and stop handing messages over, queued messages are dropped.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            cancelled = true;
+            if (subscription != null)
+                subscription.cancel();
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        completion.cancel(false);
+    }
+
+    /**
+     * Gets the completion of the stream.
+     *
+     * @return future completed once all messages are processed, exceptionally if the stream failed
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Loop of the thread handing the queued messages over to the subscriber, until the stream ends.
+     */
+    private void drain() {
+        Message[] batch = new Message[batchSize];
+        int freed = 0;
+        try {
+            while (true) {
+                int n;
+                lock.lock();
+                try {
+                    while (count == 0 && !completed && !overflow && !cancelled)
+                        notEmpty.awaitUninterruptibly();
+                    if (overflow)
+                        throw new IllegalStateException("Publisher sent more messages than requested");
+                    if (cancelled)
+                        return;
+                    if (count == 0)
+                        break;
+                    n = Math.min(count, batchSize);
+                    for (int i = 0; i < n; i++) {
+                        batch[i] = queue[head];
+                        queue[head] = null;
+                        head = head + 1 == queue.length ? 0 : head + 1;
+                    }
+                    count -= n;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (!deliver(batch, n))
+                    return;
+                freed += n;
+                if (freed >= batchSize) {
+                    request(freed);
+                    freed = 0;
+                }
+            }
+        } catch (RuntimeException e) {
+            cancelSubscription();
+            completion.completeExceptionally(e);
+            return;
+        } catch (InterruptedException e) {
+            cancelSubscription();
+            completion.completeExceptionally(e);
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (error != null)
+            completion.completeExceptionally(error);
+        else
+            completion.complete(null);
+    }
+
+    /**
+     * Request demand, serially with the other calls to the subscription.
+     *
+     * @param n number of messages
+     */
+    private void request(long n) {
+        lock.lock();
+        try {
+            if (!cancelled)
+                subscription.request(n);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cancelSubscription() {
+        lock.lock();
+        try {
+            subscription.cancel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hand a batch over to the subscriber, waiting for it to resume as long as it pauses.
+     *
+     * @param batch messages to hand over
+     * @param n     number of messages in the batch
+     * @return true if the whole batch was processed, false if cancelled meanwhile
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    private boolean deliver(Message[] batch, int n) throws InterruptedException {
+        int offset = 0;
+        while (offset < n) {
+            offset += subscriber.offerAll(batch, offset, n - offset);
+            while (offset < n && !subscriber.awaitAccepting(RESUME_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,124 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join task aggregating the sales of a range of stored messages per product, at their adjusted prices.
+ * The range is cut into leaves of {@link ReportParallelism#LEAF_SIZE} messages, the leaves are halved down
+ * to single leaves, and the sales of the later half are added to the sales of the earlier half. The halving
+ * and the order of the merges depend on the range only, so every execution gives the same sums.
+ * The store and the ledger must not change while the task runs. Tasks are never serialized.
+ */
+@SuppressWarnings("serial")
+class HistoryAggregator extends RecursiveTask<ProductSales> {
+    private final MessageStore messages;
+    private final SalesLedger sales;
+
+    /**
+     * Index of the first message of the first leaf of the whole range
+     */
+    private final long start;
+
+    /**
+     * Index after the last message of the whole range
+     */
+    private final long end;
+
+    /**
+     * Sales of the leaves aggregated beforehand, null for the leaves to aggregate
+     */
+    private final ProductSales[] aggregated;
+
+    /**
+     * Leaves of this task, from the first one to the one after the last one
+     */
+    private final int firstLeaf;
+    private final int lastLeaf;
+    private final boolean parallel;
+
+    private HistoryAggregator(MessageStore messages, SalesLedger sales, long start, long end, ProductSales[] aggregated,
+                              int firstLeaf, int lastLeaf, boolean parallel) {
+        this.messages = messages;
+        this.sales = sales;
+        this.start = start;
+        this.end = end;
+        this.aggregated = aggregated;
+        this.firstLeaf = firstLeaf;
+        this.lastLeaf = lastLeaf;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Aggregate the sales of a range of messages. Leaves holding messages spilled out of memory are read
+     * by the calling thread first, the other leaves are aggregated as decided by the parallelism.
+     *
+     * @param messages    store of the messages
+     * @param sales       ledger adjusting the prices of the sales
+     * @param from        index of the first message
+     * @param to          index after the last message
+     * @param parallelism execution of the aggregation
+     * @return sales per product, in order of first sale within the range
+     */
+    static ProductSales aggregate(MessageStore messages, SalesLedger sales, long from, long to,
+                                  ReportParallelism parallelism) {
+        int leaves = (int) Math.max(1, (to - from + ReportParallelism.LEAF_SIZE - 1) / ReportParallelism.LEAF_SIZE);
+        ProductSales[] aggregated = new ProductSales[leaves];
+        int leaf = 0;
+        for (; leaf < leaves && from + (long) leaf * ReportParallelism.LEAF_SIZE < messages.getFirstInMemory(); leaf++)
+            aggregated[leaf] = aggregateLeaf(messages, sales, from, to, leaf);
+
+        boolean parallel = parallelism.isParallel((long) (leaves - leaf) * ReportParallelism.LEAF_SIZE);
+        HistoryAggregator task = new HistoryAggregator(messages, sales, from, to, aggregated, 0, leaves, parallel);
+        return parallel ? parallelism.getPool().invoke(task) : task.compute();
+    }
+
+    @Override
+    protected ProductSales compute() {
+        if (lastLeaf - firstLeaf == 1) {
+            ProductSales leaf = aggregated[firstLeaf];
+            return leaf != null ? leaf : aggregateLeaf(messages, sales, start, end, firstLeaf);
+        }
+
+        int middle = (firstLeaf + lastLeaf) >>> 1;
+        HistoryAggregator earlier = new HistoryAggregator(messages, sales, start, end, aggregated,
+                firstLeaf, middle, parallel);
+        HistoryAggregator later = new HistoryAggregator(messages, sales, start, end, aggregated,
+                middle, lastLeaf, parallel);
+        if (!parallel) {
+            ProductSales aggregate = earlier.compute();
+            aggregate.addAll(later.compute());
+            return aggregate;
+        }
+        earlier.fork();
+        ProductSales laterSales = later.compute();
+        ProductSales aggregate = earlier.join();
+        aggregate.addAll(laterSales);
+        return aggregate;
+    }
+
+    /**
+     * Aggregate the sales of a leaf.
+     *
+     * @param messages store of the messages
+     * @param sales    ledger adjusting the prices of the sales
+     * @param start    index of the first message of the first leaf
+     * @param end      index after the last message of the range
+     * @param leaf     index of the leaf
+     * @return sales of the leaf
+     */
+    private static ProductSales aggregateLeaf(MessageStore messages, SalesLedger sales, long start, long end,
+                                              int leaf) {
+        ProductSales aggregate = new ProductSales();
+        long from = start + (long) leaf * ReportParallelism.LEAF_SIZE;
+        long to = Math.min(end, from + ReportParallelism.LEAF_SIZE);
+        for (long i = from; i < to; i++) {
+            if (messages.getAdjustmentType(i) != null)
+                continue;
+            int productId = messages.getProductId(i);
+            int numberOfSales = messages.getNumberOfSales(i);
+            double price = sales.adjustedPrice(productId, messages.getPrice(i), messages.getEpoch(i));
+            aggregate.add(productId, numberOfSales, numberOfSales * price);
+        }
+        return aggregate;
+    }
+}
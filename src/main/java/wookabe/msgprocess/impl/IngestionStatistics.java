@@ -0,0 +1,48 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Volume and sustained rate of an ingestion.
+ */
+public final class IngestionStatistics {
+    private final long messages;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    public IngestionStatistics(long messages, long bytes, long elapsedNanos) {
+        this.messages = messages;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    //
+    // Properties
+    //
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getMessagesPerSecond() {
+        return messages * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+    }
+
+    public double getBytesPerSecond() {
+        return bytes * (double) TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d messages, %d bytes in %.3f s: %.0f messages/s, %.1f MB/s", messages, bytes,
+                elapsedNanos / 1e9, getMessagesPerSecond(), getBytesPerSecond() / (1 << 20));
+    }
+}
@@ -0,0 +1,399 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.MessageCodec;
+import wookabe.msgprocess.subscription.MessageView;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of accepted messages, kept in memory-mapped segment files of a directory.
+ * A segment is named by the sequence number of its first record. Every record is written as
+ * [int length][int CRC32][message encoded by {@link MessageCodec}], a zero length marks the end
+ * of the written records of a segment.
+ * Recovery stops at the first record whose checksum does not match, which is a record torn by a crash.
+ * Only the last segment may end with a torn record, a corrupt record in an earlier segment fails the replay
+ * rather than skipping the records after it.
+ * <p>
+ * Records are appended to the mapped memory and forced to the disk every {@code syncEvery} records,
+ * so a crash of the process loses nothing, while a crash of the machine may lose the records since the last sync.
+ * The journal is written by a single thread at a time.
+ */
+public class Journal implements Closeable {
+    /**
+     * Default size of a segment file
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int syncEvery;
+    private final CRC32 crc;
+
+    /**
+     * Mapped segment being appended to
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * Sequence number of the first record of the current segment
+     */
+    private long segmentBase;
+
+    /**
+     * Number of records in the journal, the sequence number of the next record
+     */
+    private long size;
+    private int unsynced;
+
+    /**
+     * Whether the journal is closed, the segment being unmapped then
+     */
+    private boolean closed;
+
+    /**
+     * Open the journal in the directory with default segment size, syncing only when a segment is full or closed.
+     *
+     * @param directory directory of the segment files, created if missing
+     * @throws UncheckedIOException thrown if the journal cannot be opened
+     */
+    public Journal(Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, 0);
+    }
+
+    /**
+     * Open the journal in the directory, recovering the position after the last valid record.
+     *
+     * @param directory   directory of the segment files, created if missing
+     * @param segmentSize size of a segment file in bytes
+     * @param syncEvery   number of records after which the records are forced to the disk,
+     *                    1 to force every record, 0 to force only full segments and on close
+     * @throws UncheckedIOException thrown if the journal cannot be opened
+     */
+    public Journal(Path directory, int segmentSize, int syncEvery) {
+        if (segmentSize < HEADER_SIZE + MessageCodec.HEADER_SIZE + MessageCodec.MAX_NAME_LENGTH + 4)
+            throw new IllegalArgumentException("Segment size too small for the largest record");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncEvery = syncEvery;
+        crc = new CRC32();
+        try {
+            Files.createDirectories(directory);
+            List<Long> bases = segmentBases();
+            segmentBase = bases.isEmpty() ? 0 : bases.get(bases.size() - 1);
+            segment = map(segmentBase);
+            size = segmentBase + recover(segment);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Append the message to the journal.
+     *
+     * @param msg message to append
+     * @throws UncheckedIOException  thrown if the segment cannot be rolled
+     * @throws IllegalStateException thrown if the journal is closed
+     */
+    public void append(Message msg) {
+        int length = MessageCodec.encodedLength(msg);
+        int start = reserve(length);
+        segment.position(start + HEADER_SIZE);
+        MessageCodec.encode(msg, segment);
+        commit(start, length);
+    }
+
+    /**
+     * Append an encoded message to the journal, copying the record as it is.
+     *
+     * @param msg view of the message to append
+     * @throws UncheckedIOException  thrown if the segment cannot be rolled
+     * @throws IllegalStateException thrown if the journal is closed
+     */
+    public void append(MessageView msg) {
+        int length = msg.getEncodedLength();
+        int start = reserve(length);
+        ByteBuffer record = msg.getBuffer().duplicate();
+        record.limit(msg.getOffset() + length).position(msg.getOffset());
+        segment.position(start + HEADER_SIZE);
+        segment.put(record);
+        commit(start, length);
+    }
+
+    /**
+     * Make room for a record, rolling the segment if it does not fit.
+     *
+     * @param length size of the encoded message
+     * @return index of the record in the segment
+     */
+    private int reserve(int length) {
+        ensureOpen();
+        if (length - MessageCodec.HEADER_SIZE > MessageCodec.MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Product name too long to be journaled");
+        if (segment.remaining() < HEADER_SIZE + length + 4)
+            roll();
+        return segment.position();
+    }
+
+    /**
+     * Complete the record written after its header, the length being written last.
+     *
+     * @param start  index of the record in the segment
+     * @param length size of the encoded message
+     */
+    private void commit(int start, int length) {
+        crc.reset();
+        ByteBuffer body = segment.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+        crc.update(body);
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, length);
+
+        size++;
+        if (syncEvery > 0 && ++unsynced >= syncEvery)
+            sync();
+    }
+
+    /**
+     * Force the appended records to the disk.
+     *
+     * @throws IllegalStateException thrown if the journal is closed
+     */
+    public void sync() {
+        ensureOpen();
+        segment.force();
+        unsynced = 0;
+    }
+
+    /**
+     * Replay all records of the journal in order.
+     *
+     * @param consumer consumer of the replayed messages
+     * @return number of replayed messages
+     * @throws UncheckedIOException  thrown if a segment cannot be read or has a corrupt record before its end
+     * @throws IllegalStateException thrown if the journal is closed
+     */
+    public long replay(Consumer<Message> consumer) {
+        return replay(0, consumer);
+    }
+
+    /**
+     * Replay the records of the journal in order, starting at a sequence number.
+     * Segments entirely before the sequence number are not read.
+     *
+     * @param from     sequence number of the first record to replay
+     * @param consumer consumer of the replayed messages
+     * @return number of replayed messages
+     * @throws UncheckedIOException  thrown if a segment cannot be read or has a corrupt record before its end
+     * @throws IllegalStateException thrown if the journal is closed
+     */
+    public long replay(long from, Consumer<Message> consumer) {
+        return replayViews(from, msg -> consumer.accept(msg.toMessage()));
+    }
+
+    /**
+     * Replay the records of the journal in order, starting at a sequence number, without decoding them.
+     * The view is only valid during the call of the consumer.
+     *
+     * @param from     sequence number of the first record to replay
+     * @param consumer consumer of the views of the replayed messages
+     * @return number of replayed messages
+     * @throws UncheckedIOException  thrown if a segment cannot be read or has a corrupt record before its end
+     * @throws IllegalStateException thrown if the journal is closed
+     */
+    public long replayViews(long from, Consumer<MessageView> consumer) {
+        ensureOpen();
+        long replayed = 0;
+        try {
+            List<Long> bases = segmentBases();
+            for (int i = 0; i < bases.size(); i++) {
+                long base = bases.get(i);
+                if (i + 1 < bases.size() && bases.get(i + 1) <= from)
+                    continue;
+                ByteBuffer buffer = base == segmentBase ? segment.duplicate() : map(base);
+                buffer.position(0);
+                replayed += replay(buffer, (int) Math.max(0, from - base), consumer);
+                if (i + 1 < bases.size() && buffer.remaining() >= 4 && buffer.getInt(buffer.position()) != 0)
+                    throw new IOException("Corrupt record at byte " + buffer.position() + " of " + segmentPath(base));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot replay journal in " + directory, e);
+        }
+        return replayed;
+    }
+
+    /**
+     * Delete the segments whose records all come before a sequence number,
+     * once the state up to the sequence number is kept elsewhere. The current segment is never deleted.
+     * May be called by another thread than the one appending.
+     *
+     * @param sequence sequence number of the first record to keep
+     * @throws UncheckedIOException thrown if a segment cannot be deleted
+     */
+    public void compact(long sequence) {
+        try {
+            List<Long> bases = segmentBases();
+            for (int i = 0; i + 1 < bases.size() && bases.get(i + 1) <= sequence; i++)
+                Files.delete(segmentPath(bases.get(i)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot compact journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Gets the number of records in the journal.
+     *
+     * @return number of records
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Gets the directory of the segment files, where snapshots of the journaled state are kept as well.
+     *
+     * @return journal directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Force the records to the disk and close the journal, dropping the mapping of the current segment.
+     * Has no effect if the journal is already closed.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        sync();
+        segment = null;
+        closed = true;
+    }
+
+    private void ensureOpen() {
+        if (closed)
+            throw new IllegalStateException("Journal in " + directory + " is closed");
+    }
+
+    /**
+     * Start a new segment after forcing the current one to the disk.
+     */
+    private void roll() {
+        sync();
+        try {
+            segmentBase = size;
+            segment = map(segmentBase);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot roll journal in " + directory, e);
+        }
+    }
+
+    /**
+     * Find the end of the valid records of the segment and position the buffer there.
+     * Anything written after a torn record is cleared, so it cannot be mistaken for records later.
+     *
+     * @param buffer segment buffer
+     * @return number of valid records
+     */
+    private int recover(MappedByteBuffer buffer) {
+        int records = replay(buffer, 0, msg -> {
+        });
+        int end = buffer.position();
+        if (buffer.remaining() >= 4 && buffer.getInt(end) != 0) {
+            for (int i = end; i < buffer.limit(); i++)
+                buffer.put(i, (byte) 0);
+            buffer.force();
+        }
+        return records;
+    }
+
+    /**
+     * Replay the valid records of a segment from its position, leaving the position after the last valid record.
+     *
+     * @param buffer   segment buffer
+     * @param skip     number of records to skip without decoding them
+     * @param consumer consumer of the replayed messages
+     * @return number of replayed messages
+     */
+    private int replay(ByteBuffer buffer, int skip, Consumer<MessageView> consumer) {
+        int records = 0;
+        MessageView view = new MessageView();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length <= 0 || length > buffer.remaining() - HEADER_SIZE || !checksumMatches(buffer, start, length))
+                break;
+            buffer.position(start + HEADER_SIZE + length);
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+
+            consumer.accept(view.wrap(buffer, start + HEADER_SIZE));
+            records++;
+        }
+        return records;
+    }
+
+    private boolean checksumMatches(ByteBuffer buffer, int start, int length) {
+        crc.reset();
+        ByteBuffer body = buffer.duplicate();
+        body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+        crc.update(body);
+        return (int) crc.getValue() == buffer.getInt(start + 4);
+    }
+
+    /**
+     * Map the segment file, creating it if missing.
+     *
+     * @param base sequence number of the first record of the segment
+     * @return mapped segment
+     * @throws IOException thrown if the file cannot be mapped
+     */
+    private MappedByteBuffer map(long base) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(base),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%019d%s", base, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Gets the sequence numbers of the first records of all segments.
+     *
+     * @return sorted sequence numbers
+     * @throws IOException thrown if the directory cannot be listed
+     */
+    List<Long> segmentBases() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                String name = segment.getFileName().toString();
+                bases.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(bases);
+        return bases;
+    }
+}
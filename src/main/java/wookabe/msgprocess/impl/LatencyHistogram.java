@@ -0,0 +1,133 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets: values below 8 get their own bucket,
+ * every power of two above is split into 8 buckets, so a bucket is at most 12.5% wide relative to its values.
+ * Latencies are recorded by a single thread at a time without locks, atomic instructions or allocation,
+ * while any thread may read the histogram as it is being recorded.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a latency.
+     *
+     * @param nanos latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Record the same latency several times.
+     *
+     * @param nanos latency in nanoseconds, negative values are recorded as 0
+     * @param count number of occurrences
+     */
+    public void record(long nanos, long count) {
+        long value = Math.max(0, nanos);
+        int bucket = bucket(value);
+        counts.lazySet(bucket, counts.get(bucket) + count);
+        sum.lazySet(sum.get() + value * count);
+        if (value > max.get())
+            max.lazySet(value);
+    }
+
+    /**
+     * Add the latencies of another histogram, recorded by another thread for instance.
+     * Both histograms must not be recording meanwhile.
+     *
+     * @param other histogram whose latencies are added
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, counts.get(i) + other.counts.get(i));
+        sum.set(sum.get() + other.sum.get());
+        max.set(Math.max(max.get(), other.max.get()));
+    }
+
+    /**
+     * Copy the histogram, to be read while this one keeps recording.
+     *
+     * @return copy of the histogram
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < BUCKETS; i++)
+            copy.counts.set(i, counts.get(i));
+        copy.sum.set(sum.get());
+        copy.max.set(max.get());
+        return copy;
+    }
+
+    //
+    // Properties
+    //
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += counts.get(i);
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : sum.get() / (double) count;
+    }
+
+    /**
+     * Gets the latency below or at which the given percentage of latencies fall.
+     *
+     * @param percentile percentage between 0 and 100
+     * @return highest value of the bucket holding the percentile, capped by the maximum
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
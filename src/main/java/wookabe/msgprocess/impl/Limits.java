@@ -0,0 +1,71 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Report triggers and limit of accepted messages of a subscriber.
+ */
+public final class Limits {
+    /**
+     * Pause limit of a subscriber which never pauses
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * Sales report every 10 messages, adjustment report and pause after every 50 messages
+     */
+    public static final Limits DEFAULT = new Limits(10, 50);
+
+    private final int salesReportTrigger;
+    private final int adjustmentReportTrigger;
+    private final int pauseLimit;
+
+    /**
+     * Constructor of limits pausing the subscriber together with the adjustment report.
+     *
+     * @param salesReportTrigger      number of received messages after which the sales report is generated
+     * @param adjustmentReportTrigger number of received messages after which the adjustment report is generated
+     */
+    public Limits(int salesReportTrigger, int adjustmentReportTrigger) {
+        this(salesReportTrigger, adjustmentReportTrigger, adjustmentReportTrigger);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param salesReportTrigger      number of received messages after which the sales report is generated
+     * @param adjustmentReportTrigger number of received messages after which the adjustment report is generated
+     * @param pauseLimit              number of messages accepted after start or resume until the subscriber
+     *                                pauses, {@link #UNLIMITED} to never pause
+     */
+    public Limits(int salesReportTrigger, int adjustmentReportTrigger, int pauseLimit) {
+        if (salesReportTrigger <= 0 || adjustmentReportTrigger <= 0 || pauseLimit <= 0)
+            throw new IllegalArgumentException("Report triggers and pause limit must be greater than 0");
+        this.salesReportTrigger = salesReportTrigger;
+        this.adjustmentReportTrigger = adjustmentReportTrigger;
+        this.pauseLimit = pauseLimit;
+    }
+
+    //
+    // Properties
+    //
+
+    public int getSalesReportTrigger() {
+        return salesReportTrigger;
+    }
+
+    public int getAdjustmentReportTrigger() {
+        return adjustmentReportTrigger;
+    }
+
+    public int getPauseLimit() {
+        return pauseLimit;
+    }
+
+    /**
+     * Gets the pause limit as a count of messages.
+     *
+     * @return number of messages accepted until the subscriber pauses, Long.MAX_VALUE if unlimited
+     */
+    long getMessagesUntilPause() {
+        return pauseLimit == UNLIMITED ? Long.MAX_VALUE : pauseLimit;
+    }
+}
@@ -8,7 +8,7 @@ import java.util.Map;
 /**
  * Logger interface for formatting and displaying reports.
  */
-interface Logger {
+public interface Logger {
     /**
      * Log sales report.
      *
@@ -28,4 +28,10 @@ interface Logger {
      * @param productsToAdjustments list of adjustments per product
      */
     void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments);
+
+    /**
+     * Wait until all reports logged so far are displayed. Nothing to wait for by default.
+     */
+    default void flush() {
+    }
 }
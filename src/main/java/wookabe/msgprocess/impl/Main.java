@@ -4,13 +4,21 @@ import wookabe.msgprocess.subscription.Adjustment;
 import wookabe.msgprocess.subscription.Message;
 import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
 
+import java.nio.file.Paths;
 import java.util.Random;
 
 /**
  * Simple usage of Subscriber.
+ * Given a file of messages, feeds it to a subscriber logging no reports and prints the sustained rate.
  */
 public class Main {
     public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            Limits noReports = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+            System.out.println(new FileIngester().ingest(Paths.get(args[0]), new Subscriber(new ConsoleLogger(), noReports)));
+            return;
+        }
+
         Subscriber subscriber = new Subscriber();
 
         generateAndSendMessages(subscriber, "apple", 10);
@@ -0,0 +1,236 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring of pre-allocated message slots handing messages over from producers to a dedicated subscriber thread.
+ * A producer claims a slot, fills it and publishes it. The subscriber thread offers the published slots to the
+ * subscriber in order of claim, the subscriber copies their fields into its own state and the slots are reused.
+ * Once the products are known, no object is created per message on either side.
+ * <p>
+ * Any number of producers may claim slots at once, every claimed slot must be published. A producer waits while
+ * the ring is full and the subscriber thread waits while the subscriber is paused, so a paused subscriber
+ * eventually holds back the producers. An invalid message is skipped, the first failure being thrown
+ * by {@link #flush()} and {@link #close()}.
+ */
+public class MessageRing implements AutoCloseable {
+    /**
+     * Default number of slots
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Longest time a waiting thread sleeps before checking the ring again
+     */
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * Time the subscriber thread waits for a paused subscriber before checking again
+     */
+    private static final long PAUSE_WAIT_MILLIS = 100;
+
+    private final Subscriber subscriber;
+    private final MessageSlot[] slots;
+    private final int mask;
+
+    /**
+     * Sequence number of the message in each slot once published
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * Sequence number of the next slot to claim
+     */
+    private final AtomicLong claimed;
+
+    /**
+     * Number of messages offered to the subscriber, whose slots may be claimed again
+     */
+    private volatile long consumed;
+
+    /**
+     * Whether the subscriber thread is about to sleep, to be woken up by the next publication
+     */
+    private volatile boolean consumerWaiting;
+    private volatile boolean closed;
+
+    /**
+     * First failure of the subscriber
+     */
+    private volatile RuntimeException failure;
+
+    private final Thread consumer;
+
+    public MessageRing(Subscriber subscriber) {
+        this(subscriber, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor starting the subscriber thread.
+     *
+     * @param subscriber subscriber of the messages, not to be given messages by any other thread
+     * @param capacity   number of slots, a power of two
+     */
+    public MessageRing(Subscriber subscriber, int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        this.subscriber = subscriber;
+        slots = new MessageSlot[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new MessageSlot();
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+        claimed = new AtomicLong();
+        consumer = new Thread(this::processMessages, "message-ring");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Claim the next slot, waiting until the subscriber thread is done with its previous message.
+     *
+     * @return slot to fill and publish
+     * @throws IllegalStateException thrown if the ring is closed
+     */
+    public MessageSlot claim() {
+        if (closed)
+            throw new IllegalStateException("Ring is closed");
+        long sequence = claimed.getAndIncrement();
+        while (sequence - slots.length >= consumed)
+            LockSupport.parkNanos(this, PARK_NANOS);
+        MessageSlot slot = slots[(int) sequence & mask];
+        slot.sequence = sequence;
+        return slot;
+    }
+
+    /**
+     * Hand a filled slot over to the subscriber thread. The slot must not be touched afterwards.
+     *
+     * @param slot slot claimed from this ring
+     */
+    public void publish(MessageSlot slot) {
+        published.set((int) slot.sequence & mask, slot.sequence);
+        if (consumerWaiting)
+            LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Subscriber thread loop, offers the published messages in order of claim until the ring is closed
+     * and every claimed slot is processed.
+     */
+    private void processMessages() {
+        int batchSize = Math.max(1, slots.length >>> 2);
+        long next = 0;
+        while (true) {
+            long available = next;
+            while (available - next < batchSize && published.get((int) available & mask) == available)
+                available++;
+            if (available == next) {
+                if (closed && claimed.get() == next)
+                    return;
+                awaitPublished(next);
+                continue;
+            }
+            for (; next < available; next++)
+                offer(slots[(int) next & mask]);
+            consumed = next;
+        }
+    }
+
+    /**
+     * Sleep until a message is published or the ring is closed.
+     *
+     * @param sequence sequence number of the next message
+     */
+    private void awaitPublished(long sequence) {
+        consumerWaiting = true;
+        if (published.get((int) sequence & mask) != sequence && !closed)
+            LockSupport.parkNanos(this, PARK_NANOS);
+        consumerWaiting = false;
+    }
+
+    /**
+     * Offer a message to the subscriber, waiting while the subscriber is paused.
+     *
+     * @param slot slot of the message
+     */
+    private void offer(MessageSlot slot) {
+        try {
+            while (!subscriber.offer(slot))
+                awaitAccepting();
+        } catch (RuntimeException e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+
+    private void awaitAccepting() {
+        try {
+            subscriber.awaitAccepting(PAUSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // the subscriber thread is private to the ring, which stops it by closing only
+        }
+    }
+
+    /**
+     * Wait until every message claimed so far is published and processed by the subscriber.
+     * Waits for as long as the subscriber is paused.
+     *
+     * @throws IllegalStateException thrown if the subscriber failed to process a message
+     */
+    public void flush() {
+        long until = claimed.get();
+        while (consumed < until && consumer.isAlive())
+            LockSupport.parkNanos(this, PARK_NANOS);
+        throwFailure();
+    }
+
+    /**
+     * Process the published messages and stop the subscriber thread. No slot may be claimed afterwards.
+     *
+     * @throws IllegalStateException thrown if the subscriber failed to process a message
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        throwFailure();
+    }
+
+    private void throwFailure() {
+        if (failure != null)
+            throw new IllegalStateException("Failed to process a message", failure);
+    }
+
+    //
+    // Properties
+    //
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Gets the thread offering the messages to the subscriber.
+     *
+     * @return subscriber thread
+     */
+    Thread getConsumer() {
+        return consumer;
+    }
+}
@@ -0,0 +1,109 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+/**
+ * Reusable mutable message, filled by a producer and read by a subscriber which copies its fields.
+ * Slots are claimed from a {@link MessageRing}, or reused by a single producer calling
+ * {@link Subscriber#offer(MessageSlot)}, so no object is created per message.
+ * Adjustments are kept as their shared type constant and value, no {@link Adjustment} is created.
+ */
+public final class MessageSlot {
+    private String productName;
+    private double price;
+    private int numberOfSales;
+
+    /**
+     * Type of the adjustment, null if the message is a sale
+     */
+    private Adjustment.Type adjustmentType;
+
+    /**
+     * Sequence number of the claim of the slot in its ring
+     */
+    long sequence;
+
+    /**
+     * Fill the slot with a sale.
+     *
+     * @param productName   name of the product
+     * @param price         unit price of the product
+     * @param numberOfSales number of sales for the product
+     * @return this slot
+     */
+    public MessageSlot sale(String productName, double price, int numberOfSales) {
+        this.productName = productName;
+        this.price = price;
+        this.numberOfSales = numberOfSales;
+        adjustmentType = null;
+        return this;
+    }
+
+    /**
+     * Fill the slot with a single sale.
+     *
+     * @param productName name of the product
+     * @param price       unit price of the product
+     * @return this slot
+     */
+    public MessageSlot sale(String productName, double price) {
+        return sale(productName, price, 1);
+    }
+
+    /**
+     * Fill the slot with an adjustment.
+     *
+     * @param productName    name of the product
+     * @param value          value of the adjustment
+     * @param adjustmentType type of the adjustment
+     * @return this slot
+     */
+    public MessageSlot adjustment(String productName, double value, Adjustment.Type adjustmentType) {
+        this.productName = productName;
+        price = value;
+        numberOfSales = 1;
+        this.adjustmentType = adjustmentType;
+        return this;
+    }
+
+    /**
+     * Build a message with the fields of the slot.
+     *
+     * @return new message
+     */
+    public Message toMessage() {
+        return adjustmentType == null ? new Message(productName, price, numberOfSales)
+                : new Message(productName, price, adjustmentType);
+    }
+
+    //
+    // Properties
+    //
+
+    public String getProductName() {
+        return productName;
+    }
+
+    /**
+     * Gets the unit price of a sale or the value of an adjustment.
+     *
+     * @return price
+     */
+    public double getPrice() {
+        return price;
+    }
+
+    public int getNumberOfSales() {
+        return numberOfSales;
+    }
+
+    /**
+     * Gets the type of the adjustment.
+     *
+     * @return type of the adjustment, null if the message is a sale
+     */
+    public Adjustment.Type getAdjustmentType() {
+        return adjustmentType;
+    }
+}
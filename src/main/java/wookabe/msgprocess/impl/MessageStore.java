@@ -0,0 +1,71 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.io.Closeable;
+
+/**
+ * Storage of received messages, addressed by the index of the message in order of reception.
+ * Products are identified by their ids in the {@link ProductRegistry}.
+ */
+interface MessageStore extends Closeable {
+    /**
+     * Append a message.
+     *
+     * @param productId      id of the product
+     * @param price          unit price, or value of the adjustment
+     * @param numberOfSales  number of sales
+     * @param adjustmentType type of the adjustment, null for a sale message
+     * @param epoch          epoch of the product sales aggregate when a sale message is stored
+     */
+    void add(int productId, double price, int numberOfSales, Adjustment.Type adjustmentType, int epoch);
+
+    /**
+     * Gets the number of stored messages.
+     *
+     * @return number of messages
+     */
+    long size();
+
+    /**
+     * Gets the index of the oldest message which can be read, older messages were evicted.
+     *
+     * @return index of the oldest readable message
+     */
+    default long getFirst() {
+        return 0;
+    }
+
+    /**
+     * Gets the index of the oldest message held in memory, which may be read by several threads at once.
+     * Older readable messages are read back from a spill file by a single thread at a time.
+     *
+     * @return index of the oldest message in memory
+     */
+    default long getFirstInMemory() {
+        return getFirst();
+    }
+
+    int getProductId(long index);
+
+    double getPrice(long index);
+
+    int getNumberOfSales(long index);
+
+    /**
+     * Gets the adjustment type of the message.
+     *
+     * @param index index of the message
+     * @return type of the adjustment, null for a sale message
+     */
+    Adjustment.Type getAdjustmentType(long index);
+
+    int getEpoch(long index);
+
+    /**
+     * Release the resources of the store, such as files of evicted messages.
+     */
+    @Override
+    default void close() {
+    }
+}
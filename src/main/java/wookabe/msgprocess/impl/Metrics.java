@@ -0,0 +1,77 @@
+package wookabe.msgprocess.impl;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Instrumentation of a subscriber. Implementations are called by the receiving thread on the receiving path,
+ * so they must neither block nor allocate.
+ */
+public interface Metrics {
+    /**
+     * Metrics of a subscriber which is not instrumented, the subscriber does not even measure time
+     */
+    Metrics DISABLED = new Metrics() {
+        @Override
+        public void bindGauges(LongSupplier storedMessages, LongSupplier products) {
+        }
+
+        @Override
+        public void messagesAccepted(int count, long nanos) {
+        }
+
+        @Override
+        public void messagesRejected(int count) {
+        }
+
+        @Override
+        public void adjustmentApplied(long nanos) {
+        }
+
+        @Override
+        public void reportLogged(Report report, long nanos) {
+        }
+    };
+
+    /**
+     * Bind the gauges to the state of the subscriber, called once when the subscriber is instrumented.
+     *
+     * @param storedMessages number of stored messages
+     * @param products       number of distinct products
+     */
+    void bindGauges(LongSupplier storedMessages, LongSupplier products);
+
+    /**
+     * Messages were accepted.
+     *
+     * @param count number of messages accepted at once
+     * @param nanos time of receiving the messages, including the reports they triggered
+     */
+    void messagesAccepted(int count, long nanos);
+
+    /**
+     * Messages were rejected as the subscriber is paused.
+     *
+     * @param count number of rejected messages
+     */
+    void messagesRejected(int count);
+
+    /**
+     * An adjustment was applied to the sales of its product.
+     *
+     * @param nanos time of applying the adjustment
+     */
+    void adjustmentApplied(long nanos);
+
+    /**
+     * A report was logged.
+     *
+     * @param report type of the report
+     * @param nanos  time of building and logging the report
+     */
+    void reportLogged(Report report, long nanos);
+
+    /**
+     * Types of reports.
+     */
+    enum Report {SALES, PAUSE, ADJUSTMENT, WINDOW}
+}
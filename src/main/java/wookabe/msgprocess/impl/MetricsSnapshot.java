@@ -0,0 +1,85 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Values of the metrics of a subscriber at a point in time, to be exported anywhere.
+ */
+public final class MetricsSnapshot {
+    private final long messagesAccepted;
+    private final long messagesRejected;
+    private final long adjustmentsApplied;
+    private final long[] reports;
+    private final long storedMessages;
+    private final long products;
+    private final LatencyHistogram receiveLatency;
+    private final LatencyHistogram adjustmentLatency;
+    private final LatencyHistogram[] reportLatencies;
+
+    MetricsSnapshot(long messagesAccepted, long messagesRejected, long adjustmentsApplied, long[] reports,
+                    long storedMessages, long products, LatencyHistogram receiveLatency,
+                    LatencyHistogram adjustmentLatency, LatencyHistogram[] reportLatencies) {
+        this.messagesAccepted = messagesAccepted;
+        this.messagesRejected = messagesRejected;
+        this.adjustmentsApplied = adjustmentsApplied;
+        this.reports = reports;
+        this.storedMessages = storedMessages;
+        this.products = products;
+        this.receiveLatency = receiveLatency;
+        this.adjustmentLatency = adjustmentLatency;
+        this.reportLatencies = reportLatencies;
+    }
+
+    //
+    // Properties
+    //
+
+    public long getMessagesAccepted() {
+        return messagesAccepted;
+    }
+
+    public long getMessagesRejected() {
+        return messagesRejected;
+    }
+
+    public long getAdjustmentsApplied() {
+        return adjustmentsApplied;
+    }
+
+    public long getReports(Metrics.Report report) {
+        return reports[report.ordinal()];
+    }
+
+    public long getStoredMessages() {
+        return storedMessages;
+    }
+
+    public long getProducts() {
+        return products;
+    }
+
+    public LatencyHistogram getReceiveLatency() {
+        return receiveLatency;
+    }
+
+    public LatencyHistogram getAdjustmentLatency() {
+        return adjustmentLatency;
+    }
+
+    public LatencyHistogram getReportLatency(Metrics.Report report) {
+        return reportLatencies[report.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "messagesAccepted=" + messagesAccepted +
+                ", messagesRejected=" + messagesRejected +
+                ", adjustmentsApplied=" + adjustmentsApplied +
+                ", salesReports=" + getReports(Metrics.Report.SALES) +
+                ", adjustmentReports=" + getReports(Metrics.Report.ADJUSTMENT) +
+                ", pauses=" + getReports(Metrics.Report.PAUSE) +
+                ", storedMessages=" + storedMessages +
+                ", products=" + products +
+                ", receiveLatencyP99=" + receiveLatency.getValueAtPercentile(99) +
+                '}';
+    }
+}
@@ -0,0 +1,391 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+import wookabe.msgprocess.subscription.Receivable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static wookabe.msgprocess.impl.Subscriber.validateMessage;
+
+/**
+ * Message processing facility spreading products over shards, each processed by its own thread.
+ * A product always goes to the same shard, so its messages are applied in order and adjusted as by
+ * {@link Subscriber}, without any locking between shards.
+ * <p>
+ * Messages are received by a single producer at a time, which routes them to the shards in batches.
+ * At every report trigger each shard takes a snapshot of its partial aggregates after processing all
+ * messages received before the trigger, and the snapshots are merged into the global report.
+ * Products of different shards are disjoint, so merging is a plain union. Reports are logged in order
+ * by the shard thread completing the last snapshot.
+ */
+public class PartitionedSubscriber implements Receivable, AutoCloseable {
+    /**
+     * Number of messages routed to a shard at once
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Number of batches waiting per shard before the producer blocks
+     */
+    private static final int QUEUE_CAPACITY = 64;
+
+    private final Logger logger;
+    private final Limits limits;
+    private final int salesReportTrigger;
+    private final int adjustmentReportTrigger;
+    private final NotAcceptingNewMessages rejection;
+    private final Shard[] shards;
+
+    /**
+     * Messages received but not routed yet, per shard
+     */
+    private final Message[][] pending;
+    private final int[] pendingSizes;
+
+    /**
+     * Completion of the last report, later reports are logged after it
+     */
+    private CompletableFuture<Void> lastReport;
+
+    private long received;
+    private long messagesUntilPause;
+    private volatile boolean paused;
+
+    public PartitionedSubscriber(Logger logger, int shards) {
+        this(logger, Limits.DEFAULT, shards);
+    }
+
+    /**
+     * Constructor starting the shard threads.
+     *
+     * @param logger logger of the reports
+     * @param limits report triggers and limit of accepted messages
+     * @param shards number of shards
+     */
+    public PartitionedSubscriber(Logger logger, Limits limits, int shards) {
+        if (shards <= 0)
+            throw new IllegalArgumentException("Number of shards must be greater than 0");
+        this.logger = logger;
+        this.limits = limits;
+        salesReportTrigger = limits.getSalesReportTrigger();
+        adjustmentReportTrigger = limits.getAdjustmentReportTrigger();
+        rejection = new NotAcceptingNewMessages(limits.getPauseLimit(), false);
+        messagesUntilPause = limits.getMessagesUntilPause();
+        this.shards = new Shard[shards];
+        for (int i = 0; i < shards; i++)
+            this.shards[i] = new Shard(i);
+        pending = new Message[shards][BATCH_SIZE];
+        pendingSizes = new int[shards];
+        lastReport = CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void receive(Message msg) throws NotAcceptingNewMessages {
+        if (!offer(msg))
+            throw rejection;
+    }
+
+    /**
+     * Reception of a message without failing when paused.
+     *
+     * @param msg message to process
+     * @return true if the message was accepted, false if the subscriber is paused
+     */
+    @Override
+    public boolean offer(Message msg) {
+        if (paused)
+            return false;
+        validateMessage(msg);
+
+        int shard = shardOf(msg.getProductName());
+        pending[shard][pendingSizes[shard]++] = msg;
+        if (pendingSizes[shard] == BATCH_SIZE)
+            route(shard);
+
+        received++;
+        messagesUntilPause--;
+        reportMessagesIfApplicable();
+        return true;
+    }
+
+    /**
+     * Accept messages again after pausing, once all reports logged so far are flushed.
+     * Has no effect if the subscriber is not paused.
+     */
+    public void resume() {
+        if (!paused)
+            return;
+        join(lastReport);
+        logger.flush();
+        messagesUntilPause = limits.getMessagesUntilPause();
+        paused = false;
+    }
+
+    /**
+     * Gets whether new messages are accepted.
+     *
+     * @return false if paused
+     */
+    public boolean isAccepting() {
+        return !paused;
+    }
+
+    /**
+     * Wait until all messages received so far are processed by the shards and all reports are logged.
+     */
+    public void awaitProcessed() {
+        CompletableFuture<?>[] processed = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            route(i);
+            processed[i] = shards[i].submit(shard -> null);
+        }
+        join(CompletableFuture.allOf(processed));
+        join(lastReport);
+    }
+
+    /**
+     * Process the received messages, log the pending reports and stop the shard threads.
+     */
+    @Override
+    public void close() {
+        awaitProcessed();
+        for (Shard shard : shards)
+            shard.executor.shutdown();
+    }
+
+    /**
+     * Gets the shard of a product.
+     *
+     * @param productName name of the product
+     * @return index of the shard
+     */
+    private int shardOf(String productName) {
+        int hash = productName.hashCode() * 0x9E3779B9;
+        return (int) (((hash & 0xFFFFFFFFL) * shards.length) >>> 32);
+    }
+
+    /**
+     * Hand the pending messages over to the shard.
+     *
+     * @param shard index of the shard
+     */
+    private void route(int shard) {
+        int n = pendingSizes[shard];
+        if (n == 0)
+            return;
+        Message[] batch = pending[shard];
+        pending[shard] = new Message[BATCH_SIZE];
+        pendingSizes[shard] = 0;
+        shards[shard].execute(() -> shards[shard].process(batch, n));
+    }
+
+    /**
+     * Report on messages and pause if applicable.
+     */
+    private void reportMessagesIfApplicable() {
+        boolean salesReport = received % salesReportTrigger == 0;
+        boolean pause = messagesUntilPause == 0;
+        boolean adjustmentReport = received % adjustmentReportTrigger == 0;
+        if (!salesReport && !pause && !adjustmentReport)
+            return;
+
+        for (int i = 0; i < shards.length; i++)
+            route(i);
+        if (pause)
+            paused = true;
+
+        CompletableFuture<Map<String, Integer>> numberOfSales = salesReport ? merge(Shard::numberOfSales) : null;
+        CompletableFuture<Map<String, Double>> totalValues = salesReport ? merge(Shard::totalValues) : null;
+        CompletableFuture<Map<String, List<Adjustment>>> adjustments =
+                adjustmentReport ? merge(Shard::adjustments) : null;
+
+        CompletableFuture<?>[] snapshots = {lastReport,
+                numberOfSales == null ? lastReport : numberOfSales,
+                totalValues == null ? lastReport : totalValues,
+                adjustments == null ? lastReport : adjustments};
+        lastReport = CompletableFuture.allOf(snapshots).thenRun(() -> {
+            if (salesReport)
+                logger.logSalesReport(numberOfSales.join(), totalValues.join());
+            if (pause)
+                logger.logPause();
+            if (adjustmentReport)
+                logger.logAdjustmentReport(adjustments.join());
+        });
+    }
+
+    /**
+     * Take a snapshot on every shard and merge them.
+     *
+     * @param snapshot partial snapshot taken by a shard thread
+     * @param <V>      type of the values of the snapshot
+     * @return future merged snapshot
+     */
+    private <V> CompletableFuture<Map<String, V>> merge(Function<Shard, Map<String, V>> snapshot) {
+        CompletableFuture<Map<String, V>> merged = CompletableFuture.completedFuture(new HashMap<>());
+        for (Shard shard : shards)
+            merged = merged.thenCombine(shard.submit(snapshot), (all, partial) -> {
+                all.putAll(partial);
+                return all;
+            });
+        return merged;
+    }
+
+    /**
+     * Wait for the future to complete, without failing when interrupted.
+     *
+     * @param future future to wait for
+     */
+    private static void join(CompletableFuture<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to process messages", e.getCause());
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Partition of the products, with its own thread and state.
+     * The state is only touched by the thread of the shard.
+     */
+    private static class Shard {
+        private final ExecutorService executor;
+        private final ProductRegistry products;
+        private final SalesLedger sales;
+
+        /**
+         * All adjustments per product id, including adjustments before the first sale
+         */
+        private final AdjustmentHistory adjustments;
+
+        /**
+         * Number of messages applied by the shard
+         */
+        private long applied;
+
+        Shard(int index) {
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                    r -> {
+                        Thread thread = new Thread(r, "partitioned-subscriber-shard-" + index);
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    Shard::blockUntilQueued);
+            products = new ProductRegistry();
+            adjustments = new AdjustmentHistory();
+            sales = new SalesLedger(adjustments);
+        }
+
+        /**
+         * Run the task on the shard thread, blocking while the queue of the shard is full.
+         *
+         * @param task task to run
+         */
+        void execute(Runnable task) {
+            executor.execute(task);
+        }
+
+        /**
+         * Compute a value on the shard thread.
+         *
+         * @param function function of the shard
+         * @param <T>      type of the value
+         * @return future value
+         */
+        <T> CompletableFuture<T> submit(Function<Shard, T> function) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            execute(() -> {
+                try {
+                    future.complete(function.apply(this));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * Apply a batch of messages.
+         *
+         * @param batch messages to apply
+         * @param n     number of messages in the batch
+         */
+        void process(Message[] batch, int n) {
+            for (int i = 0; i < n; i++, applied++) {
+                Message msg = batch[i];
+                int productId = products.intern(msg.getProductName());
+                Adjustment adjustment = msg.getAdjustment();
+                if (adjustment == null) {
+                    sales.add(productId, msg.getNumberOfSales(), msg.getPrice());
+                    continue;
+                }
+                adjustments.add(productId, adjustment.getType(), adjustment.getValue(), applied);
+                sales.adjust(productId, adjustment.getType(), adjustment.getValue());
+            }
+        }
+
+        Map<String, Integer> numberOfSales() {
+            Map<String, Integer> numberOfSales = new HashMap<>();
+            for (int i = 0, n = sales.getNumberOfProductsWithSales(); i < n; i++) {
+                int productId = sales.getProductWithSales(i);
+                numberOfSales.put(products.name(productId), sales.getNumberOfSales(productId));
+            }
+            return numberOfSales;
+        }
+
+        Map<String, Double> totalValues() {
+            Map<String, Double> totalValues = new HashMap<>();
+            for (int i = 0, n = sales.getNumberOfProductsWithSales(); i < n; i++) {
+                int productId = sales.getProductWithSales(i);
+                totalValues.put(products.name(productId), sales.getTotalValue(productId));
+            }
+            return totalValues;
+        }
+
+        Map<String, List<Adjustment>> adjustments() {
+            Map<String, List<Adjustment>> productsToAdjustments = new HashMap<>();
+            for (int i = 0, n = adjustments.getNumberOfAdjustedProducts(); i < n; i++) {
+                int productId = adjustments.getAdjustedProduct(i);
+                productsToAdjustments.put(products.name(productId), adjustments.adjustments(productId));
+            }
+            return productsToAdjustments;
+        }
+
+        /**
+         * Rejection handler putting the task in the full queue, blocking the producer until there is room.
+         *
+         * @param task     task to queue
+         * @param executor executor of the shard
+         */
+        private static void blockUntilQueued(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown())
+                throw new RejectedExecutionException("Shard is stopped");
+            try {
+                executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the shard", e);
+            }
+        }
+    }
+}
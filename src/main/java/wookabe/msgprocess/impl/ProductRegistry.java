@@ -0,0 +1,215 @@
+package wookabe.msgprocess.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Symbol table interning product names to dense ids 0, 1, 2...
+ * Names are interned by a single writer at a time, lookups never lock and may run concurrently with interning.
+ * Names are kept in fixed size chunks and ids in an open addressing hash table, so memory stays proportional
+ * to the number of products, which is bounded.
+ */
+class ProductRegistry {
+    /**
+     * Default maximum number of products
+     */
+    static final int DEFAULT_MAX_PRODUCTS = 1 << 24;
+
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int maxProducts;
+
+    /**
+     * Names of the products by id, in chunks
+     */
+    private volatile String[][] names;
+
+    /**
+     * Hash table of id + 1 per slot, 0 for an empty slot, kept at most half full
+     */
+    private volatile AtomicIntegerArray table;
+
+    /**
+     * Number of interned products, written only under the lock of the registry
+     */
+    private volatile int size;
+
+    ProductRegistry() {
+        this(DEFAULT_MAX_PRODUCTS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxProducts maximum number of products which can be interned
+     */
+    ProductRegistry(int maxProducts) {
+        this.maxProducts = maxProducts;
+        names = new String[1][];
+        table = new AtomicIntegerArray(16);
+    }
+
+    /**
+     * Gets the id of the product, interning its name if not known yet.
+     *
+     * @param productName name of the product
+     * @return id of the product
+     * @throws IllegalStateException thrown if the maximum number of products is reached
+     */
+    int intern(String productName) {
+        int id = lookup(productName);
+        return id >= 0 ? id : add(productName);
+    }
+
+    /**
+     * Gets the id of the product named by UTF-8 bytes of a buffer, interning its name if not known yet.
+     * Known ASCII names are found without decoding them, others are decoded first.
+     *
+     * @param buffer buffer holding the name
+     * @param offset index of the first byte of the name
+     * @param length length of the name in bytes
+     * @return id of the product
+     * @throws IllegalStateException thrown if the maximum number of products is reached
+     */
+    int intern(ByteBuffer buffer, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(offset + i);
+            if (b < 0)
+                return intern(decode(buffer, offset, length));
+            hash = 31 * hash + b;
+        }
+
+        AtomicIntegerArray table = this.table;
+        int mask = table.length() - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0)
+                return add(decode(buffer, offset, length));
+            if (asciiEquals(name(entry - 1), buffer, offset, length))
+                return entry - 1;
+        }
+    }
+
+    /**
+     * Gets the id of a known product.
+     *
+     * @param productName name of the product
+     * @return id of the product, -1 if not interned
+     */
+    int lookup(String productName) {
+        AtomicIntegerArray table = this.table;
+        int mask = table.length() - 1;
+        for (int slot = spread(productName.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.get(slot);
+            if (entry == 0)
+                return -1;
+            if (name(entry - 1).equals(productName))
+                return entry - 1;
+        }
+    }
+
+    /**
+     * Gets the name of an interned product.
+     *
+     * @param productId id of the product
+     * @return name of the product
+     */
+    String name(int productId) {
+        return names[productId >>> CHUNK_SHIFT][productId & CHUNK_MASK];
+    }
+
+    /**
+     * Gets the number of interned products, ids are lower than the size.
+     *
+     * @return number of products
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Intern a product under the lock of the registry.
+     * The name is stored before its id is published in the table, so lookups always find the name of an id.
+     *
+     * @param productName name of the product
+     * @return id of the product
+     */
+    private synchronized int add(String productName) {
+        int id = lookup(productName);
+        if (id >= 0)
+            return id;
+        if (size == maxProducts)
+            throw new IllegalStateException("Cannot register more than " + maxProducts + " products");
+
+        id = size;
+        int chunk = id >>> CHUNK_SHIFT;
+        String[][] names = this.names;
+        if (chunk == names.length)
+            names = Arrays.copyOf(names, chunk * 2);
+        if (names[chunk] == null)
+            names[chunk] = new String[CHUNK_SIZE];
+        names[chunk][id & CHUNK_MASK] = productName;
+        this.names = names;
+
+        if (2 * (id + 1) > table.length())
+            table = rehash(table.length() * 2);
+        insert(table, productName, id);
+        size = id + 1;
+        return id;
+    }
+
+    private static boolean asciiEquals(String productName, ByteBuffer buffer, int offset, int length) {
+        if (productName.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (productName.charAt(i) != buffer.get(offset + i))
+                return false;
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++)
+            name[i] = buffer.get(offset + i);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Build a bigger hash table of all interned products.
+     *
+     * @param length length of the new table
+     * @return new table
+     */
+    private AtomicIntegerArray rehash(int length) {
+        AtomicIntegerArray rehashed = new AtomicIntegerArray(length);
+        for (int id = 0; id < size; id++)
+            insert(rehashed, name(id), id);
+        return rehashed;
+    }
+
+    private static void insert(AtomicIntegerArray table, String productName, int id) {
+        int mask = table.length() - 1;
+        int slot = spread(productName.hashCode()) & mask;
+        while (table.get(slot) != 0)
+            slot = (slot + 1) & mask;
+        table.set(slot, id + 1);
+    }
+
+    /**
+     * Mix the bits of the hash code, as names often differ only in the last characters.
+     *
+     * @param hash hash code of the name
+     * @return mixed hash
+     */
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        return hash ^ (hash >>> 13);
+    }
+}
@@ -0,0 +1,131 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.PriceTransform;
+
+import java.util.Arrays;
+
+/**
+ * Sales of a subset of the products, in arrays of the products it holds with an open addressing index
+ * by product id. Products are kept in order of their first sale, so the sales of a few products
+ * take little memory whatever the number of products.
+ */
+final class ProductSales {
+    private int[] products = new int[16];
+    private int[] numberOfSales = new int[16];
+    private double[] totalValues = new double[16];
+    private int size;
+
+    /**
+     * Slots of the products plus 1, 0 for a free entry
+     */
+    private int[] index = new int[32];
+
+    /**
+     * Add a sale of a product.
+     *
+     * @param productId     id of the product
+     * @param numberOfSales number of sales of the message
+     * @param totalValue    total value of the message
+     */
+    void add(int productId, int numberOfSales, double totalValue) {
+        int slot = slot(productId);
+        if (slot < 0) {
+            slot = size++;
+            if (slot == products.length) {
+                products = Arrays.copyOf(products, slot * 2);
+                this.numberOfSales = Arrays.copyOf(this.numberOfSales, slot * 2);
+                totalValues = Arrays.copyOf(totalValues, slot * 2);
+            }
+            products[slot] = productId;
+            if (2 * size > index.length)
+                reindex(index.length * 2);
+            else
+                insert(productId, slot);
+        }
+        this.numberOfSales[slot] += numberOfSales;
+        totalValues[slot] += totalValue;
+    }
+
+    /**
+     * Add the sales of later messages, their new products coming after the products of this one.
+     *
+     * @param later sales of the messages following the messages of this one
+     */
+    void addAll(ProductSales later) {
+        for (int i = 0; i < later.size; i++)
+            add(later.products[i], later.numberOfSales[i], later.totalValues[i]);
+    }
+
+    void adjust(int productId, PriceTransform transform) {
+        int slot = slot(productId);
+        if (slot >= 0)
+            totalValues[slot] = transform.applyToTotal(totalValues[slot], numberOfSales[slot]);
+    }
+
+    void clear() {
+        Arrays.fill(numberOfSales, 0, size, 0);
+        Arrays.fill(totalValues, 0, size, 0);
+        Arrays.fill(index, 0);
+        size = 0;
+    }
+
+    private int slot(int productId) {
+        int mask = index.length - 1;
+        for (int i = hash(productId) & mask; ; i = (i + 1) & mask) {
+            int entry = index[i];
+            if (entry == 0)
+                return -1;
+            if (products[entry - 1] == productId)
+                return entry - 1;
+        }
+    }
+
+    private void insert(int productId, int slot) {
+        int mask = index.length - 1;
+        int i = hash(productId) & mask;
+        while (index[i] != 0)
+            i = (i + 1) & mask;
+        index[i] = slot + 1;
+    }
+
+    private void reindex(int length) {
+        index = new int[length];
+        for (int slot = 0; slot < size; slot++)
+            insert(products[slot], slot);
+    }
+
+    private static int hash(int productId) {
+        return productId * 0x9E3779B9;
+    }
+
+    //
+    // Properties
+    //
+
+    /**
+     * Gets the number of products with sales.
+     *
+     * @return number of products
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the id of a product.
+     *
+     * @param index index of the product in order of first sale
+     * @return id of the product
+     */
+    int getProductId(int index) {
+        return products[index];
+    }
+
+    int getNumberOfSales(int index) {
+        return numberOfSales[index];
+    }
+
+    double getTotalValue(int index) {
+        return totalValues[index];
+    }
+}
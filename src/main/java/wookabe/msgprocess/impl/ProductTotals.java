@@ -0,0 +1,68 @@
+package wookabe.msgprocess.impl;
+
+import java.util.Objects;
+
+/**
+ * Sales of a product at a point in time, as read from a subscriber receiving messages.
+ */
+public final class ProductTotals {
+    private final String productName;
+    private final int numberOfSales;
+    private final double totalValue;
+
+    ProductTotals(String productName, int numberOfSales, double totalValue) {
+        this.productName = productName;
+        this.numberOfSales = numberOfSales;
+        this.totalValue = totalValue;
+    }
+
+    //
+    // Properties
+    //
+
+    public String getProductName() {
+        return productName;
+    }
+
+    /**
+     * Gets the number of sales of the product.
+     *
+     * @return number of sales, 0 if the product has no sales
+     */
+    public int getNumberOfSales() {
+        return numberOfSales;
+    }
+
+    /**
+     * Gets the total value of the sales of the product, at their prices adjusted so far.
+     *
+     * @return total value, 0 if the product has no sales
+     */
+    public double getTotalValue() {
+        return totalValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProductTotals that = (ProductTotals) o;
+        return numberOfSales == that.numberOfSales &&
+                Double.compare(that.totalValue, totalValue) == 0 &&
+                productName.equals(that.productName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(productName, numberOfSales, totalValue);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductTotals{" +
+                "productName='" + productName + '\'' +
+                ", numberOfSales=" + numberOfSales +
+                ", totalValue=" + totalValue +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Execution of the reports aggregating a range of stored messages, see {@link Subscriber#logSalesReport(long, long)}.
+ * The range is split into leaves of {@link #LEAF_SIZE} messages whose sales per product are merged in order of
+ * the messages, so a report is the same to the last bit whether the leaves run in parallel or one after another.
+ * Parallel execution pays off only on long ranges and with several cores, the automatic execution
+ * runs sequentially below a threshold of messages or if the pool has a single thread.
+ */
+public final class ReportParallelism {
+    /**
+     * Number of messages aggregated by a single task
+     */
+    public static final int LEAF_SIZE = 4096;
+
+    /**
+     * Number of messages from which the automatic execution goes parallel. The value is a guess at 16 leaves,
+     * not a measured crossover; measure it on the target machine with the history report benchmark
+     * and pass the crossover to {@link #automatic(ForkJoinPool, long)}.
+     */
+    public static final long DEFAULT_THRESHOLD = 1 << 16;
+
+    /**
+     * Leaves aggregated one after another by the thread asking for the report
+     */
+    public static final ReportParallelism SEQUENTIAL = new ReportParallelism(null, Long.MAX_VALUE);
+
+    private final ForkJoinPool pool;
+    private final long threshold;
+
+    private ReportParallelism(ForkJoinPool pool, long threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Threshold cannot be negative");
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Leaves always aggregated in parallel.
+     *
+     * @param pool pool running the leaves
+     * @return parallel execution
+     */
+    public static ReportParallelism parallel(ForkJoinPool pool) {
+        return new ReportParallelism(pool, 0);
+    }
+
+    /**
+     * Leaves aggregated in parallel on the common pool from {@link #DEFAULT_THRESHOLD} messages.
+     *
+     * @return automatic execution
+     */
+    public static ReportParallelism automatic() {
+        return automatic(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Leaves aggregated in parallel from a number of messages, if the pool has more than one thread.
+     *
+     * @param pool      pool running the leaves
+     * @param threshold number of messages from which the leaves run in parallel
+     * @return automatic execution
+     */
+    public static ReportParallelism automatic(ForkJoinPool pool, long threshold) {
+        return new ReportParallelism(pool, pool.getParallelism() > 1 ? threshold : Long.MAX_VALUE);
+    }
+
+    /**
+     * Whether to aggregate a range in parallel.
+     *
+     * @param messages number of messages of the range
+     * @return true if the leaves run in parallel
+     */
+    boolean isParallel(long messages) {
+        return pool != null && messages >= threshold && messages > LEAF_SIZE;
+    }
+
+    //
+    // Properties
+    //
+
+    /**
+     * Gets the pool running the leaves in parallel.
+     *
+     * @return pool, null if the execution is sequential
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Gets the number of messages from which the leaves run in parallel.
+     *
+     * @return threshold, Long.MAX_VALUE if the leaves never run in parallel
+     */
+    public long getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportParallelism{" +
+                "pool=" + pool +
+                ", threshold=" + threshold +
+                '}';
+    }
+}
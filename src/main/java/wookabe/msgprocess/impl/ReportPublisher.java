@@ -0,0 +1,161 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Logger publishing the reports to reactive streams subscribers.
+ * Every subscriber has its own bounded buffer of reports, logging a report blocks while the buffer of
+ * a subscriber is full, so slow subscribers slow the subscriber down instead of piling up reports.
+ */
+public class ReportPublisher implements WindowLogger, Flow.Publisher<ReportPublisher.Report>, AutoCloseable {
+    private final SubmissionPublisher<Report> publisher;
+
+    public ReportPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param executor       executor delivering the reports to the subscribers
+     * @param bufferCapacity maximum number of reports waiting for each subscriber
+     */
+    public ReportPublisher(Executor executor, int bufferCapacity) {
+        publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Report> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    @Override
+    public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        publisher.submit(new Report(Report.Type.SALES, numberOfSales, totalValues, null, null, 0, 0));
+    }
+
+    @Override
+    public void logPause() {
+        publisher.submit(new Report(Report.Type.PAUSE, null, null, null, null, 0, 0));
+    }
+
+    @Override
+    public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+        publisher.submit(new Report(Report.Type.ADJUSTMENT, null, null, productsToAdjustments, null, 0, 0));
+    }
+
+    @Override
+    public void logWindowReport(Window window, long start, long end,
+                                Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        publisher.submit(new Report(Report.Type.WINDOW, numberOfSales, totalValues, null, window, start, end));
+    }
+
+    /**
+     * Complete the subscribers once they received the published reports. No report is accepted afterwards.
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+
+    /**
+     * Report published to the subscribers, with the fields of its type.
+     */
+    public static final class Report {
+        /**
+         * Type of a report.
+         */
+        public enum Type {SALES, PAUSE, ADJUSTMENT, WINDOW}
+
+        private final Type type;
+        private final Map<String, Integer> numberOfSales;
+        private final Map<String, Double> totalValues;
+        private final Map<String, List<Adjustment>> productsToAdjustments;
+        private final Window window;
+        private final long start;
+        private final long end;
+
+        Report(Type type, Map<String, Integer> numberOfSales, Map<String, Double> totalValues,
+               Map<String, List<Adjustment>> productsToAdjustments, Window window, long start, long end) {
+            this.type = type;
+            this.numberOfSales = numberOfSales == null ? null : Collections.unmodifiableMap(numberOfSales);
+            this.totalValues = totalValues == null ? null : Collections.unmodifiableMap(totalValues);
+            this.productsToAdjustments = productsToAdjustments == null ? null
+                    : Collections.unmodifiableMap(productsToAdjustments);
+            this.window = window;
+            this.start = start;
+            this.end = end;
+        }
+
+        //
+        // Properties
+        //
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Gets the number of sales per product of a sales or window report.
+         *
+         * @return read-only map, null for other reports
+         */
+        public Map<String, Integer> getNumberOfSales() {
+            return numberOfSales;
+        }
+
+        /**
+         * Gets the total value per product of a sales or window report.
+         *
+         * @return read-only map, null for other reports
+         */
+        public Map<String, Double> getTotalValues() {
+            return totalValues;
+        }
+
+        /**
+         * Gets the adjustments per product of an adjustment report.
+         *
+         * @return read-only map, null for other reports
+         */
+        public Map<String, List<Adjustment>> getProductsToAdjustments() {
+            return productsToAdjustments;
+        }
+
+        /**
+         * Gets the window of a window report.
+         *
+         * @return window, null for other reports
+         */
+        public Window getWindow() {
+            return window;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{" +
+                    "type=" + type +
+                    ", numberOfSales=" + numberOfSales +
+                    ", totalValues=" + totalValues +
+                    ", productsToAdjustments=" + productsToAdjustments +
+                    ", window=" + window +
+                    '}';
+        }
+    }
+}
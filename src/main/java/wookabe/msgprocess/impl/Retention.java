@@ -0,0 +1,96 @@
+package wookabe.msgprocess.impl;
+
+import java.nio.file.Path;
+
+/**
+ * Retention policy of the raw messages of a subscriber.
+ * Sales aggregates and adjustments are always kept, so reports stay exact whatever the policy.
+ * Beyond the limit, the oldest raw messages are evicted from memory, whole chunks of messages at a time,
+ * and either dropped or spilled to a file from which they are read on demand.
+ * Eviction runs when a new chunk of 4096 messages is started, so the limit is rounded up to whole chunks
+ * and the chunk being filled is kept on top of it: at most the limit rounded up to a multiple of 4096,
+ * plus 4096 messages, stay in memory.
+ */
+public final class Retention {
+    /**
+     * Memory taken by a message in the columnar message store, in bytes
+     */
+    public static final int MESSAGE_BYTES = 21;
+
+    /**
+     * Every message is kept in memory
+     */
+    public static final Retention UNLIMITED = new Retention(Long.MAX_VALUE, null);
+
+    private final long maxMessages;
+    private final Path spillDirectory;
+
+    private Retention(long maxMessages, Path spillDirectory) {
+        if (maxMessages <= 0)
+            throw new IllegalArgumentException("Retention limit must be greater than 0");
+        this.maxMessages = maxMessages;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Retention of a number of messages in memory, rounded up to whole chunks of 4096 messages.
+     * The chunk being filled is kept on top, so up to the rounded limit plus 4096 messages stay in memory.
+     *
+     * @param maxMessages number of the latest messages kept in memory, at least 1
+     * @return retention policy dropping older messages
+     */
+    public static Retention messages(long maxMessages) {
+        return new Retention(maxMessages, null);
+    }
+
+    /**
+     * Retention of an amount of memory, converted to messages of {@link #MESSAGE_BYTES} and rounded up
+     * to whole chunks of 4096 messages like {@link #messages(long)}, so up to 2 * 4096 * {@link #MESSAGE_BYTES}
+     * bytes more than the limit may stay in memory.
+     *
+     * @param maxBytes memory taken by the latest messages kept in memory, at least {@link #MESSAGE_BYTES}
+     * @return retention policy dropping older messages
+     */
+    public static Retention bytes(long maxBytes) {
+        if (maxBytes < MESSAGE_BYTES)
+            throw new IllegalArgumentException("Retention of memory must be at least " + MESSAGE_BYTES
+                    + " bytes, the memory of a message: " + maxBytes);
+        return new Retention(maxBytes / MESSAGE_BYTES, null);
+    }
+
+    /**
+     * Same retention, spilling older messages to a file instead of dropping them.
+     * The file is deleted when the JVM exits.
+     *
+     * @param directory directory of the spill file
+     * @return retention policy spilling older messages
+     */
+    public Retention spillTo(Path directory) {
+        return new Retention(maxMessages, directory);
+    }
+
+    //
+    // Properties
+    //
+
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+
+    /**
+     * Gets the directory of the spill file.
+     *
+     * @return directory, null if older messages are dropped
+     */
+    public Path getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    @Override
+    public String toString() {
+        return "Retention{" +
+                "maxMessages=" + maxMessages +
+                ", spillDirectory=" + spillDirectory +
+                '}';
+    }
+}
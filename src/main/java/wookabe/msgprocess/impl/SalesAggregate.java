@@ -0,0 +1,91 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Running sales aggregate of a single product.
+ * Adjustments are applied to the aggregate in constant time and recorded,
+ * so that the price of a single sale is adjusted lazily when it is read.
+ */
+class SalesAggregate {
+    /**
+     * Sum of number of sales of all sale messages of the product
+     */
+    private int numberOfSales;
+
+    /**
+     * Sum of total values (sales * price) of all sale messages of the product
+     */
+    private double totalValue;
+
+    /**
+     * Adjustments applied since the first sale of the product, in order
+     */
+    private List<Adjustment> adjustments;
+
+    SalesAggregate() {
+        adjustments = new ArrayList<>();
+    }
+
+    /**
+     * Add a sale to the aggregate.
+     *
+     * @param numberOfSales number of sales of the message
+     * @param totalValue    total value of the message
+     */
+    void add(int numberOfSales, double totalValue) {
+        this.numberOfSales += numberOfSales;
+        this.totalValue += totalValue;
+    }
+
+    /**
+     * Adjust the price of all sales added so far.
+     *
+     * @param adjustment adjustment to apply
+     */
+    void adjust(Adjustment adjustment) {
+        totalValue = adjustment.toTransform().applyToTotal(totalValue, numberOfSales);
+        adjustments.add(adjustment);
+    }
+
+    /**
+     * Price of a sale after the adjustments made since the sale was added.
+     *
+     * @param price unadjusted price of the sale
+     * @param epoch epoch of the aggregate when the sale was added
+     * @return adjusted price
+     */
+    double adjustedPrice(double price, int epoch) {
+        for (int i = epoch; i < adjustments.size(); i++)
+            price = adjustments.get(i).apply(price);
+        return price;
+    }
+
+    //
+    // Properties
+    //
+
+    List<Adjustment> getAdjustments() {
+        return adjustments;
+    }
+
+    int getNumberOfSales() {
+        return numberOfSales;
+    }
+
+    double getTotalValue() {
+        return totalValue;
+    }
+
+    /**
+     * Gets the number of adjustments made so far, identifying which adjustments a new sale is subject to.
+     *
+     * @return current epoch
+     */
+    int getEpoch() {
+        return adjustments.size();
+    }
+}
@@ -0,0 +1,499 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntFunction;
+
+/**
+ * Running sales aggregates of all products, in pages of arrays indexed by product id.
+ * Adjustments are applied to the aggregates in constant time and recorded per product in the adjustment history,
+ * so that the price of a single sale is adjusted lazily when it is read.
+ * With a fixed-point precision, total values are exact scaled longs instead of doubles.
+ * The ledger is updated by a single writer under a write lock held for a single update, which readers never take
+ * for longer than reading a few references, so readers never delay the writer by more than that.
+ * <p>
+ * A product is read optimistically, retrying a bounded number of times if an update ran meanwhile.
+ * Many products are read from a pinned {@link View} of the pages: pinning bumps the version of the ledger,
+ * and the writer copies a page or the table of pages before its first update under a newer version, so the pinned
+ * pages never change and are read at leisure, at a single point in time whatever the number of products.
+ */
+class SalesLedger {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int SPINS = 4;
+    private static final int YIELDS = 16;
+
+    /**
+     * Pages of the aggregates by product id, copied on write if not created under the current version
+     */
+    private Page[] pages;
+    private long pagesVersion;
+
+    /**
+     * Version of the ledger, bumped by every pinned view
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Precision of the scaled total values, null if total values are doubles
+     */
+    private FixedPoint fixedPoint;
+
+    /**
+     * Adjustments of all products, recorded by the owner of the ledger before they are applied
+     */
+    private final AdjustmentHistory adjustments;
+
+    /**
+     * Ids of the products with sales, in order of their first sale, only ever appended to
+     */
+    private int[] productsWithSales;
+    private int numberOfProductsWithSales;
+
+    /**
+     * Lock of the updates, validating the optimistic reads of other threads
+     */
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Constructor.
+     *
+     * @param adjustments history of the adjustments applied to the ledger
+     */
+    SalesLedger(AdjustmentHistory adjustments) {
+        pages = new Page[1];
+        this.adjustments = adjustments;
+        productsWithSales = new int[16];
+    }
+
+    /**
+     * Set the precision of the total values of a ledger without sales yet.
+     *
+     * @param fixedPoint precision of the total values, null for doubles
+     */
+    void setFixedPoint(FixedPoint fixedPoint) {
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * Add a sale to the aggregate of the product.
+     * A fixed-point aggregate is left unchanged if the new total overflows.
+     *
+     * @param productId     id of the product
+     * @param numberOfSales number of sales of the message
+     * @param price         price of the sales
+     * @throws ArithmeticException thrown if the fixed-point total value overflows
+     */
+    void add(int productId, int numberOfSales, double price) {
+        long stamp = lock.writeLock();
+        try {
+            addUnlocked(productId, numberOfSales, price);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void addUnlocked(int productId, int numberOfSales, double price) {
+        int index = productId & PAGE_MASK;
+        if (fixedPoint != null) {
+            long totalValue = fixedPoint.add(hasSales(productId) ? getScaledTotalValue(productId) : 0,
+                    fixedPoint.total(numberOfSales, fixedPoint.toScaled(price)));
+            Page page = writablePage(productId);
+            if (!page.withSales[index])
+                addProduct(page, productId);
+            page.numberOfSales[index] += numberOfSales;
+            page.scaledTotalValues[index] = totalValue;
+            return;
+        }
+        Page page = writablePage(productId);
+        if (!page.withSales[index])
+            addProduct(page, productId);
+        page.numberOfSales[index] += numberOfSales;
+        page.totalValues[index] += numberOfSales * price;
+    }
+
+    /**
+     * Adjust the price of all sales of the product added so far, the adjustment being recorded in the history.
+     * A product without sales has nothing to adjust, as the adjustment does not apply to later sales.
+     * The total value is adjusted as a whole, with the same result as the price transform of the adjustment.
+     *
+     * @param productId id of the product
+     * @param type      type of the adjustment
+     * @param value     value of the adjustment
+     * @throws ArithmeticException thrown if the fixed-point total value overflows, the aggregate being left unchanged
+     */
+    void adjust(int productId, Adjustment.Type type, double value) {
+        if (!hasSales(productId))
+            return;
+        long stamp = lock.writeLock();
+        try {
+            adjustUnlocked(productId, type, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void adjustUnlocked(int productId, Adjustment.Type type, double value) {
+        int index = productId & PAGE_MASK;
+        if (fixedPoint != null) {
+            long totalValue = adjust(getScaledTotalValue(productId), getNumberOfSales(productId), type, value);
+            writablePage(productId).scaledTotalValues[index] = totalValue;
+            return;
+        }
+        Page page = writablePage(productId);
+        double totalValue = page.totalValues[index];
+        switch (type) {
+            case ADD:
+                page.totalValues[index] = totalValue + value * page.numberOfSales[index];
+                break;
+            case SUBTRACT:
+                page.totalValues[index] = totalValue - value * page.numberOfSales[index];
+                break;
+            default:
+                page.totalValues[index] = totalValue * value;
+        }
+    }
+
+    /**
+     * Adjust a fixed-point total value, multiplying it as a whole rather than every sale.
+     * Added and subtracted values are money at the precision, multipliers are kept at their full precision.
+     *
+     * @param totalValue    scaled total value
+     * @param numberOfSales number of sales of the total
+     * @param type          type of the adjustment
+     * @param value         value of the adjustment
+     * @return adjusted scaled total value
+     */
+    private long adjust(long totalValue, int numberOfSales, Adjustment.Type type, double value) {
+        switch (type) {
+            case ADD:
+                return fixedPoint.add(totalValue, fixedPoint.total(numberOfSales, fixedPoint.toScaled(value)));
+            case SUBTRACT:
+                return fixedPoint.add(totalValue, -fixedPoint.total(numberOfSales, fixedPoint.toScaled(value)));
+            default:
+                return fixedPoint.multiply(totalValue, value);
+        }
+    }
+
+    /**
+     * Restore the aggregate of a product from a snapshot, products being restored in order of their first sale.
+     *
+     * @param productId     id of the product
+     * @param numberOfSales number of sales of the product
+     * @param totalValue    adjusted total value of the sales
+     */
+    void restore(int productId, int numberOfSales, double totalValue) {
+        long stamp = lock.writeLock();
+        try {
+            Page page = writablePage(productId);
+            int index = productId & PAGE_MASK;
+            addProduct(page, productId);
+            page.numberOfSales[index] = numberOfSales;
+            if (fixedPoint != null)
+                page.scaledTotalValues[index] = fixedPoint.toScaled(totalValue);
+            else
+                page.totalValues[index] = totalValue;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Read the aggregate of a product from any thread, while the writer may be updating the ledger.
+     * After a bounded number of invalidated optimistic reads, the product is read from a pinned view.
+     *
+     * @param productId   id of the product
+     * @param productName name of the product
+     * @return totals of the product, no sales if the product has none
+     */
+    ProductTotals read(int productId, String productName) {
+        for (int attempt = 0; attempt < SPINS + YIELDS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                ProductTotals totals = copy(pages, productId, productName);
+                if (lock.validate(stamp))
+                    return totals;
+            }
+            backOff(attempt);
+        }
+        return copy(pin().pages, productId, productName);
+    }
+
+    /**
+     * Copy the aggregate of a product from pages, consistent only if the pages are pinned or no update ran meanwhile.
+     *
+     * @param pages       pages of the aggregates
+     * @param productId   id of the product
+     * @param productName name of the product
+     * @return totals of the product
+     */
+    private ProductTotals copy(Page[] pages, int productId, String productName) {
+        Page page = page(pages, productId);
+        int index = productId & PAGE_MASK;
+        if (page == null || !page.withSales[index])
+            return new ProductTotals(productName, 0, 0);
+        return new ProductTotals(productName, page.numberOfSales[index], totalValue(page, index));
+    }
+
+    /**
+     * Read the aggregates of all products with sales from any thread at a single point in time,
+     * while the writer may be updating the ledger.
+     *
+     * @param names names of the products by id
+     * @return totals of the products in order of their first sale
+     */
+    List<ProductTotals> readAll(IntFunction<String> names) {
+        View view = pin();
+        List<ProductTotals> totals = new ArrayList<>(view.size());
+        for (int i = 0; i < view.size(); i++) {
+            int productId = view.getProductWithSales(i);
+            totals.add(new ProductTotals(names.apply(productId), view.getNumberOfSales(productId),
+                    view.getTotalValue(productId)));
+        }
+        return totals;
+    }
+
+    /**
+     * Pin the current pages, which the writer no longer updates in place, from any thread.
+     * The references are read optimistically, under the read lock after a bounded number of invalidated reads.
+     *
+     * @return view of the aggregates at the current point in time
+     */
+    View pin() {
+        for (int attempt = 0; attempt < SPINS + YIELDS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                View view = new View(pages, productsWithSales, numberOfProductsWithSales);
+                version.incrementAndGet();
+                if (lock.validate(stamp))
+                    return view;
+            }
+            backOff(attempt);
+        }
+        long stamp = lock.readLock();
+        try {
+            View view = new View(pages, productsWithSales, numberOfProductsWithSales);
+            version.incrementAndGet();
+            return view;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Wait before retrying an optimistic read invalidated by the writer, spinning then yielding.
+     *
+     * @param attempt number of failed attempts before this one
+     */
+    private static void backOff(int attempt) {
+        if (attempt < SPINS)
+            Thread.onSpinWait();
+        else
+            Thread.yield();
+    }
+
+    /**
+     * Gets the page of a product to update, copying it or the table of pages if a view may have pinned them.
+     * Must hold the write lock.
+     *
+     * @param productId id of the product
+     * @return page of the product, created if none
+     */
+    private Page writablePage(int productId) {
+        long version = this.version.get();
+        int pageIndex = productId >>> PAGE_SHIFT;
+        if (pageIndex >= pages.length || pagesVersion != version) {
+            pages = Arrays.copyOf(pages, pageIndex < pages.length ? pages.length
+                    : Math.max(pageIndex + 1, pages.length * 2));
+            pagesVersion = version;
+        }
+        Page page = pages[pageIndex];
+        if (page == null)
+            page = pages[pageIndex] = new Page(version, fixedPoint != null);
+        else if (page.version != version)
+            page = pages[pageIndex] = new Page(version, page);
+        return page;
+    }
+
+    private static Page page(Page[] pages, int productId) {
+        int pageIndex = productId >>> PAGE_SHIFT;
+        return pageIndex < pages.length ? pages[pageIndex] : null;
+    }
+
+    private double totalValue(Page page, int index) {
+        return fixedPoint == null ? page.totalValues[index] : fixedPoint.toDouble(page.scaledTotalValues[index]);
+    }
+
+    /**
+     * Price of a sale after the adjustments made since the sale was added.
+     *
+     * @param productId id of the product
+     * @param price     unadjusted price of the sale
+     * @param epoch     epoch of the product when the sale was added
+     * @return adjusted price
+     */
+    double adjustedPrice(int productId, double price, int epoch) {
+        return adjustments.apply(productId, epoch, price);
+    }
+
+    /**
+     * Gets the number of adjustments of the product made so far,
+     * identifying which adjustments a new sale is subject to.
+     *
+     * @param productId id of the product
+     * @return current epoch of the product
+     */
+    int epoch(int productId) {
+        return adjustments.size(productId);
+    }
+
+    boolean hasSales(int productId) {
+        Page page = page(pages, productId);
+        return page != null && page.withSales[productId & PAGE_MASK];
+    }
+
+    /**
+     * Start aggregating sales of the product.
+     *
+     * @param page      writable page of the product
+     * @param productId id of the product
+     */
+    private void addProduct(Page page, int productId) {
+        page.withSales[productId & PAGE_MASK] = true;
+
+        if (numberOfProductsWithSales == productsWithSales.length)
+            productsWithSales = Arrays.copyOf(productsWithSales, productsWithSales.length * 2);
+        productsWithSales[numberOfProductsWithSales++] = productId;
+    }
+
+    //
+    // Properties
+    //
+
+    int getNumberOfSales(int productId) {
+        return page(pages, productId).numberOfSales[productId & PAGE_MASK];
+    }
+
+    double getTotalValue(int productId) {
+        return totalValue(page(pages, productId), productId & PAGE_MASK);
+    }
+
+    /**
+     * Gets the exact total value of a product of a fixed-point ledger.
+     *
+     * @param productId id of the product
+     * @return total value in units of the last decimal
+     */
+    long getScaledTotalValue(int productId) {
+        return page(pages, productId).scaledTotalValues[productId & PAGE_MASK];
+    }
+
+    /**
+     * Gets the precision of the total values.
+     *
+     * @return fixed-point precision, null if total values are doubles
+     */
+    FixedPoint getFixedPoint() {
+        return fixedPoint;
+    }
+
+    /**
+     * Gets the id of a product with sales.
+     *
+     * @param index index of the product in order of first sales
+     * @return id of the product
+     */
+    int getProductWithSales(int index) {
+        return productsWithSales[index];
+    }
+
+    int getNumberOfProductsWithSales() {
+        return numberOfProductsWithSales;
+    }
+
+    /**
+     * Aggregates of consecutive product ids, updated in place only under the version it was created in.
+     */
+    private static final class Page {
+        private final long version;
+        private final int[] numberOfSales;
+        private final boolean[] withSales;
+        private final double[] totalValues;
+        private final long[] scaledTotalValues;
+
+        Page(long version, boolean scaled) {
+            this.version = version;
+            numberOfSales = new int[PAGE_SIZE];
+            withSales = new boolean[PAGE_SIZE];
+            totalValues = scaled ? null : new double[PAGE_SIZE];
+            scaledTotalValues = scaled ? new long[PAGE_SIZE] : null;
+        }
+
+        /**
+         * Copy a page to be updated under a newer version.
+         *
+         * @param version version of the copy
+         * @param page    page to copy
+         */
+        Page(long version, Page page) {
+            this.version = version;
+            numberOfSales = page.numberOfSales.clone();
+            withSales = page.withSales.clone();
+            totalValues = page.totalValues == null ? null : page.totalValues.clone();
+            scaledTotalValues = page.scaledTotalValues == null ? null : page.scaledTotalValues.clone();
+        }
+    }
+
+    /**
+     * Aggregates of all products with sales at the point in time they were pinned, which later updates leave
+     * unchanged. May be read by any thread.
+     */
+    final class View {
+        private final Page[] pages;
+        private final int[] productsWithSales;
+        private final int size;
+
+        private View(Page[] pages, int[] productsWithSales, int size) {
+            this.pages = pages;
+            this.productsWithSales = productsWithSales;
+            this.size = size;
+        }
+
+        /**
+         * Gets the number of products with sales.
+         *
+         * @return number of products
+         */
+        int size() {
+            return size;
+        }
+
+        //
+        // Properties
+        //
+
+        /**
+         * Gets the id of a product with sales.
+         *
+         * @param index index of the product in order of first sales
+         * @return id of the product
+         */
+        int getProductWithSales(int index) {
+            return productsWithSales[index];
+        }
+
+        int getNumberOfSales(int productId) {
+            return page(pages, productId).numberOfSales[productId & PAGE_MASK];
+        }
+
+        double getTotalValue(int productId) {
+            return totalValue(page(pages, productId), productId & PAGE_MASK);
+        }
+    }
+}
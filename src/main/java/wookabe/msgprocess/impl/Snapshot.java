@@ -0,0 +1,280 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact state of a subscriber, from which it is restored without replaying the whole history.
+ * The state holds the product names, the sales aggregates, the history of adjustment messages
+ * and the number of received messages. Raw sales are not part of it.
+ * <p>
+ * A snapshot is written to a file named by the journal sequence number it covers,
+ * first to a temporary file which is renamed once forced to the disk, and ends with a CRC32 of its content.
+ */
+class Snapshot {
+    private static final int MAGIC = 0x534e4150;
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".snapshot";
+    private static final Adjustment.Type[] ADJUSTMENT_TYPES = Adjustment.Type.values();
+
+    /**
+     * Number of journal records covered by the snapshot
+     */
+    private final long sequence;
+
+    /**
+     * Number of messages received
+     */
+    private final long received;
+
+    /**
+     * Product names in order of their ids
+     */
+    private final String[] productNames;
+
+    /**
+     * Aggregates of the products with sales, in order of their first sale
+     */
+    private final int[] productsWithSales;
+    private final int[] numberOfSales;
+    private final double[] totalValues;
+
+    /**
+     * History of adjustment messages in order of reception, with their sequence numbers among all messages
+     */
+    private final int[] adjustedProducts;
+    private final byte[] adjustmentTypes;
+    private final double[] adjustmentValues;
+    private final long[] adjustmentSequences;
+
+    Snapshot(long sequence, long received, String[] productNames,
+             int[] productsWithSales, int[] numberOfSales, double[] totalValues,
+             int[] adjustedProducts, byte[] adjustmentTypes, double[] adjustmentValues, long[] adjustmentSequences) {
+        this.sequence = sequence;
+        this.received = received;
+        this.productNames = productNames;
+        this.productsWithSales = productsWithSales;
+        this.numberOfSales = numberOfSales;
+        this.totalValues = totalValues;
+        this.adjustedProducts = adjustedProducts;
+        this.adjustmentTypes = adjustmentTypes;
+        this.adjustmentValues = adjustmentValues;
+        this.adjustmentSequences = adjustmentSequences;
+    }
+
+    /**
+     * Write the snapshot durably to the directory.
+     *
+     * @param directory directory of the snapshots
+     * @return path of the written snapshot
+     * @throws IOException thrown if the snapshot cannot be written
+     */
+    Path write(Path directory) throws IOException {
+        Path path = directory.resolve(String.format("%019d%s", sequence, SUFFIX));
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sequence);
+            out.writeLong(received);
+
+            out.writeInt(productNames.length);
+            for (String productName : productNames)
+                out.writeUTF(productName);
+
+            out.writeInt(productsWithSales.length);
+            for (int i = 0; i < productsWithSales.length; i++) {
+                out.writeInt(productsWithSales[i]);
+                out.writeInt(numberOfSales[i]);
+                out.writeDouble(totalValues[i]);
+            }
+
+            out.writeInt(adjustedProducts.length);
+            for (int i = 0; i < adjustedProducts.length; i++) {
+                out.writeInt(adjustedProducts[i]);
+                out.writeByte(adjustmentTypes[i]);
+                out.writeDouble(adjustmentValues[i]);
+                out.writeLong(adjustmentSequences[i]);
+            }
+
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+        return path;
+    }
+
+    /**
+     * Read the latest valid snapshot of the directory.
+     *
+     * @param directory directory of the snapshots
+     * @return latest snapshot, null if there is none
+     * @throws IOException thrown if the directory cannot be listed
+     */
+    static Snapshot readLatest(Path directory) throws IOException {
+        List<Path> paths = list(directory);
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            Snapshot snapshot = read(paths.get(i));
+            if (snapshot != null)
+                return snapshot;
+        }
+        return null;
+    }
+
+    /**
+     * Delete the snapshots older than the given one.
+     *
+     * @param directory directory of the snapshots
+     * @param latest    path of the snapshot to keep
+     * @throws IOException thrown if a snapshot cannot be deleted
+     */
+    static void deleteOlder(Path directory, Path latest) throws IOException {
+        for (Path path : list(directory)) {
+            if (path.getFileName().compareTo(latest.getFileName()) < 0)
+                Files.delete(path);
+        }
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @param path path of the snapshot
+     * @return snapshot, null if it is invalid or deleted meanwhile
+     * @throws IOException thrown if the file cannot be read
+     */
+    private static Snapshot read(Path path) throws IOException {
+        try (InputStream file = Files.newInputStream(path)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            long sequence = in.readLong();
+            long received = in.readLong();
+
+            String[] productNames = new String[in.readInt()];
+            for (int i = 0; i < productNames.length; i++)
+                productNames[i] = in.readUTF();
+
+            int products = in.readInt();
+            int[] productsWithSales = new int[products];
+            int[] numberOfSales = new int[products];
+            double[] totalValues = new double[products];
+            for (int i = 0; i < products; i++) {
+                productsWithSales[i] = in.readInt();
+                numberOfSales[i] = in.readInt();
+                totalValues[i] = in.readDouble();
+            }
+
+            int adjustments = in.readInt();
+            int[] adjustedProducts = new int[adjustments];
+            byte[] adjustmentTypes = new byte[adjustments];
+            double[] adjustmentValues = new double[adjustments];
+            long[] adjustmentSequences = new long[adjustments];
+            for (int i = 0; i < adjustments; i++) {
+                adjustedProducts[i] = in.readInt();
+                adjustmentTypes[i] = in.readByte();
+                adjustmentValues[i] = in.readDouble();
+                adjustmentSequences[i] = in.readLong();
+            }
+
+            int checksum = (int) checked.getChecksum().getValue();
+            if (in.readInt() != checksum)
+                return null;
+            return new Snapshot(sequence, received, productNames, productsWithSales, numberOfSales, totalValues,
+                    adjustedProducts, adjustmentTypes, adjustmentValues, adjustmentSequences);
+        } catch (EOFException | NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the snapshots of the directory.
+     *
+     * @param directory directory of the snapshots
+     * @return paths of the snapshots from the oldest to the latest
+     * @throws IOException thrown if the directory cannot be listed
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : snapshots)
+                paths.add(path);
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    //
+    // Properties
+    //
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getReceived() {
+        return received;
+    }
+
+    String[] getProductNames() {
+        return productNames;
+    }
+
+    int getNumberOfProductsWithSales() {
+        return productsWithSales.length;
+    }
+
+    int getProductWithSales(int index) {
+        return productsWithSales[index];
+    }
+
+    int getNumberOfSales(int index) {
+        return numberOfSales[index];
+    }
+
+    double getTotalValue(int index) {
+        return totalValues[index];
+    }
+
+    int getNumberOfAdjustments() {
+        return adjustedProducts.length;
+    }
+
+    int getAdjustedProduct(int index) {
+        return adjustedProducts[index];
+    }
+
+    Adjustment.Type getAdjustmentType(int index) {
+        return ADJUSTMENT_TYPES[adjustmentTypes[index]];
+    }
+
+    double getAdjustmentValue(int index) {
+        return adjustmentValues[index];
+    }
+
+    long getAdjustmentSequence(int index) {
+        return adjustmentSequences[index];
+    }
+}
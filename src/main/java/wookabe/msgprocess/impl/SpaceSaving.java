@@ -0,0 +1,188 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Space-Saving summary of the items of highest total weight, monitoring a fixed number of items.
+ * An item is admitted in place of the monitored item of lowest count only if the Count-Min sketch of all items
+ * estimates it above that count, so rare items do not keep evicting each other. The count of a monitored item
+ * is the smaller of its Space-Saving count and its sketch estimate, both never below its total weight,
+ * and any item heavier than the lowest count is monitored.
+ */
+class SpaceSaving {
+    private final CountMinSketch sketch;
+    private final int[] items;
+    private final double[] counts;
+
+    /**
+     * Slots of the items in a binary min-heap of their counts
+     */
+    private final int[] heap;
+
+    /**
+     * Position of each slot in the heap
+     */
+    private final int[] heapIndex;
+
+    /**
+     * Open addressing hash table of slot + 1 per entry, 0 for a free entry, kept at most half full
+     */
+    private final int[] table;
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of monitored items
+     * @param sketch   sketch of the weights of all items
+     */
+    SpaceSaving(int capacity, CountMinSketch sketch) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be greater than 0");
+        this.sketch = sketch;
+        items = new int[capacity];
+        counts = new double[capacity];
+        heap = new int[capacity];
+        heapIndex = new int[capacity];
+        table = new int[Integer.highestOneBit(capacity) << 2];
+    }
+
+    /**
+     * Add weight to the item.
+     *
+     * @param item   item
+     * @param weight non-negative weight
+     */
+    void add(int item, double weight) {
+        double estimate = sketch.add(item, weight);
+        int slot = find(item);
+        if (slot >= 0) {
+            counts[slot] = Math.min(counts[slot] + weight, estimate);
+            siftDown(heapIndex[slot]);
+            return;
+        }
+
+        if (size < items.length) {
+            slot = size++;
+            items[slot] = item;
+            counts[slot] = estimate;
+            insert(item, slot);
+            heap[slot] = slot;
+            heapIndex[slot] = slot;
+            siftUp(slot);
+            return;
+        }
+
+        int lowest = heap[0];
+        if (estimate <= counts[lowest])
+            return;
+        remove(items[lowest]);
+        items[lowest] = item;
+        counts[lowest] = Math.min(counts[lowest] + weight, estimate);
+        insert(item, lowest);
+        siftDown(0);
+    }
+
+    /**
+     * Gets the number of monitored items.
+     *
+     * @return number of items, at most the capacity
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets a monitored item.
+     *
+     * @param slot slot of the item, from 0 to size - 1
+     * @return item
+     */
+    int getItem(int slot) {
+        return items[slot];
+    }
+
+    /**
+     * Gets the count of a monitored item.
+     *
+     * @param slot slot of the item, from 0 to size - 1
+     * @return count, not less than the total weight of the item
+     */
+    double getCount(int slot) {
+        return counts[slot];
+    }
+
+    private int find(int item) {
+        int mask = table.length - 1;
+        for (int i = hash(item) & mask; ; i = (i + 1) & mask) {
+            int entry = table[i];
+            if (entry == 0)
+                return -1;
+            if (items[entry - 1] == item)
+                return entry - 1;
+        }
+    }
+
+    private void insert(int item, int slot) {
+        int mask = table.length - 1;
+        int i = hash(item) & mask;
+        while (table[i] != 0)
+            i = (i + 1) & mask;
+        table[i] = slot + 1;
+    }
+
+    /**
+     * Remove the item from the hash table, shifting back the following entries of the cluster.
+     */
+    private void remove(int item) {
+        int mask = table.length - 1;
+        int i = hash(item) & mask;
+        while (items[table[i] - 1] != item)
+            i = (i + 1) & mask;
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = hash(items[table[j] - 1]) & mask;
+            boolean between = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!between) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = 0;
+    }
+
+    private void siftUp(int position) {
+        int slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[slot])
+                break;
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(slot, position);
+    }
+
+    private void siftDown(int position) {
+        int slot = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]])
+                child++;
+            if (counts[slot] <= counts[heap[child]])
+                break;
+            place(heap[child], position);
+            position = child;
+        }
+        place(slot, position);
+    }
+
+    private void place(int slot, int position) {
+        heap[position] = slot;
+        heapIndex[slot] = position;
+    }
+
+    private static int hash(int item) {
+        int h = item * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,50 @@
+package wookabe.msgprocess.impl;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waiting strategy spinning for a short while, then parking the producers for short periods.
+ * Reacts to a resume quickly at the cost of CPU while spinning, no signal is needed.
+ */
+public class SpinThenParkWaitStrategy implements WaitStrategy {
+    private final int spins;
+    private final long parkNanos;
+
+    public SpinThenParkWaitStrategy() {
+        this(1000, 50_000);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param spins     number of checks before parking
+     * @param parkNanos longest period to park for between checks
+     */
+    public SpinThenParkWaitStrategy(int spins, long parkNanos) {
+        this.spins = spins;
+        this.parkNanos = parkNanos;
+    }
+
+    @Override
+    public boolean await(BooleanSupplier accepting, long deadline) throws InterruptedException {
+        for (int i = 0; i < spins; i++) {
+            if (accepting.getAsBoolean())
+                return true;
+        }
+        while (!accepting.getAsBoolean()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+                return false;
+            LockSupport.parkNanos(this, Math.min(remaining, parkNanos));
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+        return true;
+    }
+
+    @Override
+    public void signalAll() {
+        // producers check the state periodically
+    }
+}
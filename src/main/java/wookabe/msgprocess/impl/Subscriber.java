@@ -2,40 +2,257 @@ package wookabe.msgprocess.impl;
 
 import wookabe.msgprocess.subscription.Adjustment;
 import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.MessageView;
 import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+import wookabe.msgprocess.subscription.PriceTransform;
 import wookabe.msgprocess.subscription.Receivable;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Message processing and storing facility.
+ * Messages are received by a single producer at a time. Only {@link #resume()} may be called
+ * by another thread, waking up a producer waiting in {@link #offer(Message, long, TimeUnit)},
+ * and the current sales may be read by any thread with {@link #getSales(String)} and {@link #getSales()}.
  */
-public class Subscriber implements Receivable {
+public class Subscriber implements Receivable, AutoCloseable {
     /**
-     * Number of received messages after which the sales report is generated
+     * Number of messages taken at once from an iterator of a batch
      */
-    private static final int SALES_REPORT_TRIGGER = 10;
+    private static final int BATCH_SIZE = 1024;
+
+    private final int salesReportTrigger;
+    private final int adjustmentReportTrigger;
+    private final Limits limits;
+    private WaitStrategy waitStrategy;
 
     /**
-     * Number of received messages after which the adjustment report is generated
+     * Exception thrown on every rejection, shared to keep rejecting cheap
      */
-    private static final int ADJUSTMENT_REPORT_TRIGGER = 50;
+    private final NotAcceptingNewMessages rejection;
 
-    private List<Message> messages;
+    private MessageStore messages;
     private Logger logger;
-    private boolean paused;
+    private volatile boolean paused;
+
+    /**
+     * Number of messages to be accepted until the subscriber pauses
+     */
+    private long messagesUntilPause;
+
+    /**
+     * Product names interned to ids at reception
+     */
+    private final ProductRegistry products;
+
+    /**
+     * Running sales aggregates per product id
+     */
+    private final SalesLedger sales;
+
+    /**
+     * Adjustment messages per product id
+     */
+    private AdjustmentHistory adjustments;
+
+    /**
+     * Journal of accepted messages, null if messages are not persisted
+     */
+    private Journal journal;
+
+    /**
+     * Number of received messages after which a snapshot is taken, 0 for no periodic snapshots
+     */
+    private int snapshotEvery;
+
+    /**
+     * Single thread writing the snapshots in order, created with the first snapshot
+     */
+    private ExecutorService snapshotWriter;
+
+    /**
+     * Number of messages restored from a snapshot but not kept in the message store
+     */
+    private long compactedMessages;
+
+    /**
+     * Number of messages received before the snapshot the subscriber was restored from, 0 if not restored
+     */
+    private long restoredMessages;
+
+    /**
+     * View moved over the records of encoded batches
+     */
+    private final MessageView view = new MessageView();
+
+    /**
+     * Aggregators of the windows reported by the subscriber
+     */
+    private WindowAggregator[] windows = new WindowAggregator[0];
+
+    /**
+     * Selection of the products of the sales reports, null to report all products
+     */
+    private TopSalesTracker topSales;
+
+    /**
+     * Execution of the reports on a range of stored messages
+     */
+    private ReportParallelism reportParallelism = ReportParallelism.automatic();
+
+    private Metrics metrics;
+
+    /**
+     * Whether metrics are recorded, time is not even measured otherwise
+     */
+    private boolean instrumented;
 
     public Subscriber() {
         this(new ConsoleLogger());
     }
 
     public Subscriber(Logger logger) {
+        this(logger, Limits.DEFAULT);
+    }
+
+    /**
+     * Constructor with custom limits. Other options are set before the first message, the journal last.
+     *
+     * @param logger logger of the reports
+     * @param limits report triggers and limit of accepted messages
+     */
+    public Subscriber(Logger logger, Limits limits) {
+        this(logger, new ColumnarMessageStore(), limits);
+    }
+
+    Subscriber(Logger logger, MessageStore messages, Limits limits) {
         this.logger = logger;
-        messages = new ArrayList<>();
+        this.messages = messages;
+        this.limits = limits;
+        waitStrategy = new BlockingWaitStrategy();
+        salesReportTrigger = limits.getSalesReportTrigger();
+        adjustmentReportTrigger = limits.getAdjustmentReportTrigger();
+        rejection = new NotAcceptingNewMessages(limits.getPauseLimit(), false);
+        messagesUntilPause = limits.getMessagesUntilPause();
+        products = new ProductRegistry();
+        adjustments = new AdjustmentHistory();
+        sales = new SalesLedger(adjustments);
         paused = false;
+        metrics = Metrics.DISABLED;
+    }
+
+    /**
+     * Set the strategy of waiting for the subscriber to resume, blocking by default.
+     * Must be set before the first message.
+     *
+     * @param waitStrategy strategy of waiting for the subscriber to resume
+     * @throws IllegalStateException thrown if messages were received already
+     */
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        requireNoMessages("Wait strategy");
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Keep a limited number of raw messages in memory, all of them by default.
+     * Must be set before the first message, and before the journal as messages restored from it are subject
+     * to the retention as well.
+     *
+     * @param retention retention of the raw messages
+     * @throws IllegalStateException thrown if messages were received already
+     */
+    public void setRetention(Retention retention) {
+        requireNoMessages("Retention");
+        messages.close();
+        messages = new ColumnarMessageStore(retention);
+    }
+
+    /**
+     * Aggregate fixed-point money, doubles by default.
+     * Prices, added and subtracted values and total values are exact at the given precision, so reports do not drift
+     * over many sales and do not depend on the order of the sales of a product. Prices and values between two
+     * decimals are rounded half-even when received, 0.105 being 0.10 with two decimals, and a message whose total
+     * value rounds to 0 or does not fit in a long is invalid. An overflow of a running total value throws
+     * an ArithmeticException leaving the total unchanged. Multipliers are kept at their full precision.
+     * Must be set before the first message, and before the journal.
+     *
+     * @param fixedPoint precision of the money, null for doubles
+     * @throws IllegalStateException thrown if messages were received already
+     */
+    public void setFixedPoint(FixedPoint fixedPoint) {
+        requireNoMessages("Fixed-point precision");
+        sales.setFixedPoint(fixedPoint);
+    }
+
+    /**
+     * Make the subscriber durable. Messages already in the journal are replayed at once without logging any report,
+     * the subscriber then appends every accepted message to the journal once processed, so a message failing
+     * to be processed is never replayed. Must be set before the first message, after the other options.
+     *
+     * @param journal journal of accepted messages
+     * @throws IllegalStateException thrown if messages were received already
+     */
+    public void setJournal(Journal journal) {
+        setJournal(journal, 0);
+    }
+
+    /**
+     * Make the subscriber durable, taking periodic snapshots.
+     * The subscriber is restored from the latest snapshot in the journal directory and the journal records after it.
+     *
+     * @param journal       journal of accepted messages
+     * @param snapshotEvery number of received messages after which a snapshot is taken, 0 for no periodic snapshots
+     * @throws IllegalStateException thrown if messages were received already
+     * @see #setJournal(Journal)
+     */
+    public void setJournal(Journal journal, int snapshotEvery) {
+        requireNoMessages("Journal");
+        this.journal = journal;
+        this.snapshotEvery = snapshotEvery;
+        recover();
+    }
+
+    /**
+     * Check that an option is set before any message, the journal being set last.
+     *
+     * @param option name of the option
+     * @throws IllegalStateException thrown if messages were received or the journal is set
+     */
+    private void requireNoMessages(String option) {
+        if (received() > 0 || journal != null)
+            throw new IllegalStateException(option + " must be set before the first message and the journal");
+    }
+
+    /**
+     * Restore the state from the latest snapshot and replay the journal records after it, without logging any report.
+     */
+    private void recover() {
+        long from = 0;
+        try {
+            Snapshot snapshot = Snapshot.readLatest(journal.getDirectory());
+            if (snapshot != null) {
+                restore(snapshot);
+                from = snapshot.getSequence();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read snapshot in " + journal.getDirectory(), e);
+        }
+        journal.replayViews(from, this::processMessage);
     }
 
     /**
@@ -46,35 +263,455 @@ public class Subscriber implements Receivable {
      */
     @Override
     public void receive(Message msg) throws NotAcceptingNewMessages {
-        pauseSubscriberIfLimitReached();
+        if (!offer(msg))
+            throw rejection;
+    }
 
-        validateMessage(msg);
-        storeMessage(msg);
+    /**
+     * Reception of a message without failing when paused.
+     *
+     * @param msg message to process
+     * @return true if the message was accepted, false if the subscriber is paused
+     */
+    @Override
+    public boolean offer(Message msg) {
+        if (paused) {
+            messagesRejected(1);
+            return false;
+        }
+
+        long start = startTime();
+        validate(msg);
+        advanceTimeWindows();
+        processMessage(products.intern(msg.getProductName()), msg);
+        if (journal != null)
+            journal.append(msg);
+        messagesUntilPause--;
+        reportMessagesIfApplicable();
+        snapshotIfApplicable();
+        messagesAccepted(1, start);
+        return true;
+    }
+
+    /**
+     * Reception of an encoded message.
+     *
+     * @param msg view of the message to process
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted
+     */
+    public void receive(MessageView msg) throws NotAcceptingNewMessages {
+        if (!offer(msg))
+            throw rejection;
+    }
+
+    /**
+     * Reception of an encoded message without failing when paused.
+     * The message is read in place, no object is created for a sale of a known product.
+     *
+     * @param msg view of the message to process
+     * @return true if the message was accepted, false if the subscriber is paused
+     */
+    public boolean offer(MessageView msg) {
+        if (paused) {
+            messagesRejected(1);
+            return false;
+        }
+
+        long start = startTime();
+        validate(msg);
+        advanceTimeWindows();
+        processMessage(msg);
+        if (journal != null)
+            journal.append(msg);
+        messagesUntilPause--;
+        reportMessagesIfApplicable();
+        snapshotIfApplicable();
+        messagesAccepted(1, start);
+        return true;
+    }
+
+    /**
+     * Reception of a message in a reusable slot.
+     *
+     * @param msg slot of the message to process
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted
+     */
+    public void receive(MessageSlot msg) throws NotAcceptingNewMessages {
+        if (!offer(msg))
+            throw rejection;
+    }
+
+    /**
+     * Reception of a message in a reusable slot without failing when paused.
+     * The fields are copied, so the slot may be reused as soon as the call returns.
+     * No object is created for a message of a known product unless the subscriber is durable.
+     *
+     * @param msg slot of the message to process
+     * @return true if the message was accepted, false if the subscriber is paused
+     */
+    public boolean offer(MessageSlot msg) {
+        if (paused) {
+            messagesRejected(1);
+            return false;
+        }
 
-        adjustMessagesIfApplicable(msg);
+        long start = startTime();
+        validate(msg);
+        advanceTimeWindows();
+        processMessage(products.intern(msg.getProductName()), msg);
+        if (journal != null)
+            journal.append(msg.toMessage());
+        messagesUntilPause--;
         reportMessagesIfApplicable();
+        snapshotIfApplicable();
+        messagesAccepted(1, start);
+        return true;
+    }
+
+    /**
+     * Reception of a message, waiting for the subscriber to resume if paused.
+     *
+     * @param msg     message to process
+     * @param timeout longest time to wait
+     * @param unit    unit of the timeout
+     * @return true if the message was accepted, false if the subscriber stayed paused until the timeout
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    public boolean offer(Message msg, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(msg)) {
+            if (!waitStrategy.await(this::isAccepting, deadline))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Accept messages again after pausing, once all reports logged so far are flushed.
+     * Has no effect if the subscriber is not paused.
+     */
+    public void resume() {
+        if (!paused)
+            return;
+        logger.flush();
+        messagesUntilPause = limits.getMessagesUntilPause();
+        paused = false;
+        waitStrategy.signalAll();
+    }
+
+    /**
+     * Release the stored messages, deleting the file of the messages spilled by the retention.
+     * The journal is left open, as it belongs to the caller.
+     *
+     * @throws UncheckedIOException thrown if the spill file cannot be deleted
+     */
+    @Override
+    public void close() {
+        messages.close();
+    }
+
+    /**
+     * Report the sales of a window from now on, in addition to the reports triggered by the limits.
+     * Windows are reported as they close, from incremental aggregates of the sales within them.
+     * Message windows close once their last message is processed, time windows when the first message
+     * after their end is received.
+     *
+     * @param window definition of the window
+     * @throws IllegalStateException thrown if the logger cannot log window reports
+     */
+    public void addWindow(Window window) {
+        if (!(logger instanceof WindowLogger))
+            throw new IllegalStateException("Window reports need a WindowLogger");
+        windows = Arrays.copyOf(windows, windows.length + 1);
+        windows[windows.length - 1] = new WindowAggregator(window, (WindowLogger) logger, products, received());
+    }
+
+    /**
+     * List only the products ranked first in the sales reports from now on, highest first.
+     *
+     * @param topSales definition of the sales reports, null to report all products
+     */
+    public void setTopSales(TopSales topSales) {
+        this.topSales = topSales == null ? null : new TopSalesTracker(topSales, sales);
+    }
+
+    /**
+     * Set the execution of the reports on a range of stored messages, automatic on the common pool by default.
+     *
+     * @param reportParallelism execution of the reports
+     */
+    public void setReportParallelism(ReportParallelism reportParallelism) {
+        this.reportParallelism = reportParallelism;
+    }
+
+    /**
+     * Record the metrics of the subscriber from now on.
+     * Gauges of the metrics may be read by any thread, the other metrics are recorded by the receiving thread.
+     *
+     * @param metrics metrics to record, {@link Metrics#DISABLED} to stop recording
+     */
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        instrumented = metrics != Metrics.DISABLED;
+        metrics.bindGauges(() -> messages.size(), products::size);
+    }
+
+    private long startTime() {
+        return instrumented ? System.nanoTime() : 0;
+    }
+
+    private void messagesAccepted(int count, long start) {
+        if (instrumented)
+            metrics.messagesAccepted(count, System.nanoTime() - start);
+    }
+
+    private void messagesRejected(int count) {
+        if (instrumented)
+            metrics.messagesRejected(count);
+    }
+
+    private void reportLogged(Metrics.Report report, long start) {
+        if (instrumented)
+            metrics.reportLogged(report, System.nanoTime() - start);
     }
 
     /**
-     * If limit of messages reached put the subscriber in paused mode.
+     * Gets whether new messages are accepted.
      *
-     * @throws NotAcceptingNewMessages
+     * @return false if paused
      */
-    private void pauseSubscriberIfLimitReached() throws NotAcceptingNewMessages {
-        if (paused)
-            throw new NotAcceptingNewMessages(ADJUSTMENT_REPORT_TRIGGER);
-        if (messages.size() >= ADJUSTMENT_REPORT_TRIGGER - 1) {
-            paused = true; // no restart possible at the moment
+    public boolean isAccepting() {
+        return !paused;
+    }
+
+    @Override
+    public void receiveAll(Message[] msgs) throws NotAcceptingNewMessages {
+        receiveAll(msgs, msgs.length);
+    }
+
+    @Override
+    public void receiveAll(List<Message> msgs) throws NotAcceptingNewMessages {
+        receiveAll(msgs.toArray(new Message[0]));
+    }
+
+    @Override
+    public void receiveAll(Iterator<Message> msgs) throws NotAcceptingNewMessages {
+        Message[] batch = new Message[BATCH_SIZE];
+        while (msgs.hasNext()) {
+            int n = 0;
+            while (n < batch.length && msgs.hasNext())
+                batch[n++] = msgs.next();
+            receiveAll(batch, n);
         }
     }
 
+    /**
+     * Reception of a batch of encoded messages, from the position to the limit of the buffer.
+     * The batch is processed like a batch of messages, each record being read in place.
+     *
+     * @param buffer buffer of encoded messages, its position is left after the last processed message
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted, messages up to the limit are processed
+     */
+    @Override
+    public void receiveAll(ByteBuffer buffer) throws NotAcceptingNewMessages {
+        if (paused) {
+            int n = 0;
+            for (int offset = buffer.position(); offset < buffer.limit(); offset += view.getEncodedLength(), n++)
+                view.wrap(buffer, offset);
+            messagesRejected(n);
+            throw rejection;
+        }
+        long start = startTime();
+        int n = 0;
+        for (int offset = buffer.position(); offset < buffer.limit(); offset += view.getEncodedLength(), n++)
+            validate(view.wrap(buffer, offset));
+        advanceTimeWindows();
+
+        int accepted = (int) Math.min(n, messagesUntilPause);
+        int offset = buffer.position();
+        int i = 0;
+        while (i < accepted) {
+            int end = (int) Math.min(accepted, i + messagesUntilNextReport());
+            for (; i < end; i++, offset += view.getEncodedLength()) {
+                view.wrap(buffer, offset);
+                processMessage(view);
+                if (journal != null)
+                    journal.append(view);
+                messagesUntilPause--;
+            }
+            reportMessagesIfApplicable();
+            snapshotIfApplicable();
+        }
+        buffer.position(offset);
+
+        if (accepted > 0)
+            messagesAccepted(accepted, start);
+        if (accepted < n) {
+            messagesRejected(n - accepted);
+            throw rejection;
+        }
+    }
+
+    /**
+     * Reception of a batch of messages.
+     *
+     * @param msgs messages to process
+     * @param n    number of messages to process from the beginning of the array
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted, messages up to the limit are processed
+     */
+    private void receiveAll(Message[] msgs, int n) throws NotAcceptingNewMessages {
+        if (offerAll(msgs, 0, n) < n)
+            throw rejection;
+    }
+
+    /**
+     * Reception of a batch of messages without failing when paused.
+     * The whole batch is validated before any message is stored. Messages are then stored and adjusted
+     * in runs ending at the next report trigger, so reports are logged at the same message counts
+     * as if the messages were received one by one.
+     *
+     * @param msgs   messages to process
+     * @param offset index of the first message to process
+     * @param n      number of messages to process
+     * @return number of accepted messages, from the first one, less than n if the subscriber paused
+     */
+    int offerAll(Message[] msgs, int offset, int n) {
+        if (paused) {
+            messagesRejected(n);
+            return 0;
+        }
+        long start = startTime();
+        for (int i = offset; i < offset + n; i++)
+            validate(msgs[i]);
+        advanceTimeWindows();
+
+        int accepted = (int) Math.min(n, messagesUntilPause);
+        int i = offset;
+        while (i < offset + accepted) {
+            int end = (int) Math.min(offset + accepted, i + messagesUntilNextReport());
+            for (; i < end; i++) {
+                processMessage(products.intern(msgs[i].getProductName()), msgs[i]);
+                if (journal != null)
+                    journal.append(msgs[i]);
+                messagesUntilPause--;
+            }
+            reportMessagesIfApplicable();
+            snapshotIfApplicable();
+        }
+
+        if (accepted > 0)
+            messagesAccepted(accepted, start);
+        if (accepted < n)
+            messagesRejected(n - accepted);
+        return accepted;
+    }
+
+    /**
+     * Wait until the subscriber accepts messages, with the wait strategy of the subscriber.
+     *
+     * @param timeout longest time to wait
+     * @param unit    unit of the timeout
+     * @return true if the subscriber accepts messages
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    boolean awaitAccepting(long timeout, TimeUnit unit) throws InterruptedException {
+        return waitStrategy.await(this::isAccepting, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Gets the number of messages to be received until a report, the pause, a snapshot or the end of a window is due.
+     *
+     * @return number of messages until the next report, pause, snapshot or end of a window
+     */
+    private long messagesUntilNextReport() {
+        long received = received();
+        long untilNext = Math.min(messagesUntilPause, Math.min(salesReportTrigger - received % salesReportTrigger,
+                adjustmentReportTrigger - received % adjustmentReportTrigger));
+        if (snapshotEvery > 0)
+            untilNext = Math.min(untilNext, snapshotEvery - received % snapshotEvery);
+        for (WindowAggregator window : windows)
+            untilNext = Math.min(untilNext, window.messagesUntilPaneEnd(received));
+        return untilNext;
+    }
+
+    /**
+     * Gets the number of messages received so far, including those restored from a snapshot.
+     *
+     * @return number of received messages
+     */
+    private long received() {
+        return compactedMessages + messages.size();
+    }
+
+    /**
+     * Validate correctness of the message, and that its money is representable at the precision of the subscriber.
+     *
+     * @param msg message to validate
+     */
+    private void validate(Message msg) {
+        validateMessage(msg);
+        validateFixedPoint(msg.getNumberOfSales(), msg.getPrice(),
+                msg.getAdjustment() == null ? null : msg.getAdjustment().getType());
+    }
+
+    /**
+     * Validate correctness of the encoded message, and that its money is representable at the precision
+     * of the subscriber.
+     *
+     * @param msg view of the message to validate
+     */
+    private void validate(MessageView msg) {
+        validateMessage(msg);
+        validateFixedPoint(msg.getNumberOfSales(), msg.getPrice(), msg.getAdjustmentType());
+    }
+
+    /**
+     * Validate correctness of the message in a slot, and that its money is representable at the precision
+     * of the subscriber.
+     *
+     * @param msg slot of the message to validate
+     */
+    private void validate(MessageSlot msg) {
+        if (msg.getProductName() == null || msg.getProductName().isEmpty())
+            throw new IllegalArgumentException("Product name cannot be null or empty");
+        if (msg.getNumberOfSales() <= 0)
+            throw new IllegalArgumentException("Number of sales must be greater than 0");
+        if (msg.getNumberOfSales() * msg.getPrice() <= 0)
+            throw new IllegalArgumentException("Total value must be greater than 0");
+        validateFixedPoint(msg.getNumberOfSales(), msg.getPrice(), msg.getAdjustmentType());
+    }
+
+    /**
+     * Validate that the price and total value of a message are representable at the fixed-point precision if any.
+     * Multipliers are not money, they are kept at their full precision.
+     *
+     * @param numberOfSales  number of sales of the message
+     * @param price          price or adjustment value of the message
+     * @param adjustmentType type of the adjustment, null for a sale message
+     */
+    private void validateFixedPoint(int numberOfSales, double price, Adjustment.Type adjustmentType) {
+        FixedPoint fixedPoint = sales.getFixedPoint();
+        if (fixedPoint == null || adjustmentType == Adjustment.Type.MULTIPLY)
+            return;
+        long totalValue;
+        try {
+            totalValue = fixedPoint.total(numberOfSales, fixedPoint.toScaled(price));
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Total value cannot be represented with "
+                    + fixedPoint.getDecimals() + " decimals", e);
+        }
+        if (totalValue <= 0)
+            throw new IllegalArgumentException("Total value must be greater than 0 with "
+                    + fixedPoint.getDecimals() + " decimals");
+    }
+
     /**
      * Validate correctness of the message.
      * Could be done in Message constructor alternatively.
      *
      * @param msg message to validate
      */
-    private void validateMessage(Message msg) {
+    static void validateMessage(Message msg) {
         if (msg == null)
             throw new IllegalArgumentException("Message cannot be null");
         if (msg.getProductName() == null || msg.getProductName().isEmpty())
@@ -86,82 +723,448 @@ public class Subscriber implements Receivable {
     }
 
     /**
-     * Store message.
+     * Validate correctness of the encoded message.
+     *
+     * @param msg view of the message to validate
+     */
+    static void validateMessage(MessageView msg) {
+        if (msg.getProductNameLength() == 0)
+            throw new IllegalArgumentException("Product name cannot be null or empty");
+        if (msg.getNumberOfSales() <= 0)
+            throw new IllegalArgumentException("Number of sales must be greater than 0");
+        if (msg.getNumberOfSales() * msg.getPrice() <= 0)
+            throw new IllegalArgumentException("Total value must be greater than 0");
+    }
+
+    /**
+     * Store the message and apply it on the sales aggregate of its product.
+     *
+     * @param productId id of the product of the message
+     * @param msg       message to process
+     */
+    private void processMessage(int productId, Message msg) {
+        storeMessage(productId, msg);
+        adjustMessagesIfApplicable(productId, msg);
+    }
+
+    /**
+     * Store the encoded message and apply it on the sales aggregate of its product.
      *
-     * @param msg message to be stored
+     * @param msg view of the message to process
      */
-    private void storeMessage(Message msg) {
-        messages.add(msg);
+    private void processMessage(MessageView msg) {
+        int productId = products.intern(msg.getBuffer(), msg.getProductNameOffset(), msg.getProductNameLength());
+        Adjustment.Type type = msg.getAdjustmentType();
+        if (type != null) {
+            messages.add(productId, msg.getPrice(), msg.getNumberOfSales(), type, 0);
+            applyAdjustment(productId, type, msg.getPrice());
+            return;
+        }
+
+        addSale(productId, msg.getNumberOfSales(), msg.getPrice());
+        messages.add(productId, msg.getPrice(), msg.getNumberOfSales(), null, sales.epoch(productId));
     }
 
     /**
-     * If the message is an adjustment message then apply the adjustment on all stored messages.
+     * Store the message of a slot and apply it on the sales aggregate of its product.
      *
-     * @param msg possible adjustment messages
+     * @param productId id of the product of the message
+     * @param msg       slot of the message to process
      */
-    private void adjustMessagesIfApplicable(Message msg) {
-        if (msg.getAdjustment() != null)
-            messages.stream().
-                    filter(m -> m.getProductName().equals(msg.getProductName())).
-                    forEach(m -> m.adjust(msg.getAdjustment()));
+    private void processMessage(int productId, MessageSlot msg) {
+        Adjustment.Type type = msg.getAdjustmentType();
+        if (type != null) {
+            messages.add(productId, msg.getPrice(), msg.getNumberOfSales(), type, 0);
+            applyAdjustment(productId, type, msg.getPrice());
+            return;
+        }
+
+        addSale(productId, msg.getNumberOfSales(), msg.getPrice());
+        messages.add(productId, msg.getPrice(), msg.getNumberOfSales(), null, sales.epoch(productId));
     }
 
     /**
-     * Report on messages if applicable.
+     * Store message and add it to the sales aggregate of its product.
+     *
+     * @param productId id of the product of the message
+     * @param msg       message to be stored
+     */
+    private void storeMessage(int productId, Message msg) {
+        Adjustment adjustment = msg.getAdjustment();
+        if (adjustment != null) {
+            messages.add(productId, adjustment.getValue(), msg.getNumberOfSales(), adjustment.getType(), 0);
+            return;
+        }
+
+        addSale(productId, msg.getNumberOfSales(), msg.getPrice());
+        messages.add(productId, msg.getPrice(), msg.getNumberOfSales(), null, sales.epoch(productId));
+    }
+
+    /**
+     * Add a sale to the sales aggregate of its product and to the windows.
+     * The sales aggregate is updated first, so a fixed-point overflow leaves everything unchanged.
+     *
+     * @param productId     id of the product of the sale
+     * @param numberOfSales number of sales of the message
+     * @param price         price of the message
+     */
+    private void addSale(int productId, int numberOfSales, double price) {
+        sales.add(productId, numberOfSales, price);
+        double totalValue = numberOfSales * price;
+        if (topSales != null)
+            topSales.added(productId, numberOfSales, totalValue);
+        for (WindowAggregator window : windows)
+            window.add(productId, numberOfSales, totalValue);
+    }
+
+    /**
+     * If the message is an adjustment message then apply the adjustment on the sales aggregate of the product.
+     * Stored messages are not touched, their prices get adjusted when read.
+     *
+     * @param productId id of the product of the message
+     * @param msg       possible adjustment messages
+     */
+    private void adjustMessagesIfApplicable(int productId, Message msg) {
+        Adjustment adjustment = msg.getAdjustment();
+        if (adjustment != null)
+            applyAdjustment(productId, adjustment.getType(), adjustment.getValue());
+    }
+
+    /**
+     * Record the adjustment of the stored adjustment message and apply it on the sales aggregate of its product.
+     *
+     * @param productId id of the product of the message
+     * @param type      type of the adjustment
+     * @param value     value of the adjustment
+     */
+    private void applyAdjustment(int productId, Adjustment.Type type, double value) {
+        long start = startTime();
+        if (topSales != null && sales.hasSales(productId)) {
+            double totalValueBefore = sales.getTotalValue(productId);
+            sales.adjust(productId, type, value);
+            topSales.adjusted(productId, totalValueBefore);
+        } else {
+            sales.adjust(productId, type, value);
+        }
+        adjustments.add(productId, type, value, received() - 1);
+        if (windows.length > 0) {
+            PriceTransform transform = new Adjustment(type, value).toTransform();
+            for (WindowAggregator window : windows)
+                window.adjust(productId, transform);
+        }
+        if (instrumented)
+            metrics.adjustmentApplied(System.nanoTime() - start);
+    }
+
+    /**
+     * Report on messages and pause if applicable.
      */
     private void reportMessagesIfApplicable() {
-        if (messages.size() % SALES_REPORT_TRIGGER == 0)
+        if (received() % salesReportTrigger == 0) {
+            long start = startTime();
             logSalesReport();
-        if (messages.size() % ADJUSTMENT_REPORT_TRIGGER == 0) {
+            reportLogged(Metrics.Report.SALES, start);
+        }
+        if (messagesUntilPause == 0) {
+            long start = startTime();
+            paused = true;
             logger.logPause();
+            reportLogged(Metrics.Report.PAUSE, start);
+        }
+        if (received() % adjustmentReportTrigger == 0) {
+            long start = startTime();
             logAdjustmentReport();
+            reportLogged(Metrics.Report.ADJUSTMENT, start);
+        }
+        for (WindowAggregator window : windows) {
+            long start = startTime();
+            if (window.advanceMessages(received()))
+                reportLogged(Metrics.Report.WINDOW, start);
+        }
+    }
+
+    /**
+     * Close the time windows which ended before the messages being received.
+     */
+    private void advanceTimeWindows() {
+        for (WindowAggregator window : windows) {
+            long start = startTime();
+            if (window.advanceTime())
+                reportLogged(Metrics.Report.WINDOW, start);
+        }
+    }
+
+    /**
+     * Take a snapshot if periodic snapshots are due.
+     */
+    private void snapshotIfApplicable() {
+        if (snapshotEvery > 0 && received() % snapshotEvery == 0)
+            snapshot();
+    }
+
+    /**
+     * Take a snapshot of the state of a durable subscriber, to be restored from instead of replaying the whole journal.
+     * The receiving thread only pins the state, which is then copied and written in the background while messages
+     * keep being received: the sales aggregates are copied on write by the receiving thread, the product names
+     * and adjustments are only ever appended to.
+     * Once written, older snapshots and the journal segments it covers are deleted.
+     *
+     * @return future of the path of the written snapshot
+     * @throws IllegalStateException thrown if the subscriber has no journal
+     */
+    public CompletableFuture<Path> snapshot() {
+        if (journal == null)
+            throw new IllegalStateException("Snapshots are taken of durable subscribers only");
+        if (snapshotWriter == null) {
+            snapshotWriter = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "snapshot-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
+
+        long sequence = journal.size();
+        long received = received();
+        int numberOfProducts = products.size();
+        SalesLedger.View sales = this.sales.pin();
+        AdjustmentHistory.View adjustments = this.adjustments.view();
+        return CompletableFuture.supplyAsync(() -> {
+            Snapshot snapshot = copySnapshot(sequence, received, numberOfProducts, sales, adjustments);
+            try {
+                Path path = snapshot.write(journal.getDirectory());
+                Snapshot.deleteOlder(journal.getDirectory(), path);
+                journal.compact(snapshot.getSequence());
+                return path;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write snapshot in " + journal.getDirectory(), e);
+            }
+        }, snapshotWriter);
     }
 
     /**
-     * Log adjustment report.
+     * Copy the compact state pinned by the receiving thread: product names, sales aggregates and the history
+     * of adjustment messages. May run in any thread.
+     *
+     * @param sequence         number of journal records covered
+     * @param received         number of received messages
+     * @param numberOfProducts number of interned products
+     * @param sales            pinned sales aggregates
+     * @param adjustments      pinned history of the adjustment messages
+     * @return snapshot of the pinned state
+     */
+    private Snapshot copySnapshot(long sequence, long received, int numberOfProducts, SalesLedger.View sales,
+                                  AdjustmentHistory.View adjustments) {
+        String[] productNames = new String[numberOfProducts];
+        for (int id = 0; id < productNames.length; id++)
+            productNames[id] = products.name(id);
+
+        int n = sales.size();
+        int[] productsWithSales = new int[n];
+        int[] numberOfSales = new int[n];
+        double[] totalValues = new double[n];
+        for (int i = 0; i < n; i++) {
+            int productId = sales.getProductWithSales(i);
+            productsWithSales[i] = productId;
+            numberOfSales[i] = sales.getNumberOfSales(productId);
+            totalValues[i] = sales.getTotalValue(productId);
+        }
+
+        int size = adjustments.size();
+        int[] adjustedProducts = new int[size];
+        byte[] adjustmentTypes = new byte[size];
+        double[] adjustmentValues = new double[size];
+        long[] adjustmentSequences = new long[size];
+        for (int i = 0; i < size; i++) {
+            adjustedProducts[i] = adjustments.getProductId(i);
+            adjustmentTypes[i] = (byte) adjustments.getType(i).ordinal();
+            adjustmentValues[i] = adjustments.getValue(i);
+            adjustmentSequences[i] = adjustments.getSequence(i);
+        }
+
+        return new Snapshot(sequence, received, productNames, productsWithSales, numberOfSales, totalValues,
+                adjustedProducts, adjustmentTypes, adjustmentValues, adjustmentSequences);
+    }
+
+    /**
+     * Restore the state from a snapshot. Adjustment messages are restored to the message store
+     * and the adjustment history, raw sales are only counted.
+     *
+     * @param snapshot snapshot to restore
+     */
+    private void restore(Snapshot snapshot) {
+        for (String productName : snapshot.getProductNames())
+            products.intern(productName);
+
+        for (int i = 0; i < snapshot.getNumberOfAdjustments(); i++) {
+            int productId = snapshot.getAdjustedProduct(i);
+            Adjustment.Type type = snapshot.getAdjustmentType(i);
+            double value = snapshot.getAdjustmentValue(i);
+            messages.add(productId, value, 1, type, 0);
+            adjustments.add(productId, type, value, snapshot.getAdjustmentSequence(i));
+        }
+
+        for (int i = 0; i < snapshot.getNumberOfProductsWithSales(); i++)
+            sales.restore(snapshot.getProductWithSales(i), snapshot.getNumberOfSales(i), snapshot.getTotalValue(i));
+        compactedMessages = snapshot.getReceived() - messages.size();
+        restoredMessages = snapshot.getReceived();
+    }
+
+    /**
+     * Log adjustment report from the adjustment history, without reading the stored messages.
      */
     private void logAdjustmentReport() {
         Map<String, List<Adjustment>> productsToAdjustments = new HashMap<>();
-        messages.stream().
-                filter(m -> m.getAdjustment() != null).
-                forEach(m -> {
-                    String pName = m.getProductName();
-                    productsToAdjustments.putIfAbsent(pName, new ArrayList<>());
-                    productsToAdjustments.get(pName).add(m.getAdjustment());
-                });
+        for (int i = 0, n = adjustments.getNumberOfAdjustedProducts(); i < n; i++) {
+            int productId = adjustments.getAdjustedProduct(i);
+            productsToAdjustments.put(products.name(productId), adjustments.adjustments(productId));
+        }
         logger.logAdjustmentReport(productsToAdjustments);
     }
 
     /**
-     * Log sales report.
+     * Gets the adjustments of a product received so far.
+     *
+     * @param productName name of the product
+     * @return read-only list of the adjustments in order of reception, empty for an unknown product
      */
-    private void logSalesReport() {
+    public List<Adjustment> getAdjustments(String productName) {
+        return getAdjustmentsSince(productName, 0);
+    }
+
+    /**
+     * Gets the adjustments of a product received from a message on,
+     * in time proportional to the number of adjustments of the product.
+     *
+     * @param productName name of the product
+     * @param message     number of messages received before the first message of interest
+     * @return read-only list of the adjustments in order of reception, empty for an unknown product
+     */
+    public List<Adjustment> getAdjustmentsSince(String productName, long message) {
+        int productId = products.lookup(productName);
+        return productId < 0 ? Collections.emptyList() : adjustments.adjustmentsSince(productId, message);
+    }
+
+    /**
+     * Gets the current sales of a product. May be called by any thread while messages are received,
+     * reading the running aggregate without blocking the receiving thread.
+     *
+     * @param productName name of the product
+     * @return totals of the product, without sales for an unknown product
+     */
+    public ProductTotals getSales(String productName) {
+        int productId = products.lookup(productName);
+        return productId < 0 ? new ProductTotals(productName, 0, 0) : sales.read(productId, productName);
+    }
+
+    /**
+     * Gets the current sales of all products with sales, all read at the same point in time.
+     * May be called by any thread while messages are received, pinning the running aggregates
+     * which the receiving thread then copies on write, so the read waits for a single update at most.
+     *
+     * @return read-only list of the totals of the products in order of their first sale
+     */
+    public List<ProductTotals> getSales() {
+        return Collections.unmodifiableList(sales.readAll(products::name));
+    }
+
+    /**
+     * Log a sales report of the sales received within a range of messages, at their prices adjusted so far.
+     * The stored messages of the range are aggregated in leaves, in parallel or not as decided by the
+     * report parallelism, with the same result either way. Must be called by the thread receiving the messages.
+     * With a fixed-point precision, prices are adjusted in doubles and only the totals are rounded to the precision,
+     * so they may differ by a few units of the last decimal from the running totals, which round every adjustment.
+     *
+     * @param from sequence number of the first message of the range, starting at 0
+     * @param to   sequence number after the last message of the range
+     * @throws IndexOutOfBoundsException thrown if the range is not within the stored messages, messages dropped
+     *                                   by the retention or received before a snapshot being no longer stored
+     */
+    public void logSalesReport(long from, long to) {
+        long first = Math.max(restoredMessages, compactedMessages + messages.getFirst());
+        if (from < first || to > received() || from > to)
+            throw new IndexOutOfBoundsException("Messages [" + from + ", " + to + ") not within the stored messages ["
+                    + first + ", " + received() + ")");
+        ProductSales aggregate = HistoryAggregator.aggregate(messages, sales, from - compactedMessages,
+                to - compactedMessages, reportParallelism);
+
+        FixedPoint fixedPoint = sales.getFixedPoint();
         Map<String, Integer> numberOfSales = new HashMap<>();
-        messages.stream().
-                filter(m -> m.getAdjustment() == null).
-                forEach(m -> {
-                    String pName = m.getProductName();
-                    numberOfSales.put(pName, numberOfSales.getOrDefault(pName, 0) + m.getNumberOfSales());
-                });
+        Map<String, Double> totalValues = new HashMap<>();
+        for (int i = 0; i < aggregate.size(); i++) {
+            String pName = products.name(aggregate.getProductId(i));
+            double totalValue = aggregate.getTotalValue(i);
+            numberOfSales.put(pName, aggregate.getNumberOfSales(i));
+            totalValues.put(pName, fixedPoint == null ? totalValue : fixedPoint.toDouble(fixedPoint.toScaled(totalValue)));
+        }
+        logger.logSalesReport(numberOfSales, totalValues);
+    }
 
+    /**
+     * Log sales report from the running aggregates.
+     * Products are put in order of their first sale so the maps iterate the same way
+     * as if they were built from the stored messages. Names are resolved only for the report maps.
+     */
+    private void logSalesReport() {
+        if (topSales != null) {
+            logTopSalesReport();
+            return;
+        }
+        Map<String, Integer> numberOfSales = new HashMap<>();
         Map<String, Double> totalValues = new HashMap<>();
-        messages.stream().
-                filter(m -> m.getAdjustment() == null).
-                forEach(m -> {
-                    String pName = m.getProductName();
-                    totalValues.put(pName, totalValues.getOrDefault(pName, .0) + m.getTotalValue());
-                });
+        for (int i = 0, n = sales.getNumberOfProductsWithSales(); i < n; i++) {
+            int productId = sales.getProductWithSales(i);
+            String pName = products.name(productId);
+            numberOfSales.put(pName, sales.getNumberOfSales(productId));
+            totalValues.put(pName, sales.getTotalValue(productId));
+        }
+
+        logger.logSalesReport(numberOfSales, totalValues);
+    }
+
+    /**
+     * Log sales report of the products ranked first, the maps iterating in order of rank.
+     */
+    private void logTopSalesReport() {
+        Map<String, Integer> numberOfSales = new LinkedHashMap<>();
+        Map<String, Double> totalValues = new LinkedHashMap<>();
+        for (int productId : topSales.top()) {
+            String pName = products.name(productId);
+            numberOfSales.put(pName, sales.getNumberOfSales(productId));
+            totalValues.put(pName, sales.getTotalValue(productId));
+        }
 
         logger.logSalesReport(numberOfSales, totalValues);
     }
 
     /**
      * Gets the list of messages for testing purposes at the moment (package-private).
+     * The list is a read-only view over the message store, sale messages are adjusted when read.
+     * Sales restored from a snapshot and messages dropped by the retention are not part of it,
+     * nor messages beyond the first {@link Integer#MAX_VALUE} retained ones.
+     * With a fixed-point precision, adjusted prices are doubles not rounded to the precision.
      *
-     * @return list of all received messages
+     * @return list of all retained messages
      */
     List<Message> getMessages() {
-        return messages;
+        long first = messages.getFirst();
+        return new AbstractList<Message>() {
+            @Override
+            public Message get(int i) {
+                long index = first + i;
+                int productId = messages.getProductId(index);
+                String pName = products.name(productId);
+                Adjustment.Type type = messages.getAdjustmentType(index);
+                if (type != null)
+                    return new Message(pName, messages.getPrice(index), type);
+
+                double price = sales.adjustedPrice(productId, messages.getPrice(index), messages.getEpoch(index));
+                return new Message(pName, price, messages.getNumberOfSales(index));
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, messages.size() - first);
+            }
+        };
     }
 }
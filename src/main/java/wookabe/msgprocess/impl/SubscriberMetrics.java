@@ -0,0 +1,173 @@
+package wookabe.msgprocess.impl;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters, latency histograms and gauges of a subscriber.
+ * Metrics are recorded by the single receiving thread without locks, atomic instructions or allocation,
+ * and read by any thread through {@link #snapshot()} or JMX.
+ */
+public class SubscriberMetrics implements Metrics, SubscriberMetricsMBean {
+    private static final Report[] REPORTS = Report.values();
+
+    private final AtomicLong messagesRejected;
+    private final AtomicLongArray reports;
+    private final LatencyHistogram receiveLatency;
+    private final LatencyHistogram adjustmentLatency;
+    private final LatencyHistogram[] reportLatencies;
+    private volatile LongSupplier storedMessages;
+    private volatile LongSupplier products;
+
+    public SubscriberMetrics() {
+        messagesRejected = new AtomicLong();
+        reports = new AtomicLongArray(REPORTS.length);
+        reportLatencies = new LatencyHistogram[REPORTS.length];
+        for (int i = 0; i < REPORTS.length; i++)
+            reportLatencies[i] = new LatencyHistogram();
+        receiveLatency = new LatencyHistogram();
+        adjustmentLatency = new LatencyHistogram();
+        storedMessages = () -> 0;
+        products = () -> 0;
+    }
+
+    @Override
+    public void bindGauges(LongSupplier storedMessages, LongSupplier products) {
+        this.storedMessages = storedMessages;
+        this.products = products;
+    }
+
+    /**
+     * Messages accepted at once are recorded with their mean latency, the histogram counts the accepted messages.
+     */
+    @Override
+    public void messagesAccepted(int count, long nanos) {
+        receiveLatency.record(nanos / count, count);
+    }
+
+    @Override
+    public void messagesRejected(int count) {
+        messagesRejected.lazySet(messagesRejected.get() + count);
+    }
+
+    @Override
+    public void adjustmentApplied(long nanos) {
+        adjustmentLatency.record(nanos);
+    }
+
+    @Override
+    public void reportLogged(Report report, long nanos) {
+        reports.lazySet(report.ordinal(), reports.get(report.ordinal()) + 1);
+        reportLatencies[report.ordinal()].record(nanos);
+    }
+
+    /**
+     * Copy the current values of the metrics.
+     *
+     * @return snapshot of the metrics
+     */
+    public MetricsSnapshot snapshot() {
+        long[] reportCounts = new long[REPORTS.length];
+        LatencyHistogram[] reportLatencyCopies = new LatencyHistogram[REPORTS.length];
+        for (int i = 0; i < REPORTS.length; i++) {
+            reportCounts[i] = reports.get(i);
+            reportLatencyCopies[i] = reportLatencies[i].copy();
+        }
+        LatencyHistogram receiveLatencyCopy = receiveLatency.copy();
+        LatencyHistogram adjustmentLatencyCopy = adjustmentLatency.copy();
+        return new MetricsSnapshot(receiveLatencyCopy.getCount(), messagesRejected.get(),
+                adjustmentLatencyCopy.getCount(), reportCounts, storedMessages.getAsLong(), products.getAsLong(),
+                receiveLatencyCopy, adjustmentLatencyCopy, reportLatencyCopies);
+    }
+
+    /**
+     * Register the metrics to the platform MBean server.
+     *
+     * @param name name of the subscriber
+     * @return name under which the metrics are registered
+     * @throws JMException thrown if the metrics cannot be registered
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("wookabe.msgprocess:type=Subscriber,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    //
+    // Properties
+    //
+
+    @Override
+    public long getMessagesAccepted() {
+        return receiveLatency.getCount();
+    }
+
+    @Override
+    public long getMessagesRejected() {
+        return messagesRejected.get();
+    }
+
+    @Override
+    public long getAdjustmentsApplied() {
+        return adjustmentLatency.getCount();
+    }
+
+    @Override
+    public long getSalesReports() {
+        return reports.get(Report.SALES.ordinal());
+    }
+
+    @Override
+    public long getAdjustmentReports() {
+        return reports.get(Report.ADJUSTMENT.ordinal());
+    }
+
+    @Override
+    public long getPauses() {
+        return reports.get(Report.PAUSE.ordinal());
+    }
+
+    @Override
+    public long getStoredMessages() {
+        return storedMessages.getAsLong();
+    }
+
+    @Override
+    public long getProducts() {
+        return products.getAsLong();
+    }
+
+    @Override
+    public long getReceiveLatencyMedian() {
+        return receiveLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getReceiveLatency99thPercentile() {
+        return receiveLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getReceiveLatencyMax() {
+        return receiveLatency.getMax();
+    }
+
+    @Override
+    public long getAdjustmentLatency99thPercentile() {
+        return adjustmentLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSalesReportLatency99thPercentile() {
+        return reportLatencies[Report.SALES.ordinal()].getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getAdjustmentReportLatency99thPercentile() {
+        return reportLatencies[Report.ADJUSTMENT.ordinal()].getValueAtPercentile(99);
+    }
+}
@@ -0,0 +1,34 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Management interface of the metrics of a subscriber, latencies are in nanoseconds.
+ */
+public interface SubscriberMetricsMBean {
+    long getMessagesAccepted();
+
+    long getMessagesRejected();
+
+    long getAdjustmentsApplied();
+
+    long getSalesReports();
+
+    long getAdjustmentReports();
+
+    long getPauses();
+
+    long getStoredMessages();
+
+    long getProducts();
+
+    long getReceiveLatencyMedian();
+
+    long getReceiveLatency99thPercentile();
+
+    long getReceiveLatencyMax();
+
+    long getAdjustmentLatency99thPercentile();
+
+    long getSalesReportLatency99thPercentile();
+
+    long getAdjustmentReportLatency99thPercentile();
+}
@@ -0,0 +1,103 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Definition of a sales report listing only the products ranked first, for a very high number of products.
+ * An exact report ranks all products with a bounded heap of the k first, an approximate report ranks only
+ * the candidates kept by a streaming heavy hitters summary whose memory does not depend on the number of products.
+ * Reported aggregates are exact in both modes, only the choice of products is approximate.
+ */
+public final class TopSales {
+    /**
+     * Aggregate by which products are ranked.
+     */
+    public enum Ranking {TOTAL_VALUE, NUMBER_OF_SALES}
+
+    /**
+     * Default number of candidates per reported product of an approximate report
+     */
+    static final int DEFAULT_CANDIDATES_PER_PRODUCT = 8;
+
+    private final int k;
+    private final Ranking ranking;
+    private final int candidates;
+
+    /**
+     * Constructor.
+     *
+     * @param k          number of reported products
+     * @param ranking    aggregate by which products are ranked
+     * @param candidates number of candidates kept by an approximate report, 0 for an exact report
+     */
+    private TopSales(int k, Ranking ranking, int candidates) {
+        if (k <= 0)
+            throw new IllegalArgumentException("Number of reported products must be greater than 0");
+        if (candidates != 0 && candidates < k)
+            throw new IllegalArgumentException("Number of candidates must not be less than the number of reported products");
+        this.k = k;
+        this.ranking = ranking;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Exact report of the first products.
+     *
+     * @param k       number of reported products
+     * @param ranking aggregate by which products are ranked
+     * @return report definition
+     */
+    public static TopSales exact(int k, Ranking ranking) {
+        return new TopSales(k, ranking, 0);
+    }
+
+    /**
+     * Approximate report of the first products, keeping a default number of candidates.
+     *
+     * @param k       number of reported products
+     * @param ranking aggregate by which products are ranked
+     * @return report definition
+     */
+    public static TopSales approximate(int k, Ranking ranking) {
+        return approximate(k, ranking, k * DEFAULT_CANDIDATES_PER_PRODUCT);
+    }
+
+    /**
+     * Approximate report of the first products.
+     *
+     * @param k          number of reported products
+     * @param ranking    aggregate by which products are ranked
+     * @param candidates number of candidates kept, the more the more accurate
+     * @return report definition
+     */
+    public static TopSales approximate(int k, Ranking ranking, int candidates) {
+        return new TopSales(k, ranking, candidates);
+    }
+
+    //
+    // Properties
+    //
+
+    public int getK() {
+        return k;
+    }
+
+    public Ranking getRanking() {
+        return ranking;
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public boolean isApproximate() {
+        return candidates > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "TopSales{" +
+                "k=" + k +
+                ", ranking=" + ranking +
+                ", candidates=" + candidates +
+                '}';
+    }
+}
@@ -0,0 +1,160 @@
+package wookabe.msgprocess.impl;
+
+/**
+ * Selection of the products of a top sales report from the sales aggregates.
+ * An exact report scans all products with sales through a min-heap of the k first, in O(products * log k).
+ * An approximate report scans only the candidates of a Space-Saving summary fed with every sale and adjustment,
+ * in O(candidates * log k), the summary and its sketch taking a memory independent of the number of products.
+ */
+class TopSalesTracker {
+    /**
+     * Number of rows of the sketch
+     */
+    private static final int SKETCH_DEPTH = 4;
+
+    /**
+     * Number of counters per row of the sketch per candidate
+     */
+    private static final int SKETCH_WIDTH_PER_CANDIDATE = 4;
+
+    private final SalesLedger sales;
+    private final boolean byTotalValue;
+
+    /**
+     * Candidates of an approximate report, null for an exact report
+     */
+    private final SpaceSaving candidates;
+
+    /**
+     * Min-heap of the products ranked first so far, the lowest ranked at the root
+     */
+    private final int[] heap;
+
+    /**
+     * Constructor, feeding the candidates of an approximate report with the sales aggregated so far.
+     *
+     * @param topSales definition of the report
+     * @param sales    sales aggregates of all products
+     */
+    TopSalesTracker(TopSales topSales, SalesLedger sales) {
+        this.sales = sales;
+        byTotalValue = topSales.getRanking() == TopSales.Ranking.TOTAL_VALUE;
+        heap = new int[topSales.getK()];
+        if (!topSales.isApproximate()) {
+            candidates = null;
+            return;
+        }
+
+        candidates = new SpaceSaving(topSales.getCandidates(),
+                new CountMinSketch(SKETCH_DEPTH, topSales.getCandidates() * SKETCH_WIDTH_PER_CANDIDATE));
+        for (int i = 0, n = sales.getNumberOfProductsWithSales(); i < n; i++) {
+            int productId = sales.getProductWithSales(i);
+            double rank = rank(productId);
+            if (rank > 0)
+                candidates.add(productId, rank);
+        }
+    }
+
+    /**
+     * A sale was added to the aggregate of its product.
+     *
+     * @param productId     id of the product
+     * @param numberOfSales number of sales of the message
+     * @param totalValue    total value of the message
+     */
+    void added(int productId, int numberOfSales, double totalValue) {
+        if (candidates != null)
+            candidates.add(productId, byTotalValue ? totalValue : numberOfSales);
+    }
+
+    /**
+     * The aggregate of the product was adjusted. Only increases of the total value are fed to the candidates,
+     * as their counts must never fall below the total values.
+     *
+     * @param productId        id of the product
+     * @param totalValueBefore total value of the product before the adjustment
+     */
+    void adjusted(int productId, double totalValueBefore) {
+        if (candidates != null && byTotalValue) {
+            double increase = sales.getTotalValue(productId) - totalValueBefore;
+            if (increase > 0)
+                candidates.add(productId, increase);
+        }
+    }
+
+    /**
+     * Gets the products ranked first, highest first, ties ranked by product id.
+     *
+     * @return ids of at most k products with sales
+     */
+    int[] top() {
+        int size = 0;
+        if (candidates == null) {
+            for (int i = 0, n = sales.getNumberOfProductsWithSales(); i < n; i++)
+                size = offer(sales.getProductWithSales(i), size);
+        } else {
+            for (int i = 0, n = candidates.size(); i < n; i++)
+                size = offer(candidates.getItem(i), size);
+        }
+
+        int[] top = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            top[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(0, i);
+        }
+        return top;
+    }
+
+    /**
+     * Offer the product to the heap of the products ranked first.
+     *
+     * @param productId id of the product
+     * @param size      number of products in the heap
+     * @return new number of products in the heap
+     */
+    private int offer(int productId, int size) {
+        if (size < heap.length) {
+            int position = size;
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (!ranksBelow(productId, heap[parent]))
+                    break;
+                heap[position] = heap[parent];
+                position = parent;
+            }
+            heap[position] = productId;
+            return size + 1;
+        }
+        if (ranksBelow(heap[0], productId)) {
+            heap[0] = productId;
+            siftDown(0, size);
+        }
+        return size;
+    }
+
+    private void siftDown(int position, int size) {
+        int productId = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && ranksBelow(heap[child + 1], heap[child]))
+                child++;
+            if (!ranksBelow(heap[child], productId))
+                break;
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = productId;
+    }
+
+    private boolean ranksBelow(int productId, int otherProductId) {
+        int c = Double.compare(rank(productId), rank(otherProductId));
+        return c < 0 || c == 0 && productId > otherProductId;
+    }
+
+    private double rank(int productId) {
+        return byTotalValue ? sales.getTotalValue(productId) : sales.getNumberOfSales(productId);
+    }
+}
@@ -0,0 +1,23 @@
+package wookabe.msgprocess.impl;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Strategy of a producer waiting for a paused subscriber to accept messages again.
+ */
+public interface WaitStrategy {
+    /**
+     * Wait until the subscriber accepts messages or the deadline passes.
+     *
+     * @param accepting whether the subscriber accepts messages
+     * @param deadline  deadline in terms of {@link System#nanoTime()}
+     * @return true if the subscriber accepts messages
+     * @throws InterruptedException thrown if interrupted while waiting
+     */
+    boolean await(BooleanSupplier accepting, long deadline) throws InterruptedException;
+
+    /**
+     * Wake up the waiting producers, called when the subscriber resumes.
+     */
+    void signalAll();
+}
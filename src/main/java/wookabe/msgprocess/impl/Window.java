@@ -0,0 +1,125 @@
+package wookabe.msgprocess.impl;
+
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Definition of a window of sales reported by a subscriber.
+ * A window spans a number of messages or a duration and moves by a slide, the window being made of size / slide panes.
+ * A tumbling window slides by its whole size. Windows are aligned to multiples of the slide,
+ * of the number of received messages or of the milliseconds since the epoch of the clock.
+ */
+public final class Window {
+    /**
+     * Unit of the size of a window.
+     */
+    public enum Unit {MESSAGES, MILLISECONDS}
+
+    private final Unit unit;
+    private final long size;
+    private final long slide;
+    private final Clock clock;
+
+    /**
+     * Constructor.
+     *
+     * @param unit  unit of the size and slide
+     * @param size  size of the window
+     * @param slide step by which the window moves, size must be a multiple of it
+     * @param clock clock of time windows, ignored by message windows
+     */
+    public Window(Unit unit, long size, long slide, Clock clock) {
+        if (size <= 0 || slide <= 0 || size % slide != 0)
+            throw new IllegalArgumentException("Size and slide must be greater than 0, size a multiple of slide");
+        if (size / slide > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many panes in a window");
+        this.unit = unit;
+        this.size = size;
+        this.slide = slide;
+        this.clock = clock;
+    }
+
+    /**
+     * Tumbling window of a number of messages.
+     *
+     * @param messages size of the window
+     * @return window definition
+     */
+    public static Window tumbling(int messages) {
+        return sliding(messages, messages);
+    }
+
+    /**
+     * Sliding window of a number of messages.
+     *
+     * @param messages size of the window
+     * @param slide    number of messages by which the window moves
+     * @return window definition
+     */
+    public static Window sliding(int messages, int slide) {
+        return new Window(Unit.MESSAGES, messages, slide, null);
+    }
+
+    /**
+     * Tumbling window of a duration.
+     *
+     * @param duration size of the window
+     * @param unit     unit of the duration
+     * @param clock    clock giving the time of the messages
+     * @return window definition
+     */
+    public static Window tumbling(long duration, TimeUnit unit, Clock clock) {
+        return sliding(duration, duration, unit, clock);
+    }
+
+    /**
+     * Sliding window of a duration.
+     *
+     * @param duration size of the window
+     * @param slide    duration by which the window moves
+     * @param unit     unit of the durations
+     * @param clock    clock giving the time of the messages
+     * @return window definition
+     */
+    public static Window sliding(long duration, long slide, TimeUnit unit, Clock clock) {
+        return new Window(Unit.MILLISECONDS, unit.toMillis(duration), unit.toMillis(slide), clock);
+    }
+
+    //
+    // Properties
+    //
+
+    public Unit getUnit() {
+        return unit;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getSlide() {
+        return slide;
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Gets the number of panes the window is made of.
+     *
+     * @return size / slide
+     */
+    public int getPanes() {
+        return (int) (size / slide);
+    }
+
+    @Override
+    public String toString() {
+        return "Window{" +
+                "unit=" + unit +
+                ", size=" + size +
+                ", slide=" + slide +
+                '}';
+    }
+}
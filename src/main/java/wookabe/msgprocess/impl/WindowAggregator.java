@@ -0,0 +1,187 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.PriceTransform;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Incremental aggregates of the sales of a window, kept in a ring of panes.
+ * The sales of the current pane are added both to the pane and to running totals of the window,
+ * and the oldest pane is subtracted from the totals when the window slides, so a report costs
+ * O(products in the window) and the messages are never rescanned.
+ * Adjustments transform the totals of the window and of every pane holding the product.
+ */
+class WindowAggregator {
+    private final Window window;
+    private final WindowLogger logger;
+    private final ProductRegistry products;
+    private final ProductSales[] panes;
+
+    /**
+     * Index of the pane receiving the sales
+     */
+    private int current;
+
+    /**
+     * Position the window was added at, in messages or milliseconds, no window starts before it
+     */
+    private final long origin;
+
+    /**
+     * End of the current pane, in messages or milliseconds
+     */
+    private long paneEnd;
+
+    private int[] numberOfSales;
+    private double[] totalValues;
+
+    /**
+     * Ids of the products possibly having sales within the window, each listed once
+     */
+    private int[] windowProducts;
+    private int numberOfWindowProducts;
+    private boolean[] listed;
+
+    /**
+     * Constructor.
+     *
+     * @param window   definition of the window
+     * @param logger   logger of the window reports
+     * @param products registry resolving product names
+     * @param received number of messages received so far
+     */
+    WindowAggregator(Window window, WindowLogger logger, ProductRegistry products, long received) {
+        this.window = window;
+        this.logger = logger;
+        this.products = products;
+        panes = new ProductSales[window.getPanes()];
+        for (int i = 0; i < panes.length; i++)
+            panes[i] = new ProductSales();
+        origin = window.getUnit() == Window.Unit.MESSAGES ? received : window.getClock().millis();
+        paneEnd = (origin / window.getSlide() + 1) * window.getSlide();
+        numberOfSales = new int[16];
+        totalValues = new double[16];
+        windowProducts = new int[16];
+        listed = new boolean[16];
+    }
+
+    /**
+     * Close the panes ended before the current time, before a message of that time is added.
+     * After a gap longer than the window, only the windows holding sales are reported.
+     *
+     * @return true if a window was reported
+     */
+    boolean advanceTime() {
+        if (window.getUnit() != Window.Unit.MILLISECONDS)
+            return false;
+        long now = window.getClock().millis();
+        if (now < paneEnd)
+            return false;
+        for (int closed = 0; closed < panes.length && now >= paneEnd; closed++)
+            closePane();
+        if (now >= paneEnd)
+            paneEnd = (now / window.getSlide() + 1) * window.getSlide();
+        return true;
+    }
+
+    /**
+     * Close the current pane if the received message ended it.
+     *
+     * @param received number of messages received so far
+     * @return true if a window was reported
+     */
+    boolean advanceMessages(long received) {
+        if (window.getUnit() != Window.Unit.MESSAGES || received < paneEnd)
+            return false;
+        closePane();
+        return true;
+    }
+
+    /**
+     * Gets the number of messages until the current pane closes.
+     *
+     * @param received number of messages received so far
+     * @return number of messages, Long.MAX_VALUE for time windows
+     */
+    long messagesUntilPaneEnd(long received) {
+        return window.getUnit() == Window.Unit.MESSAGES ? paneEnd - received : Long.MAX_VALUE;
+    }
+
+    /**
+     * Add a sale to the current pane.
+     *
+     * @param productId     id of the product
+     * @param numberOfSales number of sales of the message
+     * @param totalValue    total value of the message
+     */
+    void add(int productId, int numberOfSales, double totalValue) {
+        if (productId >= this.numberOfSales.length) {
+            int length = Math.max(productId + 1, this.numberOfSales.length * 2);
+            this.numberOfSales = Arrays.copyOf(this.numberOfSales, length);
+            totalValues = Arrays.copyOf(totalValues, length);
+            listed = Arrays.copyOf(listed, length);
+        }
+        if (!listed[productId]) {
+            if (numberOfWindowProducts == windowProducts.length)
+                windowProducts = Arrays.copyOf(windowProducts, windowProducts.length * 2);
+            windowProducts[numberOfWindowProducts++] = productId;
+            listed[productId] = true;
+        }
+        this.numberOfSales[productId] += numberOfSales;
+        totalValues[productId] += totalValue;
+        panes[current].add(productId, numberOfSales, totalValue);
+    }
+
+    /**
+     * Adjust the sales of the product within the window.
+     *
+     * @param productId id of the product
+     * @param transform transform of the adjustment
+     */
+    void adjust(int productId, PriceTransform transform) {
+        if (productId >= numberOfSales.length || numberOfSales[productId] == 0)
+            return;
+        totalValues[productId] = transform.applyToTotal(totalValues[productId], numberOfSales[productId]);
+        for (ProductSales pane : panes)
+            pane.adjust(productId, transform);
+    }
+
+    /**
+     * Report the window ending with the current pane, then slide the window by a pane.
+     */
+    private void closePane() {
+        logReport();
+        paneEnd += window.getSlide();
+        current = current + 1 == panes.length ? 0 : current + 1;
+        ProductSales oldest = panes[current];
+        for (int i = 0; i < oldest.size(); i++) {
+            int productId = oldest.getProductId(i);
+            numberOfSales[productId] -= oldest.getNumberOfSales(i);
+            // the totals of the remaining panes, exactly 0 once no sale is left
+            totalValues[productId] = numberOfSales[productId] == 0 ? 0 : totalValues[productId] - oldest.getTotalValue(i);
+        }
+        oldest.clear();
+    }
+
+    private void logReport() {
+        Map<String, Integer> reportedSales = new HashMap<>();
+        Map<String, Double> reportedValues = new HashMap<>();
+        int remaining = 0;
+        for (int i = 0; i < numberOfWindowProducts; i++) {
+            int productId = windowProducts[i];
+            if (numberOfSales[productId] == 0) {
+                listed[productId] = false;
+                continue;
+            }
+            windowProducts[remaining++] = productId;
+            String pName = products.name(productId);
+            reportedSales.put(pName, numberOfSales[productId]);
+            reportedValues.put(pName, totalValues[productId]);
+        }
+        numberOfWindowProducts = remaining;
+        logger.logWindowReport(window, Math.max(origin, paneEnd - window.getSize()), paneEnd,
+                reportedSales, reportedValues);
+    }
+}
@@ -0,0 +1,21 @@
+package wookabe.msgprocess.impl;
+
+import java.util.Map;
+
+/**
+ * Logger of the reports of windows of sales as well.
+ */
+public interface WindowLogger extends Logger {
+    /**
+     * Log the sales of a window, adjusted by the adjustments received until the end of the window.
+     *
+     * @param window        definition of the window
+     * @param start         start of the window, inclusive, in number of messages or milliseconds,
+     *                      not before the window was added
+     * @param end           end of the window, exclusive, in number of messages or milliseconds
+     * @param numberOfSales number of sales per product within the window
+     * @param totalValues   total value per product within the window
+     */
+    void logWindowReport(Window window, long start, long end,
+                         Map<String, Integer> numberOfSales, Map<String, Double> totalValues);
+}
@@ -3,6 +3,8 @@ package wookabe.msgprocess.subscription;
 import static wookabe.msgprocess.subscription.Adjustment.Type.ADD;
 import static wookabe.msgprocess.subscription.Adjustment.Type.SUBTRACT;
 
+import java.util.Objects;
+
 /**
  * Representation of adjustment done to Messages.
  */
@@ -28,6 +30,52 @@ public class Adjustment {
 
     }
 
+    /**
+     * Compose adjustment with the given transform, matching {@link #apply(double)}.
+     *
+     * @param transform transform applied to the price before this adjustment
+     * @return transform equal to applying the given transform and then this adjustment
+     */
+    public PriceTransform compose(PriceTransform transform) {
+        return transform.andThen(toTransform());
+    }
+
+    /**
+     * Adjustment as an affine price transform.
+     *
+     * @return transform equal to this adjustment
+     */
+    public PriceTransform toTransform() {
+        return type == ADD ? new PriceTransform(1, value)
+                : type == SUBTRACT ? new PriceTransform(1, -value)
+                : new PriceTransform(value, 0);
+    }
+
+    //
+    // Properties
+    //
+
+    public Type getType() {
+        return type;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Adjustment that = (Adjustment) o;
+        return Double.compare(that.value, value) == 0 && type == that.type;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, value);
+    }
+
     @Override
     public String toString() {
         return "Adjustment{" +
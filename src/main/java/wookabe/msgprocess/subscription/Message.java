@@ -1,5 +1,7 @@
 package wookabe.msgprocess.subscription;
 
+import java.util.Objects;
+
 /**
  * Representation of a message.
  */
@@ -59,6 +61,10 @@ public class Message {
         return productName;
     }
 
+    public double getPrice() {
+        return price;
+    }
+
     public double getTotalValue() {
         return numberOfSales * price;
     }
@@ -70,4 +76,20 @@ public class Message {
     public Adjustment getAdjustment() {
         return adjustment;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Message message = (Message) o;
+        return Double.compare(message.price, price) == 0 &&
+                numberOfSales == message.numberOfSales &&
+                Objects.equals(productName, message.productName) &&
+                Objects.equals(adjustment, message.adjustment);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(productName, price, numberOfSales, adjustment);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+package wookabe.msgprocess.subscription;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Versioned binary encoding of messages.
+ * A record of version 1 is laid out as
+ * [byte version][byte type][double price][int numberOfSales][short nameLength][UTF-8 product name],
+ * where the type is 0 for a sale and 1 + the ordinal of the adjustment type for an adjustment,
+ * and the price of an adjustment is its value. Numbers are in the byte order of the buffer.
+ */
+public final class MessageCodec {
+    /**
+     * Version of the encoding written by the codec
+     */
+    public static final byte VERSION = 1;
+
+    /**
+     * Size of a record without the product name
+     */
+    public static final int HEADER_SIZE = 16;
+
+    /**
+     * Longest encoded product name
+     */
+    public static final int MAX_NAME_LENGTH = Short.MAX_VALUE;
+
+    static final int TYPE_OFFSET = 1;
+    static final int PRICE_OFFSET = 2;
+    static final int NUMBER_OF_SALES_OFFSET = 10;
+    static final int NAME_LENGTH_OFFSET = 14;
+    static final byte SALE = 0;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Gets the size of the encoded message.
+     *
+     * @param msg message to encode
+     * @return size in bytes
+     */
+    public static int encodedLength(Message msg) {
+        return HEADER_SIZE + utf8Length(msg.getProductName());
+    }
+
+    /**
+     * Encode the message at the position of the buffer, advancing the position past the record.
+     * Nothing is written if the record does not fit.
+     *
+     * @param msg    message to encode
+     * @param buffer buffer to write to
+     * @return size of the record in bytes
+     * @throws BufferOverflowException  thrown if the buffer has not enough room for the record
+     * @throws IllegalArgumentException thrown if the product name is too long
+     */
+    public static int encode(Message msg, ByteBuffer buffer) {
+        String productName = msg.getProductName();
+        int nameLength = utf8Length(productName);
+        if (nameLength > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Product name too long to be encoded");
+        if (buffer.remaining() < HEADER_SIZE + nameLength)
+            throw new BufferOverflowException();
+
+        Adjustment adjustment = msg.getAdjustment();
+        buffer.put(VERSION);
+        buffer.put(adjustment == null ? SALE : (byte) (adjustment.getType().ordinal() + 1));
+        buffer.putDouble(adjustment == null ? msg.getPrice() : adjustment.getValue());
+        buffer.putInt(msg.getNumberOfSales());
+        buffer.putShort((short) nameLength);
+        if (nameLength == productName.length()) {
+            for (int i = 0; i < nameLength; i++)
+                buffer.put((byte) productName.charAt(i));
+        } else {
+            buffer.put(productName.getBytes(StandardCharsets.UTF_8));
+        }
+        return HEADER_SIZE + nameLength;
+    }
+
+    /**
+     * Encode a message from its fields at the position of the buffer, advancing the position past the record.
+     * Nothing is written if the record does not fit.
+     *
+     * @param buffer         buffer to write to
+     * @param adjustmentType type of the adjustment, null for a sale
+     * @param price          unit price of a sale or value of an adjustment
+     * @param numberOfSales  number of sales
+     * @param name           buffer holding the UTF-8 encoded product name
+     * @param nameOffset     index of the first byte of the name
+     * @param nameLength     length of the name in bytes
+     * @return size of the record in bytes
+     * @throws BufferOverflowException  thrown if the buffer has not enough room for the record
+     * @throws IllegalArgumentException thrown if the product name is too long
+     */
+    public static int encode(ByteBuffer buffer, Adjustment.Type adjustmentType, double price, int numberOfSales,
+                             ByteBuffer name, int nameOffset, int nameLength) {
+        if (nameLength > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Product name too long to be encoded");
+        if (buffer.remaining() < HEADER_SIZE + nameLength)
+            throw new BufferOverflowException();
+
+        buffer.put(VERSION);
+        buffer.put(adjustmentType == null ? SALE : (byte) (adjustmentType.ordinal() + 1));
+        buffer.putDouble(price);
+        buffer.putInt(numberOfSales);
+        buffer.putShort((short) nameLength);
+        for (int i = 0; i < nameLength; i++)
+            buffer.put(name.get(nameOffset + i));
+        return HEADER_SIZE + nameLength;
+    }
+
+    /**
+     * Decode the message at the position of the buffer, advancing the position past the record.
+     *
+     * @param buffer buffer to read from
+     * @return decoded message
+     * @throws IllegalArgumentException thrown if the record is truncated or of an unknown version
+     */
+    public static Message decode(ByteBuffer buffer) {
+        MessageView view = new MessageView().wrap(buffer, buffer.position());
+        buffer.position(buffer.position() + view.getEncodedLength());
+        return view.toMessage();
+    }
+
+    /**
+     * Gets the length of the UTF-8 encoding of a string without encoding it.
+     *
+     * @param s string to measure
+     * @return length in bytes
+     */
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,125 @@
+package wookabe.msgprocess.subscription;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight reading an encoded message in place, see {@link MessageCodec} for the layout.
+ * The view is moved over records with {@link #wrap(ByteBuffer, int)} and reads the fields
+ * straight from the buffer, so reading a record allocates nothing unless the product name is asked for.
+ */
+public class MessageView {
+    private static final Adjustment.Type[] ADJUSTMENT_TYPES = Adjustment.Type.values();
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * Point the view at a record.
+     *
+     * @param buffer buffer holding the record
+     * @param offset index of the first byte of the record
+     * @return this view
+     * @throws IllegalArgumentException thrown if the record is truncated, of an unknown version or type
+     */
+    public MessageView wrap(ByteBuffer buffer, int offset) {
+        if (buffer.limit() - offset < MessageCodec.HEADER_SIZE)
+            throw new IllegalArgumentException("Truncated message at " + offset);
+        byte version = buffer.get(offset);
+        if (version != MessageCodec.VERSION)
+            throw new IllegalArgumentException("Unsupported message version " + version);
+        byte type = buffer.get(offset + MessageCodec.TYPE_OFFSET);
+        if (type < 0 || type > ADJUSTMENT_TYPES.length)
+            throw new IllegalArgumentException("Unknown message type " + type);
+        this.buffer = buffer;
+        this.offset = offset;
+        if (getProductNameLength() < 0 || buffer.limit() - offset < getEncodedLength())
+            throw new IllegalArgumentException("Truncated message at " + offset);
+        return this;
+    }
+
+    /**
+     * Build the message the view points at.
+     *
+     * @return decoded message
+     */
+    public Message toMessage() {
+        Adjustment.Type type = getAdjustmentType();
+        return type == null ? new Message(getProductName(), getPrice(), getNumberOfSales())
+                : new Message(getProductName(), getPrice(), type);
+    }
+
+    //
+    // Properties
+    //
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Gets the size of the record.
+     *
+     * @return size in bytes
+     */
+    public int getEncodedLength() {
+        return MessageCodec.HEADER_SIZE + getProductNameLength();
+    }
+
+    /**
+     * Gets the type of the adjustment.
+     *
+     * @return type of the adjustment, null if the message is a sale
+     */
+    public Adjustment.Type getAdjustmentType() {
+        byte type = buffer.get(offset + MessageCodec.TYPE_OFFSET);
+        return type == MessageCodec.SALE ? null : ADJUSTMENT_TYPES[type - 1];
+    }
+
+    /**
+     * Gets the unit price of a sale or the value of an adjustment.
+     *
+     * @return price
+     */
+    public double getPrice() {
+        return buffer.getDouble(offset + MessageCodec.PRICE_OFFSET);
+    }
+
+    public int getNumberOfSales() {
+        return buffer.getInt(offset + MessageCodec.NUMBER_OF_SALES_OFFSET);
+    }
+
+    /**
+     * Gets the length of the UTF-8 encoded product name.
+     *
+     * @return length in bytes
+     */
+    public int getProductNameLength() {
+        return buffer.getShort(offset + MessageCodec.NAME_LENGTH_OFFSET);
+    }
+
+    /**
+     * Gets the index of the first byte of the UTF-8 encoded product name in the buffer.
+     *
+     * @return index in the buffer
+     */
+    public int getProductNameOffset() {
+        return offset + MessageCodec.HEADER_SIZE;
+    }
+
+    /**
+     * Decode the product name.
+     *
+     * @return name of the product
+     */
+    public String getProductName() {
+        byte[] name = new byte[getProductNameLength()];
+        for (int i = 0; i < name.length; i++)
+            name[i] = buffer.get(getProductNameOffset() + i);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
@@ -13,4 +13,14 @@ public class NotAcceptingNewMessages extends Exception {
     public NotAcceptingNewMessages(int limit) {
         super("Not accepting new messages, limit of " + limit + " reached");
     }
+
+    /**
+     * Constructor of an exception which can be thrown repeatedly without allocation, as it has no stack trace.
+     *
+     * @param limit              limit of messages reached
+     * @param writableStackTrace whether the stack trace is filled in
+     */
+    public NotAcceptingNewMessages(int limit, boolean writableStackTrace) {
+        super("Not accepting new messages, limit of " + limit + " reached", null, false, writableStackTrace);
+    }
 }
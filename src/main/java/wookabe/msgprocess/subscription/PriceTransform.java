@@ -0,0 +1,72 @@
+package wookabe.msgprocess.subscription;
+
+/**
+ * Affine transformation of a price (scale * price + offset).
+ * Any sequence of adjustments composes into a single transform.
+ */
+public final class PriceTransform {
+    /**
+     * Transform leaving the price unchanged
+     */
+    public static final PriceTransform IDENTITY = new PriceTransform(1, 0);
+
+    private final double scale;
+    private final double offset;
+
+    public PriceTransform(double scale, double offset) {
+        this.scale = scale;
+        this.offset = offset;
+    }
+
+    /**
+     * Apply transform to the given price.
+     *
+     * @param price price to transform
+     * @return transformed price
+     */
+    public double apply(double price) {
+        return scale * price + offset;
+    }
+
+    /**
+     * Apply transform to the sum of totals of several sales.
+     * Equals the sum of totals of the sales with transformed prices.
+     *
+     * @param totalValue    sum of total values (sales * price)
+     * @param numberOfSales sum of number of sales
+     * @return total value after transforming the price of every sale
+     */
+    public double applyToTotal(double totalValue, long numberOfSales) {
+        return scale * totalValue + offset * numberOfSales;
+    }
+
+    /**
+     * Compose with a transform applied after this one.
+     *
+     * @param next transform to apply after this one
+     * @return single transform equal to applying this and then next
+     */
+    public PriceTransform andThen(PriceTransform next) {
+        return new PriceTransform(next.scale * scale, next.scale * offset + next.offset);
+    }
+
+    //
+    // Properties
+    //
+
+    public double getScale() {
+        return scale;
+    }
+
+    public double getOffset() {
+        return offset;
+    }
+
+    @Override
+    public String toString() {
+        return "PriceTransform{" +
+                "scale=" + scale +
+                ", offset=" + offset +
+                '}';
+    }
+}
@@ -1,5 +1,10 @@
 package wookabe.msgprocess.subscription;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * Interface for receiving messages.
  * To be used by external message providers.
@@ -12,4 +17,69 @@ public interface Receivable {
      * @throws NotAcceptingNewMessages thrown if no new message is accepted
      */
     void receive(Message msg) throws NotAcceptingNewMessages;
-}
+
+    /**
+     * Reception of a message without failing when no new message is accepted.
+     *
+     * @param msg message to process
+     * @return true if the message was accepted, false if rejected
+     */
+    default boolean offer(Message msg) {
+        try {
+            receive(msg);
+            return true;
+        } catch (NotAcceptingNewMessages e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reception of a batch of messages, processed as if received one by one in the given order.
+     *
+     * @param msgs messages to process
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted, messages before the rejected one
+     *                                 are processed
+     */
+    default void receiveAll(Message[] msgs) throws NotAcceptingNewMessages {
+        receiveAll(Arrays.asList(msgs));
+    }
+
+    /**
+     * Reception of a batch of messages, processed as if received one by one in the given order.
+     *
+     * @param msgs messages to process
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted, messages before the rejected one
+     *                                 are processed
+     */
+    default void receiveAll(List<Message> msgs) throws NotAcceptingNewMessages {
+        receiveAll(msgs.iterator());
+    }
+
+    /**
+     * Reception of a batch of messages, processed as if received one by one in the given order.
+     *
+     * @param msgs messages to process
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted, messages before the rejected one
+     *                                 are processed
+     */
+    default void receiveAll(Iterator<Message> msgs) throws NotAcceptingNewMessages {
+        while (msgs.hasNext())
+            receive(msgs.next());
+    }
+
+    /**
+     * Reception of a batch of messages encoded by {@link MessageCodec}, from the position to the limit of the buffer,
+     * processed as if received one by one in the given order.
+     *
+     * @param buffer buffer of encoded messages, its position is left after the last processed message
+     * @throws NotAcceptingNewMessages thrown if no new message is accepted, messages before the rejected one
+     *                                 are processed
+     */
+    default void receiveAll(ByteBuffer buffer) throws NotAcceptingNewMessages {
+        MessageView view = new MessageView();
+        while (buffer.hasRemaining()) {
+            receive(view.wrap(buffer, buffer.position()).toMessage());
+            buffer.position(buffer.position() + view.getEncodedLength());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,165 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.After;
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of AsyncLogger.
+ */
+public class AsyncLoggerTest {
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final BlockingLogger delegate = new BlockingLogger();
+    private AsyncLogger logger;
+
+    @After
+    public void tearDown() {
+        released.countDown();
+        logger.close();
+    }
+
+    @Test
+    public void whenSubscriberReports_thenLoggedOnReporterThread() throws Exception {
+        released.countDown();
+        logger = new AsyncLogger(delegate, 4, AsyncLogger.OverflowPolicy.BLOCK);
+        Subscriber s = new Subscriber(logger);
+        for (int i = 0; i < 50; i++)
+            s.receive(new Message("apple", 1));
+        logger.flush();
+
+        assertEquals(5, countSalesReports());
+        assertEquals("pause", delegate.reports.get(5));
+        assertEquals("adjustments", delegate.reports.get(6));
+        assertNotSame(Thread.currentThread(), delegate.thread);
+    }
+
+    @Test
+    public void whenFullAndDropping_thenNewReportsDropped() throws Exception {
+        logger = new AsyncLogger(delegate, 2, AsyncLogger.OverflowPolicy.DROP);
+        logSalesReports(1);
+        blocked.await();
+        logSalesReports(4);
+        released.countDown();
+        logger.flush();
+
+        assertEquals(listOf("sales 0", "sales 1", "sales 2"), delegate.reports);
+        assertEquals(2, logger.getDroppedReports());
+    }
+
+    @Test
+    public void whenFullAndCoalescing_thenOnlyLatestSalesReportKept() throws Exception {
+        logger = new AsyncLogger(delegate, 2, AsyncLogger.OverflowPolicy.COALESCE);
+        logSalesReports(1);
+        blocked.await();
+        logger.logPause();
+        logSalesReports(3);
+        released.countDown();
+        logger.flush();
+
+        assertEquals(listOf("sales 0", "pause", "sales 3"), delegate.reports);
+        assertEquals(2, logger.getDroppedReports());
+    }
+
+    @Test
+    public void whenFullAndCoalescing_thenSalesReportNotMovedPastOtherReports() throws Exception {
+        logger = new AsyncLogger(delegate, 2, AsyncLogger.OverflowPolicy.COALESCE);
+        logSalesReports(1);
+        blocked.await();
+        logSalesReports(1);
+        logger.logPause();
+        Thread producer = new Thread(() -> logSalesReports(1));
+        producer.start();
+        producer.join(100);
+
+        assertTrue(producer.isAlive());
+        released.countDown();
+        producer.join();
+        logger.flush();
+
+        assertEquals(listOf("sales 0", "sales 1", "pause", "sales 2"), delegate.reports);
+        assertEquals(0, logger.getDroppedReports());
+    }
+
+    @Test
+    public void whenClosed_thenWaitingReportsLogged() throws Exception {
+        logger = new AsyncLogger(delegate, 8, AsyncLogger.OverflowPolicy.BLOCK);
+        logSalesReports(1);
+        blocked.await();
+        logSalesReports(5);
+        released.countDown();
+        logger.close();
+
+        assertEquals(6, countSalesReports());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void whenClosed_thenNoReportAccepted() {
+        released.countDown();
+        logger = new AsyncLogger(delegate, 8, AsyncLogger.OverflowPolicy.BLOCK);
+        logger.close();
+        logger.logPause();
+    }
+
+    /**
+     * Log sales reports numbered by the number of sales of product 'apple'.
+     *
+     * @param n number of reports to log
+     */
+    private void logSalesReports(int n) {
+        int first = delegate.numbered;
+        for (int i = first; i < first + n; i++)
+            logger.logSalesReport(Collections.singletonMap("apple", i), Collections.singletonMap("apple", .0));
+        delegate.numbered += n;
+    }
+
+    private long countSalesReports() {
+        return delegate.reports.stream().filter(r -> r.startsWith("sales")).count();
+    }
+
+    private static List<String> listOf(String... reports) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, reports);
+        return list;
+    }
+
+    /**
+     * Logger recording the reports, blocking the first report until released.
+     */
+    private class BlockingLogger implements Logger {
+        final List<String> reports = Collections.synchronizedList(new ArrayList<>());
+        volatile Thread thread;
+        int numbered;
+
+        public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+            thread = Thread.currentThread();
+            blocked.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            reports.add("sales " + numberOfSales.getOrDefault("apple", 0));
+            assertTrue(totalValues.size() <= 1);
+        }
+
+        public void logPause() {
+            reports.add("pause");
+        }
+
+        public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+            reports.add("adjustments");
+        }
+    }
+}
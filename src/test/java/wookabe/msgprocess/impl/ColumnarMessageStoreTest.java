@@ -0,0 +1,133 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wookabe.msgprocess.subscription.Adjustment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static wookabe.msgprocess.Helper.assertTotalValue;
+
+/**
+ * Tests of ColumnarMessageStore.
+ */
+public class ColumnarMessageStoreTest {
+    private ColumnarMessageStore store;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        store = new ColumnarMessageStore();
+    }
+
+    @Test
+    public void whenCreated_thenEmpty() {
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void whenManyAdded_thenAllReadBackAcrossChunks() {
+        addMessages(10000);
+
+        assertEquals(10000, store.size());
+        assertMessages(0, 10000);
+    }
+
+    @Test
+    public void whenRetentionLimited_thenOldestChunksDropped() {
+        store = new ColumnarMessageStore(Retention.messages(5000));
+        addMessages(20000);
+
+        assertEquals(20000, store.size());
+        assertTrue(store.getRetained() >= 5000);
+        assertTrue(store.getRetained() < 5000 + 2 * 4096);
+        assertEquals(20000 - store.getRetained(), store.getFirst());
+        assertMessages(store.getFirst(), 20000);
+    }
+
+    @Test
+    public void whenRetentionBelowChunk_thenRoundedUpToChunk() {
+        store = new ColumnarMessageStore(Retention.messages(10));
+        addMessages(20000);
+
+        assertTrue(store.getRetained() >= 10);
+        assertTrue(store.getRetained() <= 2 * 4096);
+        assertMessages(store.getFirst(), 20000);
+    }
+
+    @Test
+    public void whenRetentionBytesBelowMessage_thenRejected() {
+        try {
+            Retention.bytes(Retention.MESSAGE_BYTES - 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("at least " + Retention.MESSAGE_BYTES + " bytes"));
+        }
+        assertEquals(1, Retention.bytes(Retention.MESSAGE_BYTES).getMaxMessages());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void whenDropped_thenNotReadable() {
+        store = new ColumnarMessageStore(Retention.bytes(100 * Retention.MESSAGE_BYTES));
+        addMessages(10000);
+
+        store.getPrice(store.getFirst() - 1);
+    }
+
+    @Test
+    public void whenSpilled_thenAllReadBack() {
+        store = new ColumnarMessageStore(Retention.messages(5000).spillTo(folder.getRoot().toPath()));
+        addMessages(20000);
+
+        assertEquals(0, store.getFirst());
+        assertTrue(store.getRetained() < 5000 + 2 * 4096);
+        assertMessages(0, 20000);
+    }
+
+    @Test
+    public void whenClosed_thenSpillFileDeleted() throws Exception {
+        store = new ColumnarMessageStore(Retention.messages(5000).spillTo(folder.getRoot().toPath()));
+        addMessages(20000);
+        assertEquals(1, folder.getRoot().list().length);
+
+        store.close();
+
+        assertEquals(0, folder.getRoot().list().length);
+        assertMessages(store.getFirst(), 20000);
+    }
+
+    private void addMessages(int n) {
+        int apple = 0;
+        int watch = 1;
+        for (int i = 0; i < n; i++) {
+            if (i % 7 == 0)
+                store.add(watch, i, 1, Adjustment.Type.MULTIPLY, 0);
+            else
+                store.add(apple, i * .5, i, null, i / 7);
+        }
+    }
+
+    private void assertMessages(long from, int to) {
+        int apple = 0;
+        int watch = 1;
+        for (int i = (int) from; i < to; i++) {
+            if (i % 7 == 0) {
+                assertEquals(watch, store.getProductId(i));
+                assertEquals(Adjustment.Type.MULTIPLY, store.getAdjustmentType(i));
+                assertTotalValue(i, store.getPrice(i));
+            } else {
+                assertEquals(apple, store.getProductId(i));
+                assertNull(store.getAdjustmentType(i));
+                assertTotalValue(i * .5, store.getPrice(i));
+                assertEquals(i, store.getNumberOfSales(i));
+                assertEquals(i / 7, store.getEpoch(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static wookabe.msgprocess.Helper.assertTotalValue;
+
+/**
+ * Tests of ConcurrentSubscriber.
+ */
+public class ConcurrentSubscriberTest {
+    private static final int THREADS = 8;
+    private static final int MESSAGES_PER_THREAD = 20000;
+    private static final int SHARED_PRODUCTS = 5;
+
+    @Test(expected = NotAcceptingNewMessages.class)
+    public void when50received_thenStopProcessing() throws Exception {
+        ConcurrentSubscriber s = new ConcurrentSubscriber(new RecordingLogger());
+        for (int i = 0; i < 51; i++)
+            s.receive(new Message("generic", 1));
+    }
+
+    @Test
+    public void whenResumed_thenAcceptsUntilNextPause() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        ConcurrentSubscriber s = new ConcurrentSubscriber(logger, new Limits(10, 50, 25));
+        for (int i = 0; i < 25; i++)
+            s.receive(new Message("generic", 1));
+        assertFalse(s.offer(new Message("generic", 1)));
+
+        s.resume();
+        for (int i = 0; i < 25; i++)
+            s.receive(new Message("generic", 1));
+
+        assertFalse(s.isAccepting());
+        assertEquals(5, logger.numberOfSales.size());
+        assertEquals(50, (int) logger.numberOfSales.get(4).get("generic"));
+        assertEquals(1, logger.adjustments.size());
+    }
+
+    @Test
+    public void whenHammeredFromManyThreads_thenAggregatesAndReportsExact() throws Exception {
+        int total = THREADS * MESSAGES_PER_THREAD;
+        RecordingLogger logger = new RecordingLogger();
+        ConcurrentSubscriber s = new ConcurrentSubscriber(logger, new Limits(1000, total));
+
+        List<Map<String, Integer>> expectedNumberOfSales = new ArrayList<>();
+        List<Map<String, Double>> expectedTotalValues = new ArrayList<>();
+        List<List<Message>> sent = new ArrayList<>();
+        long[][] sequences = new long[THREADS][MESSAGES_PER_THREAD];
+        List<Thread> producers = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < THREADS; t++) {
+            Map<String, Integer> numberOfSales = new HashMap<>();
+            Map<String, Double> totalValues = new HashMap<>();
+            expectedNumberOfSales.add(numberOfSales);
+            expectedTotalValues.add(totalValues);
+            List<Message> messages = generateMessages(t, numberOfSales, totalValues);
+            sent.add(messages);
+            long[] sequence = sequences[t];
+            producers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < messages.size(); i++) {
+                        sequence[i] = s.offerInSequence(messages.get(i));
+                        assertTrue(sequence[i] > 0);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        start.countDown();
+        for (Thread producer : producers)
+            producer.join();
+
+        assertNull(failure.get());
+        assertEquals(total / 1000, logger.numberOfSales.size());
+        assertEquals(1, logger.adjustments.size());
+        assertEquals(1, logger.pauses);
+        for (int i = 1; i < logger.numberOfSales.size(); i++)
+            assertTrue(sum(logger.numberOfSales.get(i)) >= sum(logger.numberOfSales.get(i - 1)));
+        // every report includes all the sales sent before its trigger count, whatever else was applied since
+        for (int i = 0; i < logger.numberOfSales.size(); i++) {
+            long count = (i + 1) * 1000L;
+            Map<String, Integer> salesUpToCount = new HashMap<>();
+            for (int t = 0; t < THREADS; t++) {
+                for (int m = 0; m < MESSAGES_PER_THREAD; m++) {
+                    Message msg = sent.get(t).get(m);
+                    if (sequences[t][m] <= count && msg.getAdjustment() == null)
+                        salesUpToCount.merge(msg.getProductName(), msg.getNumberOfSales(), Integer::sum);
+                }
+            }
+            Map<String, Integer> reported = logger.numberOfSales.get(i);
+            salesUpToCount.forEach((p, n) -> assertTrue("Report at " + count + " misses sales of " + p,
+                    reported.getOrDefault(p, 0) >= n));
+        }
+
+        Map<String, Integer> numberOfSales = logger.numberOfSales.get(logger.numberOfSales.size() - 1);
+        Map<String, Double> totalValues = logger.totalValues.get(logger.totalValues.size() - 1);
+        Map<String, Integer> expectedMergedSales = new HashMap<>();
+        Map<String, Double> expectedMergedTotals = new HashMap<>();
+        for (int t = 0; t < THREADS; t++) {
+            expectedNumberOfSales.get(t).forEach((p, n) -> expectedMergedSales.merge(p, n, Integer::sum));
+            expectedTotalValues.get(t).forEach((p, v) -> expectedMergedTotals.merge(p, v, Double::sum));
+        }
+        assertEquals(expectedMergedSales, numberOfSales);
+        assertEquals(expectedMergedTotals.keySet(), totalValues.keySet());
+        expectedMergedTotals.forEach((p, v) -> assertTotalValue(v, totalValues.get(p)));
+        for (int t = 0; t < THREADS; t++)
+            assertEquals(Collections.singletonList(new Adjustment(Adjustment.Type.ADD, 1)),
+                    logger.adjustments.get(0).get("own" + t));
+    }
+
+    /**
+     * Generate messages of a producer and the aggregates they are expected to result in.
+     * Shared products only get sales, so their totals do not depend on the interleaving of producers.
+     * Adjustments are only sent for products owned by the producer.
+     *
+     * @param producer      index of the producer
+     * @param numberOfSales expected number of sales per product
+     * @param totalValues   expected total values per product
+     * @return messages to send
+     */
+    private List<Message> generateMessages(int producer, Map<String, Integer> numberOfSales,
+                                           Map<String, Double> totalValues) {
+        Random random = new Random(producer);
+        List<Message> messages = new ArrayList<>();
+        String own = "own" + producer;
+        for (int i = 0; i < MESSAGES_PER_THREAD - 1; i++) {
+            String pName = i % 2 == 0 ? own : "shared" + random.nextInt(SHARED_PRODUCTS);
+            int sales = random.nextInt(10) + 1;
+            double price = random.nextInt(100) + 1;
+            messages.add(new Message(pName, price, sales));
+            numberOfSales.merge(pName, sales, Integer::sum);
+            totalValues.merge(pName, sales * price, Double::sum);
+        }
+        messages.add(new Message(own, 1, Adjustment.Type.ADD));
+        totalValues.put(own, totalValues.get(own) + numberOfSales.get(own));
+        return messages;
+    }
+
+    /**
+     * Sum the number of sales of all products of a sales report.
+     *
+     * @param numberOfSales number of sales per product
+     * @return total number of sales
+     */
+    private static int sum(Map<String, Integer> numberOfSales) {
+        return numberOfSales.values().stream().mapToInt(Integer::intValue).sum();
+    }
+}
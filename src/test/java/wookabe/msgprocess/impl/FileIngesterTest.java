@@ -0,0 +1,119 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+import wookabe.msgprocess.subscription.Receivable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of FileIngester.
+ */
+public class FileIngesterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void whenIngested_thenReceivedInOrderOfFile() throws Exception {
+        List<Message> expected = new ArrayList<>();
+        StringBuilder text = new StringBuilder("# product,price[,numberOfSales|adjustment]\n");
+        Random random = new Random(14);
+        for (int i = 0; i < 5000; i++) {
+            String pName = "product" + random.nextInt(20);
+            double price = random.nextInt(100000) / 100.0;
+            if (i % 13 == 0) {
+                Adjustment.Type type = Adjustment.Type.values()[random.nextInt(3)];
+                expected.add(new Message(pName, price, type));
+                text.append(pName).append(',').append(price).append(',').append(type).append('\n');
+            } else if (i % 3 == 0) {
+                expected.add(new Message(pName, price));
+                text.append(pName).append(',').append(price).append("\r\n");
+            } else {
+                int numberOfSales = random.nextInt(10) + 1;
+                expected.add(new Message(pName, price, numberOfSales));
+                text.append(pName).append(',').append(price).append(',').append(numberOfSales).append('\n');
+            }
+        }
+        expected.add(new Message("\u010daj", 1e3));
+        text.append("\n\u010daj,1e3");
+        RecordingReceiver receiver = new RecordingReceiver();
+
+        IngestionStatistics statistics = new FileIngester(3, 256).ingest(write(text.toString()), receiver);
+
+        assertEquals(expected, receiver.messages);
+        assertEquals(expected.size(), statistics.getMessages());
+        assertEquals(text.toString().getBytes(StandardCharsets.UTF_8).length, statistics.getBytes());
+    }
+
+    @Test
+    public void whenIngestedBySubscriber_thenSameMessagesAsReceived() throws Exception {
+        Path file = write("apple,10,2\nwatch,20\napple,2,MULTIPLY\noil,0.5,10\napple,3\nwatch,5,ADD\n");
+        Subscriber ingesting = new Subscriber(new ConsoleLogger(), new Limits(100, 100));
+        Subscriber receiving = new Subscriber(new ConsoleLogger(), new Limits(100, 100));
+
+        new FileIngester(2, 8).ingest(file, ingesting);
+        receiving.receive(new Message("apple", 10, 2));
+        receiving.receive(new Message("watch", 20));
+        receiving.receive(new Message("apple", 2, Adjustment.Type.MULTIPLY));
+        receiving.receive(new Message("oil", 0.5, 10));
+        receiving.receive(new Message("apple", 3));
+        receiving.receive(new Message("watch", 5, Adjustment.Type.ADD));
+
+        assertEquals(receiving.getMessages(), ingesting.getMessages());
+    }
+
+    @Test
+    public void whenLineInvalid_thenRejected() throws Exception {
+        try {
+            new FileIngester(2, 16).ingest(write("apple,10\nwatch,ten\n"), new RecordingReceiver());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid message in line starting at byte 9", e.getMessage());
+        }
+    }
+
+    @Test
+    public void whenLastFieldEmptyAtEndOfFile_thenRejected() throws Exception {
+        try {
+            new FileIngester(2, 16).ingest(write("apple,10\nwatch,1,"), new RecordingReceiver());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Invalid message in line starting at byte 9", e.getMessage());
+        }
+    }
+
+    @Test(expected = NotAcceptingNewMessages.class)
+    public void whenReceiverPauses_thenIngestionStops() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            text.append("apple,1\n");
+        new FileIngester(2, 64).ingest(write(text.toString()), new Subscriber(new ConsoleLogger(), new Limits(100, 100, 60)));
+    }
+
+    private Path write(String text) throws Exception {
+        Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static class RecordingReceiver implements Receivable {
+        private final List<Message> messages = new ArrayList<>();
+
+        @Override
+        public void receive(Message msg) {
+            messages.add(msg);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of fixed-point money and of subscribers aggregating it.
+ */
+public class FixedPointTest {
+    private static final Limits LIMITS = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+
+    @Test
+    public void whenConverted_thenDecimalValueRoundedHalfEven() {
+        FixedPoint cents = FixedPoint.CENTS;
+        assertEquals(10, cents.toScaled(0.1));
+        assertEquals(102, cents.toScaled(1.015));
+        assertEquals(100, cents.toScaled(1.005));
+        assertEquals(-102, cents.toScaled(-1.015));
+        assertEquals(100000000000000000L, FixedPoint.decimals(0).toScaled(1e17));
+        assertEquals(0.1, cents.toDouble(10), 0);
+        assertEquals(1234567890123456.78, cents.toDouble(123456789012345678L), 0);
+    }
+
+    @Test
+    public void whenOutOfRange_thenOverflowDetected() {
+        FixedPoint cents = FixedPoint.CENTS;
+        assertOverflow(() -> cents.toScaled(1e17));
+        assertOverflow(() -> cents.toScaled(Double.POSITIVE_INFINITY));
+        assertOverflow(() -> cents.toScaled(Double.NaN));
+        assertOverflow(() -> cents.total(Integer.MAX_VALUE, Long.MAX_VALUE / 1000));
+        assertOverflow(() -> cents.add(Long.MAX_VALUE, 1));
+        assertOverflow(() -> cents.multiply(Long.MAX_VALUE, 2.0));
+    }
+
+    @Test
+    public void whenManySales_thenTotalExact() throws NotAcceptingNewMessages {
+        RecordingLogger fixed = new RecordingLogger();
+        Subscriber fixedSubscriber = new Subscriber(fixed, new Limits(1_000_000, Integer.MAX_VALUE,
+                Limits.UNLIMITED));
+        fixedSubscriber.setFixedPoint(FixedPoint.CENTS);
+        RecordingLogger floating = new RecordingLogger();
+        Subscriber floatingSubscriber = new Subscriber(floating, new Limits(1_000_000, Integer.MAX_VALUE,
+                Limits.UNLIMITED));
+        for (int i = 0; i < 1_000_000; i++) {
+            fixedSubscriber.receive(new Message("apples", 0.1));
+            floatingSubscriber.receive(new Message("apples", 0.1));
+        }
+
+        assertEquals(100_000.0, fixed.totalValues.get(0).get("apples"), 0);
+        assertNotEquals(100_000.0, floating.totalValues.get(0).get("apples"), 0);
+    }
+
+    @Test
+    public void whenSalesReordered_thenSameTotalsBitForBit() throws NotAcceptingNewMessages {
+        Random random = new Random(11);
+        List<Message> sales = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++)
+            sales.add(new Message("product" + i % 5, random.nextInt(100_000) / 1000.0, 1 + random.nextInt(5)));
+        Message adjustment = new Message("product0", 1.07, Adjustment.Type.MULTIPLY);
+
+        List<Map<String, Double>> totals = new ArrayList<>();
+        for (int run = 0; run < 5; run++) {
+            Collections.shuffle(sales, random);
+            RecordingLogger logger = new RecordingLogger();
+            Subscriber s = new Subscriber(logger, new Limits(sales.size() * 2 + 1, Integer.MAX_VALUE,
+                    Limits.UNLIMITED));
+            s.setFixedPoint(FixedPoint.decimals(3));
+            sales.forEach(s::offer);
+            s.receive(adjustment);
+            sales.forEach(s::offer);
+            totals.add(logger.totalValues.get(0));
+        }
+
+        for (Map<String, Double> total : totals)
+            assertEquals(totals.get(0), total);
+    }
+
+    @Test
+    public void whenAdjusted_thenTotalAdjustedAtPrecision() throws NotAcceptingNewMessages {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(5, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setFixedPoint(FixedPoint.CENTS);
+        s.receive(new Message("apples", 0.35, 3));
+        s.receive(new Message("apples", 0.2, Adjustment.Type.ADD));
+        s.receive(new Message("apples", 0.1, Adjustment.Type.SUBTRACT));
+        s.receive(new Message("apples", 1.5, Adjustment.Type.MULTIPLY));
+        s.receive(new Message("pears", 0.01));
+
+        assertEquals(2.02, logger.totalValues.get(0).get("apples"), 0);
+        assertEquals(0.01, logger.totalValues.get(0).get("pears"), 0);
+    }
+
+    @Test
+    public void whenMultipliedBelowPrecision_thenMultiplierNotRounded() throws NotAcceptingNewMessages {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(4, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setFixedPoint(FixedPoint.CENTS);
+        s.receive(new Message("apples", 10, 10));
+        s.receive(new Message("apples", 1.105, Adjustment.Type.MULTIPLY));
+        s.receive(new Message("pears", 0.5, 3));
+        s.receive(new Message("pears", 0.001, Adjustment.Type.MULTIPLY));
+
+        assertEquals(110.5, logger.totalValues.get(0).get("apples"), 0);
+        assertEquals(0.0, logger.totalValues.get(0).get("pears"), 0);
+        assertEquals(110, FixedPoint.CENTS.multiply(100, 1.105));
+        assertEquals(112, FixedPoint.CENTS.multiply(101, 1.105));
+
+        s.logSalesReport(0, 2);
+        assertEquals(110.5, logger.totalValues.get(1).get("apples"), 0);
+    }
+
+    @Test
+    public void whenPriceNotRepresentable_thenMessageInvalid() throws NotAcceptingNewMessages {
+        Subscriber s = new Subscriber(new RecordingLogger(), LIMITS);
+        s.setFixedPoint(FixedPoint.CENTS);
+        assertInvalid(s, new Message("apples", 0.001));
+        assertInvalid(s, new Message("apples", 1e17));
+        assertInvalid(s, new Message("apples", 1e15, Integer.MAX_VALUE));
+
+        s.receive(new Message("apples", 0.006));
+        assertEquals(1, s.getMessages().size());
+    }
+
+    @Test
+    public void whenPriceBetweenDecimals_thenRoundedHalfEven() throws NotAcceptingNewMessages {
+        Subscriber s = new Subscriber(new RecordingLogger(), LIMITS);
+        s.setFixedPoint(FixedPoint.CENTS);
+        s.receive(new Message("apples", 0.105));
+        s.receive(new Message("apples", 0.115, 2));
+        s.receive(new Message("pears", 1));
+        s.receive(new Message("pears", 0.125, Adjustment.Type.SUBTRACT));
+
+        assertEquals(new ProductTotals("apples", 3, 0.34), s.getSales("apples"));
+        assertEquals(new ProductTotals("pears", 1, 0.88), s.getSales("pears"));
+    }
+
+    @Test
+    public void whenTotalOverflows_thenTotalUnchanged() throws NotAcceptingNewMessages {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(2, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setFixedPoint(FixedPoint.CENTS);
+        s.receive(new Message("apples", 5e16));
+        try {
+            s.receive(new Message("apples", 5e16));
+            fail("Overflow expected");
+        } catch (ArithmeticException expected) {
+        }
+        s.receive(new Message("apples", 1));
+
+        assertEquals(2, s.getMessages().size());
+        assertEquals(5e16 + 1, logger.totalValues.get(0).get("apples"), 0);
+    }
+
+    @Test
+    public void whenBatchOverflowsPartWay_thenPausedAfterProcessedMessagesOnly() throws NotAcceptingNewMessages {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, 3));
+        s.setFixedPoint(FixedPoint.CENTS);
+        try {
+            s.receiveAll(new Message[]{new Message("apples", 5e16), new Message("apples", 5e16)});
+            fail("Overflow expected");
+        } catch (ArithmeticException expected) {
+        }
+        s.receive(new Message("apples", 1));
+        assertTrue(s.isAccepting());
+        s.receive(new Message("apples", 1));
+
+        assertFalse(s.isAccepting());
+        assertEquals(1, logger.pauses);
+    }
+
+    private static void assertOverflow(Runnable operation) {
+        try {
+            operation.run();
+            fail("Overflow expected");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    private static void assertInvalid(Subscriber s, Message msg) throws NotAcceptingNewMessages {
+        try {
+            s.receive(msg);
+            fail("Invalid message expected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of FlowSubscriber and ReportPublisher with in-process publishers.
+ */
+public class FlowSubscriberTest {
+    private static final int MESSAGES = 1_000_000;
+
+    @Test
+    public void whenPublishedAtHighRate_thenSameReportsAsReceived() throws Exception {
+        Limits limits = new Limits(100_000, 250_000, Limits.UNLIMITED);
+        RecordingLogger expected = new RecordingLogger();
+        Subscriber reference = new Subscriber(expected, limits);
+        RecordingLogger published = new RecordingLogger();
+        FlowSubscriber flow = new FlowSubscriber(new Subscriber(published, limits), 1024, 128);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (SubmissionPublisher<Message> publisher = new SubmissionPublisher<>(executor, 256)) {
+            publisher.subscribe(flow);
+            for (int i = 0; i < MESSAGES; i++) {
+                Message msg = message(i);
+                reference.receive(msg);
+                publisher.submit(msg);
+            }
+        }
+        flow.getCompletion().get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(14, expected.events.size());
+        assertEquals(expected.events, published.events);
+    }
+
+    @Test
+    public void whenSubscriberPauses_thenHeldBackUntilResumed() throws Exception {
+        Subscriber subscriber = new Subscriber(new RecordingLogger(), new Limits(1000, 5000));
+        FlowSubscriber flow = new FlowSubscriber(subscriber, 64, 16);
+        CountingPublisher publisher = new CountingPublisher(100_000);
+        publisher.subscribe(flow);
+
+        Thread resumer = new Thread(() -> {
+            while (!flow.getCompletion().isDone()) {
+                if (!subscriber.isAccepting())
+                    subscriber.resume();
+                Thread.yield();
+            }
+        });
+        resumer.start();
+        flow.getCompletion().get(30, TimeUnit.SECONDS);
+        resumer.join();
+
+        assertEquals(100_000, subscriber.getMessages().size());
+        assertTrue(publisher.maxOutstanding.get() <= 64);
+    }
+
+    @Test
+    public void whenUpstreamFails_thenQueuedMessagesProcessedAndErrorPassedOn() throws Exception {
+        Subscriber subscriber = new Subscriber(new RecordingLogger(), new Limits(10, 50, Limits.UNLIMITED));
+        FlowSubscriber flow = new FlowSubscriber(subscriber, 64, 16);
+        CountingPublisher publisher = new CountingPublisher(1000);
+        publisher.failure = new RuntimeException("upstream failure");
+        publisher.subscribe(flow);
+
+        try {
+            flow.getCompletion().get(30, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(publisher.failure, e.getCause());
+        }
+        assertEquals(1000, subscriber.getMessages().size());
+    }
+
+    @Test
+    public void whenInvalidMessage_thenSubscriptionCancelled() throws Exception {
+        FlowSubscriber flow = new FlowSubscriber(
+                new Subscriber(new RecordingLogger(), new Limits(10, 50, Limits.UNLIMITED)), 64, 16);
+        CountingPublisher publisher = new CountingPublisher(1000);
+        publisher.invalidAt = 500;
+        publisher.subscribe(flow);
+
+        try {
+            flow.getCompletion().get(30, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void whenPublisherExceedsDemand_thenSubscriptionCancelled() throws Exception {
+        FlowSubscriber flow = new FlowSubscriber(new Subscriber(new RecordingLogger()), 64, 16);
+        CountingPublisher publisher = new CountingPublisher(1000);
+        publisher.ignoreDemand = true;
+        publisher.subscribe(flow);
+
+        try {
+            flow.getCompletion().get(30, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(publisher.cancelled);
+    }
+
+    @Test
+    public void whenReportsPublished_thenDeliveredOnDemand() throws Exception {
+        ReportPublisher reports = new ReportPublisher(Executors.newSingleThreadExecutor(), 4);
+        List<ReportPublisher.Report> received = Collections.synchronizedList(new ArrayList<>());
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        reports.subscribe(new Flow.Subscriber<ReportPublisher.Report>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ReportPublisher.Report item) {
+                received.add(item);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+
+        Subscriber subscriber = new Subscriber(reports, new Limits(10, 50, Limits.UNLIMITED));
+        subscriber.addWindow(Window.tumbling(25));
+        for (int i = 0; i < 100; i++)
+            subscriber.receive(message(i));
+        reports.close();
+        done.get(30, TimeUnit.SECONDS);
+
+        assertEquals(16, received.size());
+        assertEquals(ReportPublisher.Report.Type.SALES, received.get(0).getType());
+        assertEquals(Integer.valueOf(5), received.get(0).getNumberOfSales().get("product0"));
+        assertEquals(10, received.stream().filter(r -> r.getType() == ReportPublisher.Report.Type.SALES).count());
+        assertEquals(4, received.stream().filter(r -> r.getType() == ReportPublisher.Report.Type.WINDOW).count());
+        assertEquals(2, received.stream().filter(r -> r.getType() == ReportPublisher.Report.Type.ADJUSTMENT).count());
+    }
+
+    private static Message message(int i) {
+        String pName = "product" + i % 7;
+        if (i % 9 == 8)
+            return new Message(pName, 1 + i % 3, Adjustment.Type.values()[i % 3]);
+        return new Message(pName, 10 + i % 100, 1 + i % 4);
+    }
+
+    /**
+     * Publisher delivering its messages synchronously on request, recording the demand.
+     */
+    private static class CountingPublisher implements Flow.Publisher<Message> {
+        private final int messages;
+        private final AtomicLong maxOutstanding = new AtomicLong();
+        private int invalidAt = -1;
+        private RuntimeException failure;
+        private boolean ignoreDemand;
+        private volatile boolean cancelled;
+
+        CountingPublisher(int messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private long outstanding;
+                private int sent;
+                private boolean emitting;
+                private boolean terminated;
+
+                @Override
+                public synchronized void request(long n) {
+                    outstanding += n;
+                    maxOutstanding.accumulateAndGet(outstanding, Math::max);
+                    if (emitting)
+                        return;
+                    emitting = true;
+                    while ((outstanding > 0 || ignoreDemand) && sent < messages && !cancelled) {
+                        outstanding--;
+                        subscriber.onNext(sent == invalidAt ? new Message("invalid", 0, 0) : message(sent));
+                        sent++;
+                    }
+                    emitting = false;
+                    if (sent < messages || cancelled || terminated)
+                        return;
+                    terminated = true;
+                    if (failure != null)
+                        subscriber.onError(failure);
+                    else
+                        subscriber.onComplete();
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+}
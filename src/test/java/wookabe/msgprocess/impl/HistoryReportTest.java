@@ -0,0 +1,193 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the sales reports on a range of stored messages, aggregated sequentially and in parallel.
+ */
+public class HistoryReportTest {
+    private static final int MESSAGES = 200_000;
+    private static final Limits LIMITS = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @AfterClass
+    public static void shutDown() {
+        POOL.shutdown();
+    }
+
+    @Test
+    public void whenParallel_thenSameReportAsSequential() {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, LIMITS);
+        messages(MESSAGES).forEach(s::offer);
+
+        for (long[] range : new long[][]{{0, MESSAGES}, {12_345, 187_654}, {100, 4200}, {7, 7}}) {
+            s.setReportParallelism(ReportParallelism.SEQUENTIAL);
+            s.logSalesReport(range[0], range[1]);
+            s.setReportParallelism(ReportParallelism.parallel(POOL));
+            s.logSalesReport(range[0], range[1]);
+
+            assertEquals(logger.numberOfSales.get(0), logger.numberOfSales.get(1));
+            assertEquals(logger.totalValues.get(0), logger.totalValues.get(1));
+            logger.clear();
+        }
+    }
+
+    @Test
+    public void whenWholeHistory_thenRunningTotalsReported() {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(MESSAGES, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setReportParallelism(ReportParallelism.parallel(POOL));
+        messages(MESSAGES).forEach(s::offer);
+        s.logSalesReport(0, MESSAGES);
+
+        assertEquals(logger.numberOfSales.get(0), logger.numberOfSales.get(1));
+        for (Map.Entry<String, Double> total : logger.totalValues.get(0).entrySet())
+            assertEquals(total.getValue(), logger.totalValues.get(1).get(total.getKey()), total.getValue() * 1e-9);
+    }
+
+    @Test
+    public void whenSpilled_thenSameReportAsRetained() throws Exception {
+        RecordingLogger expected = new RecordingLogger();
+        Subscriber reference = new Subscriber(expected, LIMITS);
+        reference.setReportParallelism(ReportParallelism.SEQUENTIAL);
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, LIMITS);
+        s.setRetention(Retention.messages(50_000).spillTo(folder.getRoot().toPath()));
+        s.setReportParallelism(ReportParallelism.parallel(POOL));
+        List<Message> received = messages(MESSAGES);
+        received.forEach(reference::offer);
+        received.forEach(s::offer);
+
+        reference.logSalesReport(1000, 190_000);
+        s.logSalesReport(1000, 190_000);
+
+        assertEquals(expected.numberOfSales, logger.numberOfSales);
+        assertEquals(expected.totalValues, logger.totalValues);
+    }
+
+    @Test
+    public void whenRangeNotStored_thenRejected() {
+        Subscriber s = new Subscriber(new RecordingLogger(), LIMITS);
+        s.setRetention(Retention.messages(50_000));
+        messages(MESSAGES).forEach(s::offer);
+
+        assertRejected(s, 0, MESSAGES);
+        assertRejected(s, MESSAGES - 10, MESSAGES + 1);
+        assertRejected(s, MESSAGES - 10, MESSAGES - 20);
+        s.logSalesReport(MESSAGES - 50_000, MESSAGES);
+    }
+
+    @Test
+    public void whenAutomatic_thenParallelFromThresholdWithSeveralThreads() {
+        ReportParallelism automatic = ReportParallelism.automatic(POOL, 1 << 16);
+        assertFalse(automatic.isParallel(1 << 15));
+        assertTrue(automatic.isParallel(1 << 16));
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            assertFalse(ReportParallelism.automatic(single, 1 << 16).isParallel(1 << 20));
+        } finally {
+            single.shutdown();
+        }
+        assertFalse(ReportParallelism.SEQUENTIAL.isParallel(Long.MAX_VALUE));
+        assertFalse(ReportParallelism.parallel(POOL).isParallel(ReportParallelism.LEAF_SIZE));
+    }
+
+    @Test
+    public void whenIndicesBeyondInt_thenAggregated() {
+        long first = 3L << 30;
+        MessageStore store = new MessageStore() {
+            @Override
+            public void add(int productId, double price, int numberOfSales, Adjustment.Type adjustmentType,
+                            int epoch) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long size() {
+                return first + 100_000;
+            }
+
+            @Override
+            public long getFirst() {
+                return first;
+            }
+
+            @Override
+            public int getProductId(long index) {
+                return (int) (index % 3);
+            }
+
+            @Override
+            public double getPrice(long index) {
+                return 1;
+            }
+
+            @Override
+            public int getNumberOfSales(long index) {
+                return index < first ? 0 : 1;
+            }
+
+            @Override
+            public Adjustment.Type getAdjustmentType(long index) {
+                return null;
+            }
+
+            @Override
+            public int getEpoch(long index) {
+                return 0;
+            }
+        };
+        SalesLedger ledger = new SalesLedger(new AdjustmentHistory());
+        for (ReportParallelism parallelism : new ReportParallelism[]{ReportParallelism.SEQUENTIAL,
+                ReportParallelism.parallel(POOL)}) {
+            ProductSales sales = HistoryAggregator.aggregate(store, ledger, first, store.size(), parallelism);
+
+            assertEquals(3, sales.size());
+            int total = 0;
+            for (int i = 0; i < sales.size(); i++)
+                total += sales.getNumberOfSales(i);
+            assertEquals(100_000, total);
+        }
+    }
+
+    private static void assertRejected(Subscriber s, long from, long to) {
+        try {
+            s.logSalesReport(from, to);
+            fail("Range rejection expected");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    private static List<Message> messages(int n) {
+        Random random = new Random(5);
+        List<Message> msgs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String pName = "product" + random.nextInt(500);
+            if (random.nextInt(100) == 0)
+                msgs.add(new Message(pName, 1 + random.nextInt(3) / 100.0, Adjustment.Type.values()[random.nextInt(3)]));
+            else
+                msgs.add(new Message(pName, random.nextInt(10_000) / 100.0 + 1, 1 + random.nextInt(5)));
+        }
+        return msgs;
+    }
+}
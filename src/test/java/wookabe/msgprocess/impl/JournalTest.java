@@ -0,0 +1,341 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of Journal and the recovery of Subscriber from it.
+ */
+public class JournalTest {
+    private static final int SEGMENT_SIZE = 64 << 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void whenAppended_thenReplayedInOrder() throws Exception {
+        List<Message> appended = messages(100);
+        try (Journal journal = new Journal(folder.getRoot().toPath(), SEGMENT_SIZE, 1)) {
+            appended.forEach(journal::append);
+
+            assertEquals(appended, replay(journal));
+        }
+    }
+
+    @Test
+    public void whenReopened_thenAppendsAfterLastRecord() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<Message> appended = messages(20);
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            appended.subList(0, 10).forEach(journal::append);
+        }
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            assertEquals(10, journal.size());
+            appended.subList(10, 20).forEach(journal::append);
+
+            assertEquals(appended, replay(journal));
+        }
+    }
+
+    @Test
+    public void whenClosed_thenAppendAndReplayFail() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Journal journal = new Journal(dir, SEGMENT_SIZE, 0);
+        journal.append(new Message("apples", 1));
+        journal.close();
+        journal.close();
+
+        assertClosed(() -> journal.append(new Message("apples", 1)));
+        assertClosed(() -> journal.replay(msg -> {
+        }));
+        assertClosed(journal::sync);
+        try (Journal reopened = new Journal(dir, SEGMENT_SIZE, 0)) {
+            assertEquals(1, reopened.size());
+        }
+    }
+
+    @Test
+    public void whenSegmentFull_thenRolled() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<Message> appended = messages(10000);
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            appended.forEach(journal::append);
+
+            assertTrue(journal.segmentBases().size() > 1);
+        }
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            assertEquals(appended.size(), journal.size());
+            assertEquals(appended, replay(journal));
+        }
+    }
+
+    @Test
+    public void whenLastRecordTorn_thenRecoveredUpToIt() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<Message> appended = messages(10);
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            appended.forEach(journal::append);
+        }
+        corruptRecord(dir, 9, appended.get(9));
+
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            assertEquals(9, journal.size());
+            journal.append(appended.get(9));
+        }
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            assertEquals(appended, replay(journal));
+        }
+    }
+
+    @Test
+    public void whenEarlierSegmentCorrupt_thenReplayFails() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<Message> appended = messages(10000);
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            appended.forEach(journal::append);
+        }
+        corruptRecord(dir, 9, appended.get(9));
+
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            assertEquals(appended.size(), journal.size());
+            List<Message> replayed = new ArrayList<>();
+            try {
+                journal.replay(replayed::add);
+                fail("Corruption expected");
+            } catch (UncheckedIOException expected) {
+            }
+            assertEquals(appended.subList(0, 9), replayed);
+        }
+    }
+
+    @Test
+    public void whenProcessingFails_thenMessageNotJournaled() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            Subscriber s = new Subscriber(new RecordingLogger(), new Limits(10, 25, Limits.UNLIMITED));
+            s.setFixedPoint(FixedPoint.CENTS);
+            s.setJournal(journal);
+            s.receive(new Message("apples", 5e16));
+            try {
+                s.receiveAll(new Message[]{new Message("pears", 1), new Message("apples", 5e16)});
+                fail("Overflow expected");
+            } catch (ArithmeticException expected) {
+            }
+
+            assertEquals(Arrays.asList(new Message("apples", 5e16), new Message("pears", 1)), replay(journal));
+        }
+    }
+
+    @Test
+    public void whenSubscriberRecovered_thenSameReportsAsUninterrupted() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Limits limits = new Limits(10, 25, Limits.UNLIMITED);
+        List<Message> received = messages(100);
+        RecordingLogger uninterrupted = new RecordingLogger();
+        Subscriber s = new Subscriber(uninterrupted, limits);
+        received.forEach(s::offer);
+
+        RecordingLogger recovered = new RecordingLogger();
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 1)) {
+            s = new Subscriber(recovered, limits);
+            s.setJournal(journal);
+            received.subList(0, 60).forEach(s::offer);
+        }
+        recovered.clear();
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 1)) {
+            s = new Subscriber(recovered, limits);
+            s.setJournal(journal);
+            assertTrue(recovered.events.isEmpty());
+            assertEquals(60, s.getMessages().size());
+            received.subList(60, 100).forEach(s::offer);
+        }
+
+        assertEquals(uninterrupted.events.subList(uninterrupted.events.size() - recovered.events.size(),
+                uninterrupted.events.size()), recovered.events);
+        assertEquals(6, recovered.events.size());
+    }
+
+    @Test
+    public void whenRecoveredFromSnapshot_thenSameReportsAsUninterrupted() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Limits limits = new Limits(10, 25, Limits.UNLIMITED);
+        List<Message> received = messages(100);
+        RecordingLogger uninterrupted = new RecordingLogger();
+        Subscriber s = new Subscriber(uninterrupted, limits);
+        received.forEach(s::offer);
+
+        RecordingLogger recovered = new RecordingLogger();
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 1)) {
+            s = new Subscriber(recovered, limits);
+            s.setJournal(journal);
+            received.subList(0, 55).forEach(s::offer);
+            s.snapshot().get();
+            received.subList(55, 60).forEach(s::offer);
+        }
+        recovered.clear();
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 1)) {
+            s = new Subscriber(recovered, limits);
+            s.setJournal(journal);
+            assertTrue(recovered.events.isEmpty());
+            Subscriber reference = new Subscriber(new RecordingLogger(), limits);
+            received.subList(0, 60).forEach(reference::offer);
+            assertEquals(1, s.getAdjustmentsSince("product2", 30).size());
+            assertEquals(reference.getAdjustmentsSince("product2", 30), s.getAdjustmentsSince("product2", 30));
+            assertEquals(reference.getAdjustmentsSince("product2", 45), s.getAdjustmentsSince("product2", 45));
+            received.subList(60, 100).forEach(s::offer);
+        }
+
+        assertEquals(uninterrupted.events.subList(uninterrupted.events.size() - recovered.events.size(),
+                uninterrupted.events.size()), recovered.events);
+        assertEquals(6, recovered.events.size());
+    }
+
+    @Test
+    public void whenSnapshotTaken_thenReceptionNotStalledByCopy() throws Exception {
+        int products = 400_000;
+        Path dir = folder.getRoot().toPath();
+        try (Journal journal = new Journal(dir)) {
+            Subscriber s = new Subscriber(new RecordingLogger(), new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    Limits.UNLIMITED));
+            s.setRetention(Retention.messages(10_000));
+            s.setJournal(journal);
+            for (int i = 0; i < products; i++) {
+                s.receive(new Message("product" + i, 1, 1));
+                if (i % 2 == 0)
+                    s.receive(new Message("product" + i, 1, Adjustment.Type.ADD));
+            }
+
+            s.snapshot().get(); // starts the snapshot writer
+
+            // the copy of every product and adjustment is left to the snapshot writer, the fastest of a few
+            // attempts is compared so that the writer preempting the receiving thread does not count
+            long copy = Long.MAX_VALUE;
+            long shortest = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                s.getSales();
+                copy = Math.min(copy, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                CompletableFuture<Path> snapshot = s.snapshot();
+                s.receive(new Message("product" + i, 1, 1));
+                shortest = Math.min(shortest, System.nanoTime() - start);
+                snapshot.get();
+            }
+            assertTrue("Reception stalled " + shortest + " ns by a snapshot, a copy takes " + copy + " ns",
+                    shortest < copy / 4);
+        }
+    }
+
+    @Test
+    public void whenSnapshotWritten_thenOlderHistoryCompacted() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<Message> received = messages(10000);
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            Subscriber s = new Subscriber(new RecordingLogger(), new Limits(10, 25, Limits.UNLIMITED));
+            s.setJournal(journal);
+            received.subList(0, 5000).forEach(s::offer);
+            s.snapshot().get();
+            received.subList(5000, 9000).forEach(s::offer);
+            Path latest = s.snapshot().get();
+            received.subList(9000, 10000).forEach(s::offer);
+
+            assertTrue(Files.exists(latest));
+            assertEquals(1, Files.list(dir).filter(path -> path.toString().endsWith(".snapshot")).count());
+            List<Long> bases = journal.segmentBases();
+            assertTrue(bases.get(0) > 0);
+            assertTrue(bases.size() == 1 || bases.get(1) > 9000);
+        }
+    }
+
+    @Test
+    public void whenSnapshotsPeriodic_thenRecoveredState() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Limits limits = new Limits(10, 25, Limits.UNLIMITED);
+        List<Message> received = messages(1000);
+        Subscriber uninterrupted = new Subscriber(new RecordingLogger(), limits);
+        received.forEach(uninterrupted::offer);
+
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            Subscriber s = new Subscriber(new RecordingLogger(), limits);
+            s.setJournal(journal, 300);
+            s.receiveAll(received.subList(0, 950));
+            s.snapshot().get();
+        }
+        RecordingLogger recovered = new RecordingLogger();
+        RecordingLogger expected = new RecordingLogger();
+        try (Journal journal = new Journal(dir, SEGMENT_SIZE, 0)) {
+            Subscriber s = new Subscriber(recovered, limits);
+            s.setJournal(journal);
+            Subscriber reference = new Subscriber(expected, limits);
+            received.subList(0, 950).forEach(reference::offer);
+            expected.clear();
+            received.subList(950, 1000).forEach(s::offer);
+            received.subList(950, 1000).forEach(reference::offer);
+        }
+
+        assertEquals(expected.events, recovered.events);
+        assertEquals(7, recovered.events.size());
+    }
+
+    private List<Message> messages(int n) {
+        List<Message> msgs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String pName = "product" + i % 7;
+            if (i % 9 == 8)
+                msgs.add(new Message(pName, 1 + i % 3, Adjustment.Type.values()[i % 3]));
+            else
+                msgs.add(new Message(pName, 10 + i, 1 + i % 4));
+        }
+        return msgs;
+    }
+
+    private List<Message> replay(Journal journal) {
+        List<Message> replayed = new ArrayList<>();
+        journal.replay(replayed::add);
+        return replayed;
+    }
+
+    /**
+     * Flip a byte in the product name of a record of the first segment, as if the write of the record was torn.
+     */
+    private void corruptRecord(Path dir, int index, Message msg) throws Exception {
+        Path segment = dir.resolve(String.format("%019d.journal", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            int end = 0;
+            for (int i = 0; i <= index; i++)
+                end += 8 + buffer.getInt(end);
+            int lastByte = end - 1;
+            buffer.put(lastByte, (byte) ~buffer.get(lastByte));
+            assertEquals(msg.getProductName().charAt(msg.getProductName().length() - 1),
+                    (char) ~buffer.get(lastByte));
+        }
+    }
+
+    private static void assertClosed(Runnable operation) {
+        try {
+            operation.run();
+            fail("Journal closed");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
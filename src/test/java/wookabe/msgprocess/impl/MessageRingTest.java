@@ -0,0 +1,180 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests of the ingestion of reusable message slots, directly and through a ring.
+ */
+public class MessageRingTest {
+    private static final int PRODUCTS = 100;
+    private static final int WARM_UP = 200_000;
+    private static final int MESSAGES = 1_000_000;
+
+    /**
+     * Bytes allocated by a thread regardless of the messages, by the JIT compiler for instance,
+     * far below the tens of megabytes of a single small object per message
+     */
+    private static final long NOISE_BYTES = 64 << 10;
+
+    private final String[] names = names();
+
+    @Test
+    public void whenSlotReused_thenNoAllocationPerMessage() throws Exception {
+        Subscriber s = new Subscriber(new RecordingLogger(), unlimited());
+        s.setRetention(Retention.messages(10_000));
+        MessageSlot slot = new MessageSlot();
+        for (int i = 0; i < WARM_UP; i++)
+            s.receive(slot.sale(names[i % PRODUCTS], 1 + i % 10, 1 + i % 3));
+
+        long before = allocatedBytes(Thread.currentThread());
+        for (int i = 0; i < MESSAGES; i++)
+            s.receive(slot.sale(names[i % PRODUCTS], 1 + i % 10, 1 + i % 3));
+        long allocated = allocatedBytes(Thread.currentThread()) - before;
+
+        assertTrue("Allocated " + allocated + " bytes", allocated < NOISE_BYTES);
+    }
+
+    @Test
+    public void whenPublishedThroughRing_thenNoAllocationPerMessage() {
+        Subscriber s = new Subscriber(new RecordingLogger(), unlimited());
+        s.setRetention(Retention.messages(10_000));
+        try (MessageRing ring = new MessageRing(s, 1024)) {
+            publishSales(ring, WARM_UP);
+            ring.flush();
+
+            long producerBefore = allocatedBytes(Thread.currentThread());
+            long consumerBefore = allocatedBytes(ring.getConsumer());
+            publishSales(ring, MESSAGES);
+            ring.flush();
+            long producerAllocated = allocatedBytes(Thread.currentThread()) - producerBefore;
+            long consumerAllocated = allocatedBytes(ring.getConsumer()) - consumerBefore;
+
+            assertTrue("Producer allocated " + producerAllocated + " bytes", producerAllocated < NOISE_BYTES);
+            assertTrue("Subscriber thread allocated " + consumerAllocated + " bytes", consumerAllocated < NOISE_BYTES);
+        }
+    }
+
+    @Test
+    public void whenManyProducers_thenSameTotalsAsDirectReception() throws Exception {
+        RecordingLogger expected = new RecordingLogger();
+        Subscriber reference = new Subscriber(expected, new Limits(40_000, Integer.MAX_VALUE, Limits.UNLIMITED));
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(40_000, Integer.MAX_VALUE, Limits.UNLIMITED));
+
+        try (MessageRing ring = new MessageRing(s, 64)) {
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                int producer = p;
+                producers.add(new Thread(() -> {
+                    for (int i = 0; i < 10_000; i++)
+                        ring.publish(ring.claim().sale(names[producer], 1 + i % 10, 1 + i % 3));
+                }));
+            }
+            producers.forEach(Thread::start);
+            for (Thread producer : producers)
+                producer.join();
+        }
+        MessageSlot slot = new MessageSlot();
+        for (int p = 0; p < 4; p++) {
+            for (int i = 0; i < 10_000; i++)
+                reference.receive(slot.sale(names[p], 1 + i % 10, 1 + i % 3));
+        }
+
+        assertEquals(expected.numberOfSales, logger.numberOfSales);
+        assertEquals(expected.totalValues, logger.totalValues);
+    }
+
+    @Test
+    public void whenAdjustmentPublished_thenAppliedInOrder() {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(3, 3, Limits.UNLIMITED));
+        try (MessageRing ring = new MessageRing(s, 2)) {
+            ring.publish(ring.claim().sale("apples", 2, 3));
+            ring.publish(ring.claim().adjustment("apples", 1.5, Adjustment.Type.MULTIPLY));
+            ring.publish(ring.claim().sale("apples", 1));
+        }
+
+        assertEquals(10.0, logger.totalValues.get(0).get("apples"), 0);
+        assertEquals(4, (int) logger.numberOfSales.get(0).get("apples"));
+        assertEquals(1, logger.adjustments.get(0).get("apples").size());
+    }
+
+    @Test
+    public void whenPaused_thenProducersHeldUntilResumed() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, 10));
+        CountDownLatch published = new CountDownLatch(1);
+        try (MessageRing ring = new MessageRing(s, 4)) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 20; i++)
+                    ring.publish(ring.claim().sale("apples", 1));
+                published.countDown();
+            });
+            producer.start();
+            while (s.isAccepting())
+                Thread.sleep(1);
+
+            assertFalse(published.await(50, TimeUnit.MILLISECONDS));
+            s.resume();
+            producer.join();
+            ring.flush();
+            assertEquals(20, s.getMessages().size());
+        }
+    }
+
+    @Test
+    public void whenMessageInvalid_thenSkippedAndFailureThrown() {
+        Subscriber s = new Subscriber(new RecordingLogger(), unlimited());
+        MessageRing ring = new MessageRing(s, 4);
+        ring.publish(ring.claim().sale("apples", 1));
+        ring.publish(ring.claim().sale("", 1));
+        ring.publish(ring.claim().sale("pears", 1));
+        try {
+            ring.close();
+            fail("Failure expected");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertEquals(2, s.getMessages().size());
+    }
+
+    private void publishSales(MessageRing ring, int n) {
+        for (int i = 0; i < n; i++)
+            ring.publish(ring.claim().sale(names[i % PRODUCTS], 1 + i % 10, 1 + i % 3));
+    }
+
+    private static Limits unlimited() {
+        return new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+    }
+
+    private static String[] names() {
+        String[] names = new String[PRODUCTS];
+        for (int i = 0; i < PRODUCTS; i++)
+            names[i] = "product" + i;
+        return names;
+    }
+
+    /**
+     * Gets the number of bytes allocated by a thread so far, skipping the test if the JVM does not count them.
+     */
+    private static long allocatedBytes(Thread thread) {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads.getThreadAllocatedBytes(thread.getId());
+    }
+}
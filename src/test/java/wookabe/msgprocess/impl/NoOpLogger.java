@@ -0,0 +1,23 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Logger discarding the reports of the tests.
+ */
+class NoOpLogger implements Logger {
+    @Override
+    public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+    }
+
+    @Override
+    public void logPause() {
+    }
+
+    @Override
+    public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+    }
+}
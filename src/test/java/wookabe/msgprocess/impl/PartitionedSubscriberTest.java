@@ -0,0 +1,79 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of PartitionedSubscriber.
+ */
+public class PartitionedSubscriberTest {
+    @Test
+    public void whenPartitioned_thenSameReportsAsSubscriber() throws Exception {
+        Limits limits = new Limits(100, 1000, 5000);
+        List<Message> messages = generateMessages(5000, 50);
+
+        RecordingLogger expected = new RecordingLogger();
+        new Subscriber(expected, limits).receiveAll(messages);
+
+        for (int shards : new int[]{1, 3, 8}) {
+            RecordingLogger logger = new RecordingLogger();
+            try (PartitionedSubscriber s = new PartitionedSubscriber(logger, limits, shards)) {
+                s.receiveAll(messages);
+            }
+            assertEquals(expected.events, logger.events);
+        }
+    }
+
+    @Test
+    public void whenLimitReached_thenPausedUntilResumed() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        try (PartitionedSubscriber s = new PartitionedSubscriber(logger, 4)) {
+            s.receiveAll(generateMessages(50, 5));
+            assertFalse(s.offer(new Message("apple", 1)));
+            try {
+                s.receive(new Message("apple", 1));
+            } catch (NotAcceptingNewMessages e) {
+                s.resume();
+            }
+            assertTrue(s.offer(new Message("apple", 1)));
+            s.awaitProcessed();
+        }
+
+        assertEquals(7, logger.events.size());
+        assertEquals("pause", logger.events.get(5));
+    }
+
+    /**
+     * Generate a reproducible stream of sales and adjustments.
+     *
+     * @param n        number of messages
+     * @param products number of distinct products
+     * @return messages
+     */
+    private static List<Message> generateMessages(int n, int products) {
+        Random random = new Random(n);
+        Adjustment.Type[] types = Adjustment.Type.values();
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String pName = "product" + random.nextInt(products);
+            if (random.nextInt(20) == 0)
+                messages.add(new Message(pName, random.nextInt(3) + 1, types[random.nextInt(types.length)]));
+            else
+                messages.add(new Message(pName, random.nextInt(100) + 1, random.nextInt(10) + 1));
+        }
+        return messages;
+    }
+
+    /**
+     * Logger recording every report as an event, safe to be called from any thread.
+     */}
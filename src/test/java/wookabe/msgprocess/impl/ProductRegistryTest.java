@@ -0,0 +1,101 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of ProductRegistry.
+ */
+public class ProductRegistryTest {
+    private ProductRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new ProductRegistry();
+    }
+
+    @Test
+    public void whenInterned_thenDenseIds() {
+        assertEquals(0, registry.intern("apple"));
+        assertEquals(1, registry.intern("watch"));
+        assertEquals(0, registry.intern("apple"));
+        assertEquals(2, registry.size());
+        assertEquals("watch", registry.name(1));
+    }
+
+    @Test
+    public void whenNotInterned_thenNotFound() {
+        registry.intern("apple");
+
+        assertEquals(-1, registry.lookup("watch"));
+    }
+
+    @Test
+    public void whenManyInterned_thenAllFound() {
+        for (int i = 0; i < 100000; i++)
+            assertEquals(i, registry.intern("product" + i));
+
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(i, registry.lookup("product" + i));
+            assertEquals("product" + i, registry.name(i));
+        }
+    }
+
+    @Test
+    public void whenInternedFromBytes_thenSameIdsAsNames() {
+        registry.intern("apple");
+        ByteBuffer buffer = ByteBuffer.wrap("xxapplewatch\u010daj".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, registry.intern(buffer, 2, 5));
+        assertEquals(1, registry.intern(buffer, 7, 5));
+        assertEquals(2, registry.intern(buffer, 12, 4));
+        assertEquals(1, registry.lookup("watch"));
+        assertEquals(2, registry.lookup("\u010daj"));
+        assertEquals(2, registry.intern(buffer, 12, 4));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void whenMaximumReached_thenRejected() {
+        registry = new ProductRegistry(2);
+        registry.intern("apple");
+        registry.intern("watch");
+        registry.intern("oil");
+    }
+
+    @Test
+    public void whenInternedConcurrently_thenOneIdPerName() throws Exception {
+        int names = 20000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 1000;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < names; i++) {
+                        String name = "product" + (i + offset) % names;
+                        int id = registry.intern(name);
+                        assertEquals(name, registry.name(id));
+                        assertEquals(id, registry.lookup(name));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads)
+            thread.join();
+
+        assertNull(failure.get());
+        assertEquals(names, registry.size());
+    }
+}
@@ -0,0 +1,51 @@
+package wookabe.msgprocess.impl;
+
+import wookabe.msgprocess.subscription.Adjustment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Logger recording the reports of the tests, by kind and all together in order of logging.
+ * Reports may be logged by any thread, one at a time, and read once the logging threads are done.
+ */
+class RecordingLogger implements Logger {
+    final List<Map<String, Integer>> numberOfSales = new ArrayList<>();
+    final List<Map<String, Double>> totalValues = new ArrayList<>();
+    final List<Map<String, List<Adjustment>>> adjustments = new ArrayList<>();
+
+    /**
+     * All reports in order: sales reports as lists of their two maps, "pause" and adjustment reports as their map
+     */
+    final List<Object> events = new ArrayList<>();
+    int pauses;
+
+    @Override
+    public synchronized void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        this.numberOfSales.add(numberOfSales);
+        this.totalValues.add(totalValues);
+        events.add(Arrays.asList(numberOfSales, totalValues));
+    }
+
+    @Override
+    public synchronized void logPause() {
+        pauses++;
+        events.add("pause");
+    }
+
+    @Override
+    public synchronized void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+        adjustments.add(productsToAdjustments);
+        events.add(productsToAdjustments);
+    }
+
+    synchronized void clear() {
+        numberOfSales.clear();
+        totalValues.clear();
+        adjustments.clear();
+        events.clear();
+        pauses = 0;
+    }
+}
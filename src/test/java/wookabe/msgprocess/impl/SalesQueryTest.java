@@ -0,0 +1,121 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the queries of the current sales, from the receiving thread and from other threads.
+ */
+public class SalesQueryTest {
+    private static final Limits LIMITS = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+
+    @Test
+    public void whenQueried_thenRunningTotalsReturned() throws Exception {
+        Subscriber s = new Subscriber(new NoOpLogger(), LIMITS);
+        s.receive(new Message("apple", 0.5, 4));
+        s.receive(new Message("pear", 0.25, 2));
+        s.receive(new Message("apple", 0.5, 2));
+        s.receive(new Message("apple", 2, Adjustment.Type.MULTIPLY));
+        s.receive(new Message("kiwi", 1, Adjustment.Type.ADD));
+
+        assertEquals(new ProductTotals("apple", 6, 6), s.getSales("apple"));
+        assertEquals(new ProductTotals("kiwi", 0, 0), s.getSales("kiwi"));
+        assertEquals(new ProductTotals("plum", 0, 0), s.getSales("plum"));
+        assertEquals(Arrays.asList(new ProductTotals("apple", 6, 6), new ProductTotals("pear", 2, 0.5)),
+                s.getSales());
+    }
+
+    @Test
+    public void whenFixedPoint_thenExactTotalsReturned() throws Exception {
+        Subscriber s = new Subscriber(new NoOpLogger(), LIMITS);
+        s.setFixedPoint(FixedPoint.CENTS);
+        for (int i = 0; i < 10; i++)
+            s.receive(new Message("apple", 0.1, 1));
+
+        assertEquals(new ProductTotals("apple", 10, 1.0), s.getSales("apple"));
+    }
+
+    @Test
+    public void whenReadDuringReception_thenConsistentTotalsReturned() throws Exception {
+        Subscriber s = new Subscriber(new NoOpLogger(), LIMITS);
+        s.setRetention(Retention.messages(10_000));
+        AtomicBoolean receiving = new AtomicBoolean(true);
+        AtomicReference<String> inconsistency = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            int previous = 0;
+            while (receiving.get() && inconsistency.get() == null) {
+                ProductTotals first = s.getSales("product0");
+                if (first.getNumberOfSales() < previous || first.getTotalValue() != first.getNumberOfSales())
+                    inconsistency.set("Torn or stale read " + first + " after " + previous + " sales");
+                previous = first.getNumberOfSales();
+
+                List<ProductTotals> all = s.getSales();
+                int sales = all.isEmpty() ? 0 : all.get(0).getNumberOfSales();
+                for (ProductTotals totals : all) {
+                    if (totals.getNumberOfSales() != sales && totals.getNumberOfSales() != sales - 1)
+                        inconsistency.set("Inconsistent snapshot " + all);
+                    sales = totals.getNumberOfSales();
+                }
+            }
+        });
+        reader.start();
+
+        // Products receive their sales in turn, so any point in time sees decreasing counts differing by 1 at most
+        for (int i = 0; i < 200_000; i++)
+            s.receive(new Message("product" + i % 50, 1, 1));
+        receiving.set(false);
+        reader.join();
+
+        assertNull(inconsistency.get());
+        assertEquals(50, s.getSales().size());
+        for (ProductTotals totals : s.getSales())
+            assertTrue(totals.toString(), totals.getNumberOfSales() == 4000 && totals.getTotalValue() == 4000);
+    }
+
+    @Test(timeout = 60_000)
+    public void whenManyProductsReadDuringReception_thenReadsComplete() throws Exception {
+        int products = 150_000;
+        Subscriber s = new Subscriber(new NoOpLogger(), LIMITS);
+        s.setRetention(Retention.messages(10_000));
+        for (int i = 0; i < products; i++)
+            s.receive(new Message("product" + i, 1, 1));
+        AtomicBoolean receiving = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; receiving.get(); i++)
+                    s.receive(new Message("product" + i % products, 1, 1));
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        writer.start();
+
+        try {
+            for (int read = 0; read < 20; read++) {
+                List<ProductTotals> all = s.getSales();
+                assertEquals(products, all.size());
+                int sales = all.get(0).getNumberOfSales();
+                for (ProductTotals totals : all) {
+                    assertTrue("Inconsistent snapshot at " + totals, totals.getNumberOfSales() == sales
+                            || totals.getNumberOfSales() == sales - 1);
+                    sales = totals.getNumberOfSales();
+                }
+            }
+        } finally {
+            receiving.set(false);
+            writer.join();
+        }
+        assertNull(failure.get());
+    }
+}
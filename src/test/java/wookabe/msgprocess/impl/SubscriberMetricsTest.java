@@ -0,0 +1,140 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.MessageCodec;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of SubscriberMetrics and LatencyHistogram.
+ */
+public class SubscriberMetricsTest {
+    private Subscriber s;
+    private SubscriberMetrics metrics;
+
+    @Before
+    public void setUp() {
+        s = new Subscriber(new NoOpLogger(), new Limits(10, 25, 30));
+        metrics = new SubscriberMetrics();
+        s.setMetrics(metrics);
+    }
+
+    @Test
+    public void whenReceived_thenCounted() throws Exception {
+        for (int i = 0; i < 20; i++)
+            s.receive(new Message("product" + i % 4, 10));
+        s.receive(new Message("product0", 2, Adjustment.Type.MULTIPLY));
+        s.receiveAll(new Message[]{new Message("product5", 1), new Message("product6", 1)});
+        for (int i = 0; i < 10; i++)
+            s.offer(new Message("product1", 10));
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(30, snapshot.getMessagesAccepted());
+        assertEquals(3, snapshot.getMessagesRejected());
+        assertEquals(1, snapshot.getAdjustmentsApplied());
+        assertEquals(3, snapshot.getReports(Metrics.Report.SALES));
+        assertEquals(1, snapshot.getReports(Metrics.Report.ADJUSTMENT));
+        assertEquals(1, snapshot.getReports(Metrics.Report.PAUSE));
+        assertEquals(30, snapshot.getStoredMessages());
+        assertEquals(6, snapshot.getProducts());
+        assertEquals(30, snapshot.getReceiveLatency().getCount());
+        assertEquals(1, snapshot.getAdjustmentLatency().getCount());
+        assertEquals(3, snapshot.getReportLatency(Metrics.Report.SALES).getCount());
+    }
+
+    @Test
+    public void whenBufferRejectedWhilePaused_thenEveryRecordCounted() throws Exception {
+        for (int i = 0; i < 30; i++)
+            s.receive(new Message("product0", 10));
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (int i = 0; i < 4; i++)
+            MessageCodec.encode(new Message("product" + i, 10), buffer);
+        buffer.flip();
+        try {
+            s.receiveAll(buffer);
+            fail("Rejection expected");
+        } catch (NotAcceptingNewMessages expected) {
+        }
+
+        assertEquals(4, metrics.snapshot().getMessagesRejected());
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void whenDisabled_thenNothingRecorded() throws Exception {
+        s.setMetrics(Metrics.DISABLED);
+        s.receive(new Message("apple", 10));
+
+        assertEquals(0, metrics.getMessagesAccepted());
+    }
+
+    @Test
+    public void whenRegistered_thenReadThroughJmx() throws Exception {
+        s.receive(new Message("apple", 10));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(1L, server.getAttribute(name, "MessagesAccepted"));
+            assertEquals(1L, server.getAttribute(name, "Products"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void whenRecorded_thenPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++)
+            histogram.record(i);
+
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 0.001);
+        for (double percentile : new double[]{50, 90, 99, 99.9}) {
+            long exact = (long) (percentile * 1000);
+            long value = histogram.getValueAtPercentile(percentile);
+            assertTrue(value >= exact);
+            assertTrue(value <= exact * 1.125);
+        }
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void whenAdded_thenSameAsRecordedInOne() {
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram even = new LatencyHistogram();
+        LatencyHistogram odd = new LatencyHistogram();
+        for (long i = 1; i <= 10000; i++) {
+            all.record(i);
+            (i % 2 == 0 ? even : odd).record(i);
+        }
+        even.add(odd);
+
+        assertEquals(all.getCount(), even.getCount());
+        assertEquals(all.getMax(), even.getMax());
+        assertEquals(all.getMean(), even.getMean(), 0);
+        for (double percentile : new double[]{50, 90, 99, 99.9})
+            assertEquals(all.getValueAtPercentile(percentile), even.getValueAtPercentile(percentile));
+    }
+
+    @Test
+    public void whenBucketed_thenValuesWithinBucket() {
+        for (long value : new long[]{0, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.highestValue(bucket) >= value);
+            assertFalse(bucket > 0 && LatencyHistogram.highestValue(bucket - 1) >= value);
+        }
+    }
+}
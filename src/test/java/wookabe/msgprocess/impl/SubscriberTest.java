@@ -1,21 +1,34 @@
 package wookabe.msgprocess.impl;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import wookabe.msgprocess.subscription.Adjustment;
 import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.MessageCodec;
+import wookabe.msgprocess.subscription.MessageView;
 import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static wookabe.msgprocess.Helper.assertTotalValue;
 
 /**
  * Tests of Subscriber.
  */
 public class SubscriberTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     private Subscriber s;
     private Message oneSale;
     private SalesReportTestLogger salesReportTestLogger;
@@ -103,6 +116,402 @@ public class SubscriberTest {
         s.receive(adjustmentMultiplyType3);
     }
 
+    @Test
+    public void whenSalesReported_thenEqualsReportBuiltFromMessages() throws Exception {
+        MessagesReportTestLogger logger = new MessagesReportTestLogger(false);
+        s = new Subscriber(logger);
+
+        generateAndSendMessages("apple", 7);
+        generateAndSendMessages("watch", 6);
+        generateAndSendMessages("oil", 4);
+        generateAndSendMessages("apple", 13);
+
+        assertEquals(3, logger.numberOfVisits);
+    }
+
+    @Test
+    public void whenAdjustedSalesReported_thenEqualsReportBuiltFromMessages() throws Exception {
+        MessagesReportTestLogger logger = new MessagesReportTestLogger(true);
+        s = new Subscriber(logger);
+
+        generateAndSendMessages("apple", 7);
+        generateAndSendMessages("watch", 6);
+        s.receive(new Message("apple", 3, Adjustment.Type.MULTIPLY));
+        generateAndSendMessages("oil", 4);
+        s.receive(new Message("watch", 2, Adjustment.Type.SUBTRACT));
+        generateAndSendMessages("apple", 5);
+        s.receive(new Message("apple", 7.5, Adjustment.Type.ADD));
+        s.receive(new Message("tea", 1.5, Adjustment.Type.ADD));
+        generateAndSendMessages("watch", 5);
+
+        assertEquals(3, logger.numberOfVisits);
+    }
+
+    @Test
+    public void whenAdjusted_thenMessagesEqualEagerlyAdjustedMessages() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        sent.add(new Message("apple", 10, 2));
+        sent.add(new Message("watch", 20, 3));
+        sent.add(new Message("apple", 2, Adjustment.Type.ADD));
+        sent.add(new Message("apple", 12, 1));
+        sent.add(new Message("apple", 3, Adjustment.Type.MULTIPLY));
+        sent.add(new Message("watch", 5, Adjustment.Type.SUBTRACT));
+        sent.add(new Message("watch", 7, 4));
+
+        List<Message> eager = new ArrayList<>();
+        for (Message msg : sent) {
+            s.receive(msg);
+            eager.add(msg.getAdjustment() != null ? msg
+                    : new Message(msg.getProductName(), msg.getPrice(), msg.getNumberOfSales()));
+            if (msg.getAdjustment() != null)
+                eager.stream().
+                        filter(m -> m.getProductName().equals(msg.getProductName())).
+                        forEach(m -> m.adjust(msg.getAdjustment()));
+        }
+
+        assertEquals(eager.size(), s.getMessages().size());
+        for (int i = 0; i < eager.size(); i++) {
+            assertEquals(eager.get(i).getNumberOfSales(), s.getMessages().get(i).getNumberOfSales());
+            assertEquals(eager.get(i).getTotalValue(), s.getMessages().get(i).getTotalValue(), 0);
+        }
+        assertEquals(sent.get(2), s.getMessages().get(2));
+    }
+
+    @Test
+    public void whenManyAdjustments_thenMessagesAndTotalsWithinRoundingOfEagerAdjustment() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        s = new Subscriber(logger, new Limits(300, Integer.MAX_VALUE, Limits.UNLIMITED));
+        Random random = new Random(5);
+        List<Message> eager = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            String pName = i % 3 == 0 ? "pear" : "apple";
+            Message msg;
+            if (i == 150 || i == 153) // scale of the earlier pears underflowing to 0
+                msg = new Message(pName, 1e-200, Adjustment.Type.MULTIPLY);
+            else if (i % 4 == 3)
+                msg = new Message(pName, (random.nextInt(150) + 1) / 100.0 + (i % 8 == 3 ? 0.5 : 0),
+                        Adjustment.Type.values()[random.nextInt(3)]);
+            else
+                msg = new Message(pName, (random.nextInt(10000) + 1) / 100.0, random.nextInt(5) + 1);
+            s.receive(msg);
+            eager.add(msg.getAdjustment() != null ? msg
+                    : new Message(pName, msg.getPrice(), msg.getNumberOfSales()));
+            if (msg.getAdjustment() != null)
+                eager.stream().
+                        filter(m -> m.getProductName().equals(pName) && m.getAdjustment() == null).
+                        forEach(m -> m.adjust(msg.getAdjustment()));
+        }
+
+        // adjusted prices and totals may differ from the eager adjustment in the last bits, not more
+        Map<String, Double> totalValues = new HashMap<>();
+        for (int i = 0; i < eager.size(); i++) {
+            double expected = eager.get(i).getPrice();
+            assertEquals(expected, s.getMessages().get(i).getPrice(), 1e-9 * Math.max(1, Math.abs(expected)));
+            if (eager.get(i).getAdjustment() == null)
+                totalValues.merge(eager.get(i).getProductName(), eager.get(i).getTotalValue(), Double::sum);
+        }
+        totalValues.forEach((pName, expected) -> assertEquals(expected, logger.totalValues.get(0).get(pName),
+                1e-9 * Math.max(1, Math.abs(expected))));
+    }
+
+    @Test
+    public void whenMultipliersOverflowOrUnderflow_thenMessagesAsEagerAdjustment() throws Exception {
+        s = new Subscriber(new RecordingLogger(), new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED));
+        double[] multipliers = {1e300, 1e300, 1e200, 1e-200, 1e-200, 1e-200, 1e250, 1e-300, 1e-300, 1e300, 1e150};
+        List<Message> eager = new ArrayList<>();
+        for (int i = 0; i < multipliers.length; i++) {
+            Message sale = new Message("pear", i + 3, 1);
+            s.receive(sale);
+            eager.add(new Message("pear", sale.getPrice(), 1));
+            for (Adjustment adjustment : Arrays.asList(new Adjustment(Adjustment.Type.MULTIPLY, multipliers[i]),
+                    new Adjustment(Adjustment.Type.ADD, 1))) {
+                s.receive(new Message("pear", adjustment.getValue(), adjustment.getType()));
+                eager.forEach(m -> m.adjust(adjustment));
+            }
+        }
+
+        List<Message> messages = s.getMessages();
+        for (int i = 0; i < eager.size(); i++) {
+            double expected = eager.get(i).getPrice();
+            double price = messages.get(3 * i).getPrice();
+            assertFalse("Price of sale " + i + " is NaN", Double.isNaN(price));
+            assertEquals(expected, price, 1e-9 * Math.max(1, Math.abs(expected)));
+        }
+    }
+
+    @Test
+    public void whenAdjustmentsQueriedSince_thenOnlyLaterAdjustmentsOfProduct() throws Exception {
+        s.receive(new Message("apple", 10, 2));
+        s.receive(new Message("apple", 2, Adjustment.Type.ADD));
+        s.receive(new Message("watch", 5, Adjustment.Type.SUBTRACT));
+        s.receive(new Message("apple", 12, 1));
+        s.receive(new Message("apple", 3, Adjustment.Type.MULTIPLY));
+
+        assertEquals(Arrays.asList(new Adjustment(Adjustment.Type.ADD, 2), new Adjustment(Adjustment.Type.MULTIPLY, 3)),
+                s.getAdjustments("apple"));
+        assertEquals(Collections.singletonList(new Adjustment(Adjustment.Type.MULTIPLY, 3)),
+                s.getAdjustmentsSince("apple", 2));
+        assertEquals(Collections.singletonList(new Adjustment(Adjustment.Type.MULTIPLY, 3)),
+                s.getAdjustmentsSince("apple", 4));
+        assertTrue(s.getAdjustmentsSince("apple", 5).isEmpty());
+        assertEquals(1, s.getAdjustments("watch").size());
+        assertTrue(s.getAdjustments("tea").isEmpty());
+    }
+
+    @Test
+    public void whenRetentionLimited_thenSameReportsAsUnlimited() throws Exception {
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 30000; i++) {
+            String pName = "product" + i % 13;
+            if (i % 997 == 996)
+                batch.add(new Message(pName, 1 + i % 3, Adjustment.Type.values()[i % 3]));
+            else
+                batch.add(new Message(pName, 1 + i % 50, 1 + i % 4));
+        }
+        RecordingLogger unlimited = new RecordingLogger();
+        s = new Subscriber(unlimited, new Limits(1000, 5000, Limits.UNLIMITED));
+        s.receiveAll(batch);
+        List<Message> messages = new ArrayList<>(s.getMessages());
+
+        RecordingLogger dropping = new RecordingLogger();
+        s = new Subscriber(dropping, new Limits(1000, 5000, Limits.UNLIMITED));
+        s.setRetention(Retention.messages(1000));
+        s.receiveAll(batch);
+        assertTrue(s.getMessages().size() < 10000);
+        assertEquals(messages.subList(30000 - s.getMessages().size(), 30000), s.getMessages());
+
+        RecordingLogger spilling = new RecordingLogger();
+        s = new Subscriber(spilling, new Limits(1000, 5000, Limits.UNLIMITED));
+        s.setRetention(Retention.messages(1000).spillTo(folder.getRoot().toPath()));
+        s.receiveAll(batch);
+        assertEquals(messages, s.getMessages());
+        s.close();
+        assertEquals(0, folder.getRoot().list().length);
+
+        assertEquals(36, unlimited.events.size());
+        assertEquals(unlimited.events, dropping.events);
+        assertEquals(unlimited.events, spilling.events);
+    }
+
+    @Test
+    public void whenOptionsCombined_thenAllApplied() throws Exception {
+        Path dir = folder.newFolder().toPath();
+        Limits limits = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+        for (int run = 0; run < 2; run++) {
+            try (Journal journal = new Journal(dir)) {
+                s = new Subscriber(new RecordingLogger(), limits);
+                s.setWaitStrategy(new SpinThenParkWaitStrategy());
+                s.setRetention(Retention.messages(10).spillTo(folder.getRoot().toPath()));
+                s.setFixedPoint(FixedPoint.CENTS);
+                s.setJournal(journal);
+                for (int i = 0; i < 10; i++)
+                    s.receive(new Message("apples", 0.1));
+                s.close();
+            }
+        }
+
+        // replayed messages are aggregated at the precision like received ones
+        assertEquals(new ProductTotals("apples", 20, 2.0), s.getSales("apples"));
+        try {
+            s.setRetention(Retention.UNLIMITED);
+            fail("Options are set before the first message");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void whenReceivedInBatch_thenSameReportsAsOneByOne() throws Exception {
+        List<Message> batch = generateBatch(45);
+        RecordingLogger oneByOne = new RecordingLogger();
+        s = new Subscriber(oneByOne, new Limits(7, 40));
+        for (Message msg : batch.subList(0, 40))
+            s.receive(msg);
+
+        RecordingLogger asList = new RecordingLogger();
+        s = new Subscriber(asList, new Limits(7, 40));
+        s.receiveAll(batch.subList(0, 3));
+        s.receiveAll(batch.subList(3, 40));
+
+        RecordingLogger asArray = new RecordingLogger();
+        s = new Subscriber(asArray, new Limits(7, 40));
+        s.receiveAll(batch.subList(0, 40).toArray(new Message[0]));
+
+        RecordingLogger asIterator = new RecordingLogger();
+        s = new Subscriber(asIterator, new Limits(7, 40));
+        s.receiveAll(batch.subList(0, 40).iterator());
+
+        assertEquals(7, oneByOne.events.size());
+        assertEquals(oneByOne.events, asList.events);
+        assertEquals(oneByOne.events, asArray.events);
+        assertEquals(oneByOne.events, asIterator.events);
+    }
+
+    @Test
+    public void whenBatchCrossesLimit_thenProcessedUpToLimit() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        s = new Subscriber(logger);
+        try {
+            s.receiveAll(generateBatch(60));
+            fail();
+        } catch (NotAcceptingNewMessages e) {
+            assertEquals(50, s.getMessages().size());
+            assertEquals(7, logger.events.size());
+            assertEquals("pause", logger.events.get(5));
+        }
+    }
+
+    @Test
+    public void whenReceivedEncoded_thenSameMessagesAndReports() throws Exception {
+        List<Message> batch = generateBatch(60);
+        RecordingLogger decoded = new RecordingLogger();
+        s = new Subscriber(decoded, new Limits(7, 40));
+        RecordingLogger encodedLogger = new RecordingLogger();
+        Subscriber encoded = new Subscriber(encodedLogger, new Limits(7, 40));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        for (Message msg : batch)
+            MessageCodec.encode(msg, buffer);
+        buffer.flip();
+        MessageView view = new MessageView();
+
+        s.receiveAll(batch.subList(0, 3));
+        encoded.receive(view.wrap(buffer, 0));
+        encoded.receive(view.wrap(buffer, view.getEncodedLength()));
+        encoded.receive(view.wrap(buffer, view.getOffset() + view.getEncodedLength()));
+        buffer.position(view.getOffset() + view.getEncodedLength());
+        try {
+            s.receiveAll(batch.subList(3, 60));
+            fail();
+        } catch (NotAcceptingNewMessages e) {
+            try {
+                encoded.receiveAll(buffer);
+                fail();
+            } catch (NotAcceptingNewMessages expected) {
+                assertEquals(s.getMessages(), encoded.getMessages());
+                assertEquals(decoded.events, encodedLogger.events);
+                assertEquals(batch.get(40), MessageCodec.decode(buffer));
+            }
+        }
+    }
+
+    @Test
+    public void whenBatchHasInvalidMessage_thenNothingProcessed() throws Exception {
+        List<Message> batch = generateBatch(5);
+        batch.add(new Message("", 1));
+        try {
+            s.receiveAll(batch);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, s.getMessages().size());
+        }
+    }
+
+    @Test
+    public void whenPaused_thenOfferRejectsWithoutException() throws Exception {
+        generateAndSendMessages("generic", 50);
+
+        assertFalse(s.isAccepting());
+        assertFalse(s.offer(oneSale));
+        assertEquals(50, s.getMessages().size());
+    }
+
+    @Test
+    public void whenPaused_thenSameStacklessExceptionThrown() throws Exception {
+        generateAndSendMessages("generic", 50);
+
+        NotAcceptingNewMessages first = rejectionOf(oneSale);
+        assertSame(first, rejectionOf(oneSale));
+        assertEquals(0, first.getStackTrace().length);
+    }
+
+    @Test
+    public void whenResumed_thenAcceptsUntilNextPause() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        s = new Subscriber(logger, new Limits(10, 50, 30));
+        s.receiveAll(generateBatch(30));
+        assertFalse(s.offer(oneSale));
+
+        s.resume();
+        s.receiveAll(generateBatch(30));
+
+        assertEquals(60, s.getMessages().size());
+        assertFalse(s.isAccepting());
+        assertEquals(2, logger.events.stream().filter("pause"::equals).count());
+        assertEquals(1, logger.events.stream().filter(e -> e instanceof Map).count());
+    }
+
+    @Test
+    public void whenUnlimited_thenNeverPauses() throws Exception {
+        s = new Subscriber(new RecordingLogger(), new Limits(10, 50, Limits.UNLIMITED));
+        s.receiveAll(generateBatch(1000));
+
+        assertTrue(s.isAccepting());
+        assertEquals(1000, s.getMessages().size());
+    }
+
+    @Test
+    public void whenPausedAndTimedOut_thenRejected() throws Exception {
+        generateAndSendMessages("generic", 50);
+
+        assertFalse(s.offer(oneSale, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void whenWaitingAndResumed_thenAccepted() throws Exception {
+        for (WaitStrategy waitStrategy : new WaitStrategy[]{new BlockingWaitStrategy(), new SpinThenParkWaitStrategy()}) {
+            s = new Subscriber(new RecordingLogger(), Limits.DEFAULT);
+            s.setWaitStrategy(waitStrategy);
+            s.receiveAll(generateBatch(50));
+
+            Thread resumer = new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException ignored) {
+                }
+                s.resume();
+            });
+            resumer.start();
+
+            assertTrue(s.offer(oneSale, 10, TimeUnit.SECONDS));
+            resumer.join();
+            assertEquals(51, s.getMessages().size());
+        }
+    }
+
+    /**
+     * Helper method to catch the rejection of a message.
+     *
+     * @param msg message to send
+     * @return exception thrown
+     */
+    private NotAcceptingNewMessages rejectionOf(Message msg) {
+        try {
+            s.receive(msg);
+        } catch (NotAcceptingNewMessages e) {
+            return e;
+        }
+        throw new AssertionError("Message accepted");
+    }
+
+    /**
+     * Helper method to generate a batch of sales and adjustments of a few products.
+     *
+     * @param n number of messages to generate
+     * @return generated messages
+     */
+    private List<Message> generateBatch(int n) {
+        Random random = new Random(n);
+        Adjustment.Type[] types = Adjustment.Type.values();
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String pName = "product" + random.nextInt(4);
+            if (random.nextInt(5) == 0)
+                batch.add(new Message(pName, random.nextInt(5) + 1, types[random.nextInt(types.length)]));
+            else
+                batch.add(new Message(pName, random.nextInt(100) + 1, random.nextInt(10) + 1));
+        }
+        return batch;
+    }
+
     /**
      * Helper method to generate messages of random price and number of sales.
      *
@@ -164,6 +573,50 @@ public class SubscriberTest {
         }
     }
 
+    /**
+     * Testing sales report against the report built by scanning all received messages.
+     */
+    private class MessagesReportTestLogger implements Logger {
+        final boolean adjusted;
+        int numberOfVisits = 0;
+
+        MessagesReportTestLogger(boolean adjusted) {
+            this.adjusted = adjusted;
+        }
+
+        public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+            numberOfVisits++;
+            Map<String, Integer> expectedNumberOfSales = new HashMap<>();
+            Map<String, Double> expectedTotalValues = new HashMap<>();
+            for (Message m : s.getMessages()) {
+                if (m.getAdjustment() == null) {
+                    String pName = m.getProductName();
+                    expectedNumberOfSales.put(pName, expectedNumberOfSales.getOrDefault(pName, 0) + m.getNumberOfSales());
+                    expectedTotalValues.put(pName, expectedTotalValues.getOrDefault(pName, .0) + m.getTotalValue());
+                }
+            }
+
+            assertEquals(new ArrayList<>(expectedNumberOfSales.keySet()), new ArrayList<>(numberOfSales.keySet()));
+            assertEquals(new ArrayList<>(expectedTotalValues.keySet()), new ArrayList<>(totalValues.keySet()));
+            assertEquals(expectedNumberOfSales, numberOfSales);
+            if (adjusted)
+                expectedTotalValues.forEach((pName, value) -> assertTotalValue(value, totalValues.get(pName)));
+            else
+                assertEquals(expectedTotalValues, totalValues);
+        }
+
+        public void logPause() {
+            //not used
+        }
+
+        public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+            //not used
+        }
+    }
+
+    /**
+     * Recording every report as an event.
+     */
     /**
      * Testing adjustment report through stub logger.
      */
@@ -0,0 +1,169 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of top sales reports, against the exact aggregates of all products.
+ */
+public class TopSalesTest {
+    private static final int PRODUCTS = 100_000;
+    private static final int MESSAGES = 300_000;
+    private static final int REPORT_EVERY = 100_000;
+
+    @Test
+    public void whenExactByTotalValue_thenFirstOfFullReport() throws NotAcceptingNewMessages {
+        assertExactReports(TopSales.Ranking.TOTAL_VALUE);
+    }
+
+    @Test
+    public void whenExactByNumberOfSales_thenFirstOfFullReport() throws NotAcceptingNewMessages {
+        assertExactReports(TopSales.Ranking.NUMBER_OF_SALES);
+    }
+
+    @Test
+    public void whenApproximateByTotalValue_thenMostOfFirstProductsFound() throws NotAcceptingNewMessages {
+        assertApproximateReports(TopSales.Ranking.TOTAL_VALUE);
+    }
+
+    @Test
+    public void whenApproximateByNumberOfSales_thenMostOfFirstProductsFound() throws NotAcceptingNewMessages {
+        assertApproximateReports(TopSales.Ranking.NUMBER_OF_SALES);
+    }
+
+    @Test
+    public void whenFewerProductsThanK_thenAllReported() throws NotAcceptingNewMessages {
+        RecordingLogger logger = new RecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(3, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setTopSales(TopSales.exact(5, TopSales.Ranking.TOTAL_VALUE));
+        s.receive(new Message("apples", 1, 2));
+        s.receive(new Message("pears", 5, 1));
+        s.receive(new Message("plums", 3, 1));
+
+        assertEquals(1, logger.numberOfSales.size());
+        assertEquals(Arrays.asList("pears", "plums", "apples"),
+                new ArrayList<>(logger.numberOfSales.get(0).keySet()));
+    }
+
+    @Test
+    public void whenSketchEstimates_thenNeverBelowTotalWeight() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        Map<Integer, Double> weights = new HashMap<>();
+        Random random = new Random(7);
+        double total = 0;
+        for (int i = 0; i < 100_000; i++) {
+            int item = skewed(random);
+            double weight = 1 + random.nextInt(10);
+            sketch.add(item, weight);
+            weights.merge(item, weight, Double::sum);
+            total += weight;
+        }
+
+        int withinBound = 0;
+        for (Map.Entry<Integer, Double> entry : weights.entrySet()) {
+            double estimate = sketch.estimate(entry.getKey());
+            assertTrue(estimate >= entry.getValue());
+            if (estimate - entry.getValue() <= Math.E / 1024 * total)
+                withinBound++;
+        }
+        assertTrue(withinBound >= 0.95 * weights.size());
+    }
+
+    private void assertExactReports(TopSales.Ranking ranking) throws NotAcceptingNewMessages {
+        List<Message> received = messages();
+        RecordingLogger full = new RecordingLogger();
+        RecordingLogger top = new RecordingLogger();
+        Subscriber all = new Subscriber(full, new Limits(REPORT_EVERY, Integer.MAX_VALUE, Limits.UNLIMITED));
+        Subscriber s = new Subscriber(top, new Limits(REPORT_EVERY, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setTopSales(TopSales.exact(20, ranking));
+        all.receiveAll(received);
+        s.receiveAll(received);
+
+        assertEquals(MESSAGES / REPORT_EVERY, top.numberOfSales.size());
+        for (int i = 0; i < top.numberOfSales.size(); i++) {
+            List<String> expected = ranked(full, i, ranking, received).subList(0, 20);
+            assertEquals(expected, new ArrayList<>(top.numberOfSales.get(i).keySet()));
+            for (String pName : expected) {
+                assertEquals(full.numberOfSales.get(i).get(pName), top.numberOfSales.get(i).get(pName));
+                assertEquals(full.totalValues.get(i).get(pName), top.totalValues.get(i).get(pName));
+            }
+        }
+    }
+
+    private void assertApproximateReports(TopSales.Ranking ranking) throws NotAcceptingNewMessages {
+        List<Message> received = messages();
+        RecordingLogger full = new RecordingLogger();
+        RecordingLogger top = new RecordingLogger();
+        Subscriber all = new Subscriber(full, new Limits(REPORT_EVERY, Integer.MAX_VALUE, Limits.UNLIMITED));
+        Subscriber s = new Subscriber(top, new Limits(REPORT_EVERY, Integer.MAX_VALUE, Limits.UNLIMITED));
+        s.setTopSales(TopSales.approximate(20, ranking));
+        all.receiveAll(received);
+        s.receiveAll(received);
+
+        assertEquals(MESSAGES / REPORT_EVERY, top.numberOfSales.size());
+        for (int i = 0; i < top.numberOfSales.size(); i++) {
+            Set<String> expected = new HashSet<>(ranked(full, i, ranking, received).subList(0, 20));
+            Map<String, Integer> reported = top.numberOfSales.get(i);
+            assertEquals(20, reported.size());
+            long found = reported.keySet().stream().filter(expected::contains).count();
+            assertTrue("Found " + found + " of the first 20 products", found >= 18);
+            for (String pName : reported.keySet()) {
+                assertEquals(full.numberOfSales.get(i).get(pName), reported.get(pName));
+                assertEquals(full.totalValues.get(i).get(pName), top.totalValues.get(i).get(pName));
+            }
+        }
+    }
+
+    /**
+     * Names of all products of a full report, highest ranked first, ties ranked by first message like product ids.
+     */
+    private List<String> ranked(RecordingLogger full, int report, TopSales.Ranking ranking, List<Message> received) {
+        Map<String, Integer> firstMessages = new HashMap<>();
+        for (int i = 0; i < received.size(); i++)
+            firstMessages.putIfAbsent(received.get(i).getProductName(), i);
+        Map<String, Integer> numberOfSales = full.numberOfSales.get(report);
+        Map<String, Double> totalValues = full.totalValues.get(report);
+        Comparator<String> byRank = ranking == TopSales.Ranking.TOTAL_VALUE
+                ? Comparator.comparing(totalValues::get)
+                : Comparator.comparing(numberOfSales::get);
+        return numberOfSales.keySet().stream()
+                .sorted(byRank.reversed().thenComparing(firstMessages::get))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Sales of products skewed towards the lowest numbers, with adjustments of both directions.
+     */
+    private List<Message> messages() {
+        Random random = new Random(42);
+        List<Message> msgs = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            String pName = "product" + skewed(random);
+            if (i % 50 == 49)
+                msgs.add(new Message(pName, 1 + random.nextInt(3), Adjustment.Type.values()[random.nextInt(3)]));
+            else
+                msgs.add(new Message(pName, 1 + random.nextInt(100), 1 + random.nextInt(5)));
+        }
+        return msgs;
+    }
+
+    private static int skewed(Random random) {
+        return (int) (PRODUCTS * Math.pow(random.nextDouble(), 4));
+    }
+}
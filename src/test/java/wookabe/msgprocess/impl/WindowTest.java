@@ -0,0 +1,291 @@
+package wookabe.msgprocess.impl;
+
+import org.junit.Test;
+import wookabe.msgprocess.subscription.Adjustment;
+import wookabe.msgprocess.subscription.Message;
+import wookabe.msgprocess.subscription.NotAcceptingNewMessages;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of window reports of Subscriber.
+ */
+public class WindowTest {
+    private static final Limits NO_REPORTS = new Limits(Integer.MAX_VALUE, Integer.MAX_VALUE, Limits.UNLIMITED);
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void whenTumblingByMessages_thenEachWindowReportedOnce() {
+        WindowRecordingLogger logger = new WindowRecordingLogger();
+        Subscriber s = new Subscriber(logger, NO_REPORTS);
+        s.addWindow(Window.tumbling(10));
+        List<Message> received = messages(95, false);
+        received.forEach(s::offer);
+
+        assertEquals(9, logger.reports.size());
+        for (int i = 0; i < 9; i++) {
+            WindowReport report = logger.reports.get(i);
+            assertEquals(10 * i, report.start);
+            assertEquals(10 * i + 10, report.end);
+            assertWindow(bruteForce(received, report.start, report.end), report);
+        }
+    }
+
+    @Test
+    public void whenSlidingByMessagesWithAdjustments_thenSameAsRecomputed() throws NotAcceptingNewMessages {
+        WindowRecordingLogger logger = new WindowRecordingLogger();
+        Subscriber s = new Subscriber(logger, new Limits(10, 50, Limits.UNLIMITED));
+        s.addWindow(Window.sliding(30, 10));
+        List<Message> received = messages(200, true);
+        s.receiveAll(received);
+
+        assertEquals(20, logger.reports.size());
+        for (WindowReport report : logger.reports) {
+            assertEquals(Math.max(0, report.end - 30), report.start);
+            assertWindow(bruteForce(received, report.start, report.end), report);
+        }
+    }
+
+    @Test
+    public void whenAddedLater_thenWindowsAlignedToMessageCount() {
+        WindowRecordingLogger logger = new WindowRecordingLogger();
+        Subscriber s = new Subscriber(logger, NO_REPORTS);
+        List<Message> received = messages(40, false);
+        received.subList(0, 15).forEach(s::offer);
+        s.addWindow(Window.tumbling(10));
+        received.subList(15, 40).forEach(s::offer);
+
+        assertEquals(3, logger.reports.size());
+        assertWindow(bruteForce(received, 15, 20), logger.reports.get(0));
+        assertWindow(bruteForce(received, 20, 30), logger.reports.get(1));
+        assertWindow(bruteForce(received, 30, 40), logger.reports.get(2));
+    }
+
+    @Test
+    public void whenTumblingByTime_thenReportedByNextMessage() {
+        MutableClock clock = new MutableClock(60_000);
+        WindowRecordingLogger logger = new WindowRecordingLogger();
+        Subscriber s = new Subscriber(logger, NO_REPORTS);
+        s.addWindow(Window.tumbling(1, TimeUnit.SECONDS, clock));
+
+        s.offer(new Message("apples", 10, 2));
+        clock.advance(500);
+        s.offer(new Message("pears", 5, 1));
+        clock.advance(499);
+        s.offer(new Message("apples", 1, Adjustment.Type.MULTIPLY));
+        assertTrue(logger.reports.isEmpty());
+
+        clock.advance(1);
+        s.offer(new Message("apples", 20, 1));
+
+        assertEquals(1, logger.reports.size());
+        WindowReport report = logger.reports.get(0);
+        assertEquals(60_000, report.start);
+        assertEquals(61_000, report.end);
+        assertEquals(Integer.valueOf(2), report.numberOfSales.get("apples"));
+        assertEquals(20, report.totalValues.get("apples"), DELTA);
+        assertEquals(Integer.valueOf(1), report.numberOfSales.get("pears"));
+    }
+
+    @Test
+    public void whenSlidingByTime_thenSalesLeaveWithOldestPane() {
+        MutableClock clock = new MutableClock(0);
+        WindowRecordingLogger logger = new WindowRecordingLogger();
+        Subscriber s = new Subscriber(logger, NO_REPORTS);
+        s.addWindow(Window.sliding(3, 1, TimeUnit.SECONDS, clock));
+
+        for (int second = 0; second < 5; second++) {
+            s.offer(new Message("apples", 10 + second, 1));
+            clock.advance(1000);
+        }
+        s.offer(new Message("pears", 1, 1));
+        s.offer(new Message("apples", 2, Adjustment.Type.ADD));
+
+        assertEquals(5, logger.reports.size());
+        WindowReport last = logger.reports.get(4);
+        assertEquals(2000, last.start);
+        assertEquals(5000, last.end);
+        assertEquals(Integer.valueOf(3), last.numberOfSales.get("apples"));
+        assertEquals(12 + 13 + 14, last.totalValues.get("apples"), DELTA);
+    }
+
+    @Test
+    public void whenIdleLongerThanWindow_thenOnlyWindowsWithSalesReported() {
+        MutableClock clock = new MutableClock(0);
+        WindowRecordingLogger logger = new WindowRecordingLogger();
+        Subscriber s = new Subscriber(logger, NO_REPORTS);
+        s.addWindow(Window.sliding(3, 1, TimeUnit.SECONDS, clock));
+
+        s.offer(new Message("apples", 10, 1));
+        clock.advance(3_600_000);
+        s.offer(new Message("apples", 20, 1));
+        clock.advance(1000);
+        s.offer(new Message("apples", 30, 1));
+
+        assertEquals(4, logger.reports.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Integer.valueOf(1), logger.reports.get(i).numberOfSales.get("apples"));
+            assertEquals(10, logger.reports.get(i).totalValues.get("apples"), DELTA);
+        }
+        WindowReport last = logger.reports.get(3);
+        assertEquals(3_598_000, last.start);
+        assertEquals(3_601_000, last.end);
+        assertEquals(20, last.totalValues.get("apples"), DELTA);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void whenLoggerCannotLogWindows_thenRejected() {
+        Logger logger = new Logger() {
+            @Override
+            public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+            }
+
+            @Override
+            public void logPause() {
+            }
+
+            @Override
+            public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+            }
+        };
+        new Subscriber(logger).addWindow(Window.tumbling(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenSizeNotMultipleOfSlide_thenRejected() {
+        Window.sliding(10, 3);
+    }
+
+    private List<Message> messages(int n, boolean adjustments) {
+        List<Message> msgs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String pName = "product" + i % 7;
+            if (adjustments && i % 9 == 8)
+                msgs.add(new Message(pName, 1 + i % 3, Adjustment.Type.values()[i % 3]));
+            else
+                msgs.add(new Message(pName, 10 + i, 1 + i % 4));
+        }
+        return msgs;
+    }
+
+    /**
+     * Recompute the report of a window from the messages, applying every adjustment up to the end of the window
+     * to the sales received before it.
+     */
+    private WindowReport bruteForce(List<Message> received, long start, long end) {
+        double[] prices = new double[(int) end];
+        for (int i = 0; i < end; i++) {
+            Message msg = received.get(i);
+            if (msg.getAdjustment() == null) {
+                prices[i] = msg.getPrice();
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                if (received.get(j).getAdjustment() == null
+                        && received.get(j).getProductName().equals(msg.getProductName()))
+                    prices[j] = msg.getAdjustment().apply(prices[j]);
+            }
+        }
+
+        WindowReport report = new WindowReport(start, end);
+        for (int i = (int) start; i < end; i++) {
+            Message msg = received.get(i);
+            if (msg.getAdjustment() != null)
+                continue;
+            report.numberOfSales.merge(msg.getProductName(), msg.getNumberOfSales(), Integer::sum);
+            report.totalValues.merge(msg.getProductName(), prices[i] * msg.getNumberOfSales(), Double::sum);
+        }
+        return report;
+    }
+
+    private void assertWindow(WindowReport expected, WindowReport actual) {
+        assertEquals(expected.start, actual.start);
+        assertEquals(expected.end, actual.end);
+        assertEquals(expected.numberOfSales, actual.numberOfSales);
+        assertEquals(expected.totalValues.keySet(), actual.totalValues.keySet());
+        expected.totalValues.forEach((pName, total) -> assertEquals(total, actual.totalValues.get(pName), DELTA));
+    }
+
+    private static class WindowReport {
+        private final long start;
+        private final long end;
+        private final Map<String, Integer> numberOfSales = new HashMap<>();
+        private final Map<String, Double> totalValues = new HashMap<>();
+
+        WindowReport(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static class WindowRecordingLogger implements WindowLogger {
+        private final List<WindowReport> reports = new ArrayList<>();
+
+        @Override
+        public void logWindowReport(Window window, long start, long end,
+                                    Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+            WindowReport report = new WindowReport(start, end);
+            report.numberOfSales.putAll(numberOfSales);
+            report.totalValues.putAll(totalValues);
+            reports.add(report);
+        }
+
+        @Override
+        public void logSalesReport(Map<String, Integer> numberOfSales, Map<String, Double> totalValues) {
+        }
+
+        @Override
+        public void logPause() {
+        }
+
+        @Override
+        public void logAdjustmentReport(Map<String, List<Adjustment>> productsToAdjustments) {
+        }
+    }
+
+    /**
+     * Clock moved by the tests.
+     */
+    private static class MutableClock extends Clock {
+        private long millis;
+
+        MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        void advance(long millis) {
+            this.millis += millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
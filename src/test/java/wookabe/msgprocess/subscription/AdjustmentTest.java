@@ -0,0 +1,36 @@
+package wookabe.msgprocess.subscription;
+
+import org.junit.Test;
+
+import static wookabe.msgprocess.Helper.assertTotalValue;
+
+/**
+ * Tests of Adjustment.
+ */
+public class AdjustmentTest {
+    private final Adjustment add = new Adjustment(Adjustment.Type.ADD, 2.5);
+    private final Adjustment subtract = new Adjustment(Adjustment.Type.SUBTRACT, 4);
+    private final Adjustment multiply = new Adjustment(Adjustment.Type.MULTIPLY, 3);
+
+    @Test
+    public void whenComposedWithIdentity_thenEqualsApply() {
+        assertTotalValue(add.apply(10), add.compose(PriceTransform.IDENTITY).apply(10));
+        assertTotalValue(subtract.apply(10), subtract.compose(PriceTransform.IDENTITY).apply(10));
+        assertTotalValue(multiply.apply(10), multiply.compose(PriceTransform.IDENTITY).apply(10));
+    }
+
+    @Test
+    public void whenComposed_thenEqualsApplyingInOrder() {
+        PriceTransform transform = multiply.compose(subtract.compose(add.compose(PriceTransform.IDENTITY)));
+
+        assertTotalValue(multiply.apply(subtract.apply(add.apply(10))), transform.apply(10));
+    }
+
+    @Test
+    public void whenAppliedToTotal_thenEqualsSumOfAdjustedTotals() {
+        PriceTransform transform = add.compose(multiply.compose(PriceTransform.IDENTITY));
+
+        double expected = 2 * transform.apply(10) + 5 * transform.apply(1.5);
+        assertTotalValue(expected, transform.applyToTotal(2 * 10 + 5 * 1.5, 7));
+    }
+}
@@ -0,0 +1,88 @@
+package wookabe.msgprocess.subscription;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests of MessageCodec and MessageView.
+ */
+public class MessageCodecTest {
+    private final Message sale = new Message("apple", 2.5, 3);
+    private final Message adjustment = new Message("watch", 4, Adjustment.Type.MULTIPLY);
+    private final Message unicode = new Message("\u010daj \u2615 \ud83c\udf75", 1.25, 2);
+
+    @Test
+    public void whenEncoded_thenDecodedEqual() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        MessageCodec.encode(sale, buffer);
+        MessageCodec.encode(adjustment, buffer);
+        MessageCodec.encode(unicode, buffer);
+        buffer.flip();
+
+        assertEquals(sale, MessageCodec.decode(buffer));
+        assertEquals(adjustment, MessageCodec.decode(buffer));
+        assertEquals(unicode, MessageCodec.decode(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void whenEncoded_thenLengthAsComputed() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        assertEquals(MessageCodec.encodedLength(sale), MessageCodec.encode(sale, buffer));
+        assertEquals(MessageCodec.encodedLength(unicode), MessageCodec.encode(unicode, buffer));
+        assertEquals(buffer.position(), MessageCodec.encodedLength(sale) + MessageCodec.encodedLength(unicode));
+    }
+
+    @Test
+    public void whenViewed_thenFieldsReadInPlace() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        buffer.position(10);
+        MessageCodec.encode(sale, buffer);
+        MessageCodec.encode(adjustment, buffer);
+        MessageView view = new MessageView();
+
+        view.wrap(buffer, 10);
+        assertNull(view.getAdjustmentType());
+        assertEquals(2.5, view.getPrice(), 0);
+        assertEquals(3, view.getNumberOfSales());
+        assertEquals("apple", view.getProductName());
+
+        view.wrap(buffer, 10 + view.getEncodedLength());
+        assertEquals(Adjustment.Type.MULTIPLY, view.getAdjustmentType());
+        assertEquals(4, view.getPrice(), 0);
+        assertEquals(adjustment, view.toMessage());
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void whenNoRoom_thenNothingWritten() {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.encodedLength(sale) - 1);
+        try {
+            MessageCodec.encode(sale, buffer);
+        } finally {
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenUnknownVersion_thenRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        MessageCodec.encode(sale, buffer);
+        buffer.put(0, (byte) (MessageCodec.VERSION + 1));
+        new MessageView().wrap(buffer, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void whenTruncated_thenRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        MessageCodec.encode(sale, buffer);
+        buffer.flip().limit(buffer.limit() - 1);
+        MessageCodec.decode(buffer);
+    }
+}